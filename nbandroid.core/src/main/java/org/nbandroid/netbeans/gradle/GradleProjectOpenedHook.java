@@ -2,6 +2,7 @@ package org.nbandroid.netbeans.gradle;
 
 import com.android.builder.model.AndroidProject;
 import org.nbandroid.netbeans.gradle.api.AndroidClassPath;
+import org.nbandroid.netbeans.gradle.v2.layout.AndroidStyleableStore;
 import org.netbeans.api.project.Project;
 import org.netbeans.spi.project.ui.ProjectOpenedHook;
 
@@ -23,6 +24,10 @@ public final class GradleProjectOpenedHook extends ProjectOpenedHook implements
         if (cp != null) {
             cp.register();
         }
+        AndroidProject aPrj = project.getLookup().lookup(AndroidProject.class);
+        if (aPrj != null) {
+            AndroidStyleableStore.preloadPlatform(aPrj);
+        }
     }
 
     @Override
@@ -39,7 +44,9 @@ public final class GradleProjectOpenedHook extends ProjectOpenedHook implements
         if (cp != null) {
             cp.register();
         }
-
+        if (aPrj != null) {
+            AndroidStyleableStore.preloadPlatform(aPrj);
+        }
     }
 
 }
@@ -0,0 +1,262 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nbandroid.netbeans.gradle.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.TimeZone;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.openide.util.lookup.ServiceProvider;
+
+/**
+ * Decoder of the binary {@code logcat -B} output. Each entry is a little
+ * endian {@code logger_entry} header ({@code len}, {@code hdr_size}, pid, tid,
+ * sec, nsec, ...) followed by the payload: priority byte, tag and message,
+ * both zero terminated. Only used on devices, where adb runs shell commands
+ * without a pty, otherwise the line endings in the stream would be rewritten.
+ * After corrupted bytes the decoder skips forward to the next position, where
+ * all header fields are plausible again.
+ *
+ * @author NYEREL
+ */
+public class BinaryFormatDecoder implements LogFormatDecoder {
+
+    private static final Logger LOG = Logger.getLogger(BinaryFormatDecoder.class.getName());
+    // v1 entries have no header size, the field is padding
+    private static final int V1_HEADER_SIZE = 20;
+    private static final int V2_HEADER_SIZE = 24;
+    private static final int V4_HEADER_SIZE = 28;
+    private static final int MAX_PAYLOAD = 64 * 1024;
+    // PID_MAX_LIMIT of the kernel
+    private static final int MAX_PID = 4 * 1024 * 1024;
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private final TagInterner tags = new TagInterner();
+    private final TimeZone timeZone;
+    private byte[] pending = new byte[64 * 1024];
+    private int pendingLength = 0;
+    private int skipped = 0;
+
+    public BinaryFormatDecoder() {
+        this(TimeZone.getDefault());
+    }
+
+    public BinaryFormatDecoder(TimeZone timeZone) {
+        this.timeZone = timeZone;
+    }
+
+    @Override
+    public String getCommand() {
+        return "logcat -B";
+    }
+
+    @Override
+    public void decode(byte[] data, int offset, int length, Sink sink) {
+        if (pendingLength + length > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + length));
+        }
+        System.arraycopy(data, offset, pending, pendingLength, length);
+        pendingLength += length;
+
+        int position = 0;
+        while (pendingLength - position >= 4) {
+            int payloadLength = u16(pending, position);
+            int headerSize = headerSize(pending, position);
+            if (headerSize < 0 || payloadLength < 2 || payloadLength > MAX_PAYLOAD) {
+                position = skip(position);
+                continue;
+            }
+            // the priority byte is checked with the rest of the header
+            if (pendingLength - position < headerSize + 1) {
+                break;
+            }
+            if (!isPlausible(pending, position, headerSize)) {
+                position = skip(position);
+                continue;
+            }
+            int entrySize = headerSize + payloadLength;
+            if (pendingLength - position < entrySize) {
+                break;
+            }
+            if (skipped > 0) {
+                LOG.log(Level.INFO, "Corrupted binary logcat stream, skipped {0} bytes", skipped);
+                skipped = 0;
+            }
+            decodeEntry(pending, position, headerSize, payloadLength, sink);
+            position += entrySize;
+        }
+        if (position > 0) {
+            System.arraycopy(pending, position, pending, 0, pendingLength - position);
+            pendingLength -= position;
+        }
+    }
+
+    @Override
+    public void flush(Sink sink) {
+        // an incomplete entry can't be decoded
+        pendingLength = 0;
+        skipped = 0;
+    }
+
+    private int skip(int position) {
+        skipped++;
+        return position + 1;
+    }
+
+    /**
+     * Size of the entry header, {@code -1} for sizes no logger writes.
+     */
+    private static int headerSize(byte[] data, int start) {
+        int headerSize = u16(data, start + 2);
+        switch (headerSize) {
+            case 0:
+                return V1_HEADER_SIZE;
+            case V2_HEADER_SIZE:
+            case V4_HEADER_SIZE:
+                return headerSize;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Check the header fields and the priority of an entry candidate.
+     */
+    private static boolean isPlausible(byte[] data, int start, int headerSize) {
+        int pid = s32(data, start + 4);
+        int tid = s32(data, start + 8);
+        int nsec = s32(data, start + 16);
+        int priority = data[start + headerSize];
+        return pid >= 0 && pid <= MAX_PID && tid >= 0 && tid <= MAX_PID
+                && nsec >= 0 && nsec < 1000000000
+                && priority >= 0 && priority <= 8;
+    }
+
+    private void decodeEntry(byte[] data, int start, int headerSize, int payloadLength, Sink sink) {
+        int pid = s32(data, start + 4);
+        int tid = s32(data, start + 8);
+        long sec = s32(data, start + 12) & 0xFFFFFFFFL;
+        int nsec = s32(data, start + 16);
+
+        int payload = start + headerSize;
+        int end = payload + payloadLength;
+        if (payloadLength < 2) {
+            return;
+        }
+        LogLevel level = toLevel(data[payload]);
+        int tagStart = payload + 1;
+        int tagEnd = indexOfZero(data, tagStart, end);
+        int messageStart = Math.min(tagEnd + 1, end);
+        int messageEnd = indexOfZero(data, messageStart, end);
+        // messages commonly end with a new line
+        while (messageEnd > messageStart && (data[messageEnd - 1] == '\n' || data[messageEnd - 1] == '\r')) {
+            messageEnd--;
+        }
+
+        String tag = tags.intern(data, tagStart, tagEnd).trim();
+        String time = formatTime(sec * 1000L + nsec / 1000000, timeZone);
+        LogEventInfo info = sink.createInfo(pid, tid, time, tag, level);
+
+        // one event per line, the same way as the text formats
+        int lineStart = messageStart;
+        for (int i = messageStart; i <= messageEnd; i++) {
+            if (i == messageEnd || data[i] == '\n') {
+                String message = new String(data, lineStart, i - lineStart, StandardCharsets.UTF_8);
+                sink.logEvent(info, LogHeaderParser.expandTabs(message));
+                lineStart = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Format the time of the day in the time zone of the device as
+     * {@code HH:mm:ss.SSS}, as the text formats do.
+     */
+    static String formatTime(long millis, TimeZone timeZone) {
+        long local = millis + timeZone.getOffset(millis);
+        long day = ((local % DAY_MILLIS) + DAY_MILLIS) % DAY_MILLIS;
+        int ms = (int) (day % 1000);
+        int s = (int) (day / 1000 % 60);
+        int m = (int) (day / 60000 % 60);
+        int h = (int) (day / 3600000);
+        char[] c = new char[12];
+        c[0] = (char) ('0' + h / 10);
+        c[1] = (char) ('0' + h % 10);
+        c[2] = ':';
+        c[3] = (char) ('0' + m / 10);
+        c[4] = (char) ('0' + m % 10);
+        c[5] = ':';
+        c[6] = (char) ('0' + s / 10);
+        c[7] = (char) ('0' + s % 10);
+        c[8] = '.';
+        c[9] = (char) ('0' + ms / 100);
+        c[10] = (char) ('0' + ms / 10 % 10);
+        c[11] = (char) ('0' + ms % 10);
+        return new String(c);
+    }
+
+    private static LogLevel toLevel(byte priority) {
+        switch (priority) {
+            case 2:
+                return LogLevel.VERBOSE;
+            case 3:
+                return LogLevel.DEBUG;
+            case 4:
+                return LogLevel.INFO;
+            case 5:
+                return LogLevel.WARN;
+            case 6:
+                return LogLevel.ERROR;
+            case 7:
+                return LogLevel.ASSERT;
+            default:
+                return LogLevel.VERBOSE;
+        }
+    }
+
+    private static int indexOfZero(byte[] data, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (data[i] == 0) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static int u16(byte[] data, int i) {
+        return (data[i] & 0xFF) | ((data[i + 1] & 0xFF) << 8);
+    }
+
+    private static int s32(byte[] data, int i) {
+        return (data[i] & 0xFF) | ((data[i + 1] & 0xFF) << 8)
+                | ((data[i + 2] & 0xFF) << 16) | ((data[i + 3] & 0xFF) << 24);
+    }
+
+    @ServiceProvider(service = LogFormatDecoder.Provider.class, position = 300)
+    public static final class Provider implements LogFormatDecoder.Provider {
+
+        @Override
+        public int getMinApiLevel() {
+            // adbd runs non interactive commands without a pty since 7.0
+            return 24;
+        }
+
+        @Override
+        public LogFormatDecoder createDecoder(TimeZone deviceTimeZone) {
+            return new BinaryFormatDecoder(deviceTimeZone);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nbandroid.netbeans.gradle.logcat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Base of decoders of the text formats. Splits the output into UTF-8 lines
+ * and passes every non empty line to {@link #decodeLine}.
+ *
+ * @author NYEREL
+ */
+abstract class LineFormatDecoder implements LogFormatDecoder {
+
+    // printed by logcat when it switches between the log buffers
+    private static final String BUFFER_SEPARATOR = "--------- beginning of ";
+
+    private byte[] pending = new byte[1024];
+    private int pendingLength = 0;
+
+    @Override
+    public void decode(byte[] data, int offset, int length, Sink sink) {
+        int end = offset + length;
+        int start = offset;
+        for (int i = offset; i < end; i++) {
+            if (data[i] == '\n') {
+                if (pendingLength > 0) {
+                    append(data, start, i - start);
+                    line(pending, 0, pendingLength, sink);
+                    pendingLength = 0;
+                } else {
+                    line(data, start, i - start, sink);
+                }
+                start = i + 1;
+            }
+        }
+        if (start < end) {
+            append(data, start, end - start);
+        }
+    }
+
+    @Override
+    public void flush(Sink sink) {
+        if (pendingLength > 0) {
+            line(pending, 0, pendingLength, sink);
+            pendingLength = 0;
+        }
+    }
+
+    private void append(byte[] data, int offset, int length) {
+        if (pendingLength + length > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + length));
+        }
+        System.arraycopy(data, offset, pending, pendingLength, length);
+        pendingLength += length;
+    }
+
+    private void line(byte[] data, int offset, int length, Sink sink) {
+        // the shell may terminate lines by \r\n
+        while (length > 0 && data[offset + length - 1] == '\r') {
+            length--;
+        }
+        if (length == 0) {
+            return;
+        }
+        String line = new String(data, offset, length, StandardCharsets.UTF_8);
+        if (line.startsWith(BUFFER_SEPARATOR)) {
+            return;
+        }
+        decodeLine(line, sink);
+    }
+
+    /**
+     * Decode one non empty line without the line terminator.
+     */
+    protected abstract void decodeLine(String line, Sink sink);
+}
@@ -0,0 +1,514 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nbandroid.netbeans.gradle.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.prefs.Preferences;
+import org.openide.modules.Places;
+import org.openide.util.NbPreferences;
+
+/**
+ * On-disk capture of the events of one device. Events are appended to memory
+ * mapped segment files under the NetBeans cache directory and keep their
+ * sequence numbers across IDE restarts. Every segment has a sparse index of
+ * every {@value #INDEX_INTERVAL}th record, which maps sequence numbers and
+ * capture times to file offsets. Reads decode small pages of events, which
+ * are kept in a LRU cache, so a table can show far more events than fit on
+ * the heap. Old segments are deleted by total size and by age.
+ * <p>
+ * Segment layout: magic, version, first sequence, record count, write
+ * position, followed by the records: length, capture time, pid, tid, level,
+ * time, tag, process name and message.
+ *
+ * @author NYEREL
+ */
+public class LogCaptureStore {
+
+    public static final String PREF_CAPTURE_ENABLED = "logcat.capture.enabled";
+    public static final String PREF_MAX_SIZE_MB = "logcat.capture.maxSizeMB";
+    public static final String PREF_MAX_AGE_HOURS = "logcat.capture.maxAgeHours";
+    public static final int DEFAULT_MAX_SIZE_MB = 512;
+    public static final int MIN_MAX_SIZE_MB = 32;
+    public static final int MAX_MAX_SIZE_MB = 64 * 1024;
+    public static final int DEFAULT_MAX_AGE_HOURS = 7 * 24;
+    public static final int MIN_MAX_AGE_HOURS = 1;
+    public static final int MAX_MAX_AGE_HOURS = 365 * 24;
+
+    private static final Logger LOG = Logger.getLogger(LogCaptureStore.class.getName());
+    private static final String CAPTURE_FOLDER = "nbandroid/logcat/";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final int MAGIC = 0x4C4F4743;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int COUNT_OFFSET = 16;
+    private static final int POSITION_OFFSET = 20;
+    private static final int INDEX_INTERVAL = 128;
+    private static final int PAGE_SIZE = 64;
+    private static final int MAX_PAGES = 64;
+    private static final int MAX_SHORT_STRING = Short.MAX_VALUE;
+
+    private final File directory;
+    private final long maxBytes;
+    private final long maxAge;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private Segment current;
+    private long nextSequence = 0;
+    private boolean failed = false;
+    private final Map<Long, LogEvent[]> pages = new LinkedHashMap<Long, LogEvent[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, LogEvent[]> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+
+    /**
+     * Open the capture of the device, if capturing is enabled.
+     *
+     * @return the store or {@code null}
+     */
+    public static LogCaptureStore open(String deviceSerial) {
+        Preferences prefs = NbPreferences.forModule(LogCaptureStore.class);
+        if (!prefs.getBoolean(PREF_CAPTURE_ENABLED, false)) {
+            return null;
+        }
+        String folder = CAPTURE_FOLDER + deviceSerial.replaceAll("[^a-zA-Z0-9._-]", "_");
+        try {
+            return new LogCaptureStore(Places.getCacheSubdirectory(folder),
+                    getMaxSizeMB(prefs) * 1024L * 1024L,
+                    getMaxAgeHours(prefs) * 60L * 60L * 1000L);
+        } catch (IOException ex) {
+            LOG.log(Level.INFO, "Unable to open logcat capture of " + deviceSerial, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Configured size limit of the capture of one device, clamped to
+     * {@value #MIN_MAX_SIZE_MB}..{@value #MAX_MAX_SIZE_MB} MB, so at least
+     * two segments fit.
+     */
+    public static int getMaxSizeMB(Preferences prefs) {
+        int maxSize = prefs.getInt(PREF_MAX_SIZE_MB, DEFAULT_MAX_SIZE_MB);
+        return Math.max(MIN_MAX_SIZE_MB, Math.min(MAX_MAX_SIZE_MB, maxSize));
+    }
+
+    /**
+     * Configured age limit of captured events, clamped to
+     * {@value #MIN_MAX_AGE_HOURS}..{@value #MAX_MAX_AGE_HOURS} hours.
+     */
+    public static int getMaxAgeHours(Preferences prefs) {
+        int maxAge = prefs.getInt(PREF_MAX_AGE_HOURS, DEFAULT_MAX_AGE_HOURS);
+        return Math.max(MIN_MAX_AGE_HOURS, Math.min(MAX_MAX_AGE_HOURS, maxAge));
+    }
+
+    LogCaptureStore(File directory, long maxBytes, long maxAge) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.maxAge = maxAge;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        Segment segment = Segment.load(file);
+                        segments.put(segment.startSequence, segment);
+                    } catch (IOException | RuntimeException ex) {
+                        LOG.log(Level.INFO, "Dropping unreadable logcat segment " + file, ex);
+                        file.delete();
+                    }
+                }
+            }
+        }
+        if (!segments.isEmpty()) {
+            Segment last = segments.lastEntry().getValue();
+            nextSequence = last.startSequence + last.count;
+            last.openForWriting();
+            current = last;
+        }
+        enforceRetention();
+    }
+
+    /**
+     * Sequence number of the oldest event on disk.
+     */
+    public synchronized long getFirstSequence() {
+        return segments.isEmpty() ? nextSequence : segments.firstKey();
+    }
+
+    public synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * Append the event, which has to be the next in sequence. After the first
+     * write error the capture stops, events already stored can still be read.
+     *
+     * @return {@code false}, if the capture is stopped
+     */
+    public synchronized boolean append(LogEvent event, long sequence) {
+        if (failed) {
+            return false;
+        }
+        if (sequence != nextSequence) {
+            throw new IllegalArgumentException("Expected sequence " + nextSequence + ", got " + sequence);
+        }
+        byte[] time = utf8(event.getTime(), MAX_SHORT_STRING);
+        byte[] tag = utf8(event.getTag(), MAX_SHORT_STRING);
+        String[] nameRef = event.getProcessNameRef();
+        byte[] pname = utf8(nameRef != null && nameRef[0] != null ? nameRef[0] : "", MAX_SHORT_STRING);
+        int fixed = 4 + 8 + 4 + 4 + 1 + 2 + time.length + 2 + tag.length + 2 + pname.length + 4;
+        byte[] message = utf8(event.getMessage(), SEGMENT_SIZE - HEADER_SIZE - fixed);
+        int length = fixed + message.length;
+
+        try {
+            if (current == null || current.writePosition + length > SEGMENT_SIZE) {
+                rollSegment(sequence);
+            }
+            long now = System.currentTimeMillis();
+            MappedByteBuffer out = current.buffer;
+            int position = current.writePosition;
+            out.position(position);
+            out.putInt(length - 4);
+            out.putLong(now);
+            out.putInt(event.getPid());
+            out.putInt(event.getTid());
+            out.put((byte) event.getLevel().ordinal());
+            out.putShort((short) time.length).put(time);
+            out.putShort((short) tag.length).put(tag);
+            out.putShort((short) pname.length).put(pname);
+            out.putInt(message.length).put(message);
+            current.addRecord(position, now);
+            current.writePosition = position + length;
+            out.putInt(COUNT_OFFSET, current.count);
+            out.putInt(POSITION_OFFSET, current.writePosition);
+            nextSequence++;
+            return true;
+        } catch (IOException ex) {
+            LOG.log(Level.INFO, "Unable to write logcat capture, capturing stopped", ex);
+            failed = true;
+            current = null;
+            return false;
+        }
+    }
+
+    /**
+     * Check, if the capture was stopped by a write error.
+     */
+    public synchronized boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Read a stored event.
+     *
+     * @return the event or {@code null}, if it was deleted already
+     */
+    public synchronized LogEvent read(long sequence) {
+        if (sequence < getFirstSequence() || sequence >= nextSequence) {
+            return null;
+        }
+        long page = sequence / PAGE_SIZE;
+        LogEvent[] events = pages.get(page);
+        if (events == null) {
+            events = new LogEvent[PAGE_SIZE];
+            long pageStart = page * PAGE_SIZE;
+            long from = Math.max(pageStart, getFirstSequence());
+            long to = Math.min(pageStart + PAGE_SIZE, nextSequence);
+            decode(from, to, events, (int) (from - pageStart));
+            // the last page is still growing
+            if (pageStart + PAGE_SIZE <= nextSequence) {
+                pages.put(page, events);
+            }
+        }
+        return events[(int) (sequence % PAGE_SIZE)];
+    }
+
+    /**
+     * Find the first event captured at or after the given time, with the
+     * granularity of the sparse index.
+     */
+    public synchronized long findSequence(long captureTime) {
+        for (Segment segment : segments.values()) {
+            if (segment.count > 0 && segment.lastTime >= captureTime) {
+                int entry = Arrays.binarySearch(segment.indexTimes, 0, segment.indexSize(), captureTime);
+                if (entry < 0) {
+                    entry = Math.max(0, -entry - 2);
+                }
+                return segment.startSequence + (long) entry * INDEX_INTERVAL;
+            }
+        }
+        return nextSequence;
+    }
+
+    /**
+     * Read a range of stored events in one pass, bypassing the page cache,
+     * so scans of the whole capture do not evict the pages of the table.
+     *
+     * @return the events, {@code null} for those deleted already
+     */
+    public synchronized LogEvent[] read(long from, long to) {
+        LogEvent[] events = new LogEvent[(int) Math.max(0, to - from)];
+        long start = Math.max(from, getFirstSequence());
+        long end = Math.min(to, nextSequence);
+        if (start < end) {
+            decode(start, end, events, (int) (start - from));
+        }
+        return events;
+    }
+
+    private void decode(long from, long to, LogEvent[] out, int outOffset) {
+        long sequence = from;
+        while (sequence < to) {
+            Map.Entry<Long, Segment> entry = segments.floorEntry(sequence);
+            if (entry == null) {
+                return;
+            }
+            Segment segment = entry.getValue();
+            long segmentEnd = segment.startSequence + segment.count;
+            if (sequence >= segmentEnd) {
+                return;
+            }
+            try {
+                ByteBuffer in = segment.map().duplicate();
+                int record = (int) (sequence - segment.startSequence);
+                in.position(segment.indexOffsets[record / INDEX_INTERVAL]);
+                for (int skip = record % INDEX_INTERVAL; skip > 0; skip--) {
+                    in.position(in.position() + 4 + in.getInt(in.position()));
+                }
+                for (; sequence < to && sequence < segmentEnd; sequence++) {
+                    LogEvent event = decodeRecord(in);
+                    event.setSequence(sequence);
+                    out[outOffset++] = event;
+                }
+            } catch (IOException | BufferUnderflowException | IllegalArgumentException ex) {
+                LOG.log(Level.INFO, "Unable to read logcat capture " + segment.file, ex);
+                return;
+            }
+        }
+    }
+
+    private static LogEvent decodeRecord(ByteBuffer in) {
+        in.getInt();
+        in.getLong();
+        int pid = in.getInt();
+        int tid = in.getInt();
+        LogLevel level = LogLevel.values()[in.get()];
+        String time = string(in, in.getShort());
+        String tag = string(in, in.getShort());
+        String pname = string(in, in.getShort());
+        String message = string(in, in.getInt());
+        LogEventInfo info = new LogEventInfo(pid, tid, new String[]{pname.isEmpty() ? null : pname}, time, tag, level);
+        return new LogEvent(info, message);
+    }
+
+    private static String string(ByteBuffer in, int length) {
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] utf8(String s, int maxLength) {
+        byte[] bytes = (s != null ? s : "").getBytes(StandardCharsets.UTF_8);
+        return bytes.length <= maxLength ? bytes : Arrays.copyOf(bytes, maxLength);
+    }
+
+    private void rollSegment(long startSequence) throws IOException {
+        if (current != null) {
+            current.closeForWriting();
+        }
+        File file = new File(directory, String.format("%020d", startSequence) + SEGMENT_SUFFIX);
+        current = Segment.create(file, startSequence);
+        segments.put(startSequence, current);
+        enforceRetention();
+    }
+
+    /**
+     * Delete the oldest segments, while the capture is too large or too old.
+     */
+    private void enforceRetention() {
+        long total = 0;
+        for (Segment segment : segments.values()) {
+            total += segment.writePosition;
+        }
+        long oldest = System.currentTimeMillis() - maxAge;
+        for (Iterator<Segment> it = segments.values().iterator(); it.hasNext();) {
+            Segment segment = it.next();
+            if (segment == current) {
+                break;
+            }
+            if (total <= maxBytes && segment.lastTime >= oldest) {
+                break;
+            }
+            total -= segment.writePosition;
+            it.remove();
+            // Windows does not delete files, which are still mapped
+            segment.unmap();
+            if (!segment.file.delete()) {
+                LOG.log(Level.FINE, "Unable to delete logcat segment {0}", segment.file);
+                segment.file.deleteOnExit();
+            }
+        }
+        pages.clear();
+    }
+
+    private static final class Segment {
+
+        private final File file;
+        private final long startSequence;
+        private int count = 0;
+        private int writePosition = HEADER_SIZE;
+        private long lastTime = 0;
+        private int[] indexOffsets = new int[64];
+        private long[] indexTimes = new long[64];
+        private MappedByteBuffer buffer;
+        private boolean writable = false;
+
+        private Segment(File file, long startSequence) {
+            this.file = file;
+            this.startSequence = startSequence;
+        }
+
+        static Segment create(File file, long startSequence) throws IOException {
+            Segment segment = new Segment(file, startSequence);
+            segment.openForWriting();
+            MappedByteBuffer out = segment.buffer;
+            out.putInt(0, MAGIC);
+            out.putInt(4, VERSION);
+            out.putLong(8, startSequence);
+            out.putInt(COUNT_OFFSET, 0);
+            out.putInt(POSITION_OFFSET, HEADER_SIZE);
+            return segment;
+        }
+
+        /**
+         * Read the header and rebuild the sparse index.
+         */
+        static Segment load(File file) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+                    throw new IOException("Not a logcat segment: " + file);
+                }
+                Segment segment = new Segment(file, raf.readLong());
+                int count = raf.readInt();
+                int end = Math.min(raf.readInt(), (int) Math.min(raf.length(), SEGMENT_SIZE));
+                ByteBuffer in = segment.map();
+                int position = HEADER_SIZE;
+                // records after the last complete one are ignored
+                while (segment.count < count && position + 4 + 8 <= end) {
+                    int length = in.getInt(position);
+                    if (length <= 0 || position + 4 + length > end) {
+                        break;
+                    }
+                    segment.addRecord(position, in.getLong(position + 4));
+                    position += 4 + length;
+                }
+                segment.writePosition = position;
+                return segment;
+            }
+        }
+
+        void addRecord(int position, long time) {
+            if (count % INDEX_INTERVAL == 0) {
+                int entry = count / INDEX_INTERVAL;
+                if (entry == indexOffsets.length) {
+                    indexOffsets = Arrays.copyOf(indexOffsets, entry * 2);
+                    indexTimes = Arrays.copyOf(indexTimes, entry * 2);
+                }
+                indexOffsets[entry] = position;
+                indexTimes[entry] = time;
+            }
+            lastTime = time;
+            count++;
+        }
+
+        int indexSize() {
+            return (count + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+        }
+
+        MappedByteBuffer map() throws IOException {
+            if (buffer == null) {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                    buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                }
+            }
+            return buffer;
+        }
+
+        void openForWriting() throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(SEGMENT_SIZE);
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+            }
+            writable = true;
+        }
+
+        /**
+         * Release the mapping right away instead of waiting for the garbage
+         * collector. Readers only use the buffer under the store monitor,
+         * which the caller holds.
+         */
+        void unmap() {
+            MappedByteBuffer mapped = buffer;
+            buffer = null;
+            writable = false;
+            if (mapped == null) {
+                return;
+            }
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                try {
+                    Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                    Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                    theUnsafe.setAccessible(true);
+                    invokeCleaner.invoke(theUnsafe.get(null), mapped);
+                } catch (NoSuchMethodException ex) {
+                    // Java 8
+                    Method cleanerMethod = mapped.getClass().getMethod("cleaner");
+                    cleanerMethod.setAccessible(true);
+                    Object cleaner = cleanerMethod.invoke(mapped);
+                    if (cleaner != null) {
+                        cleaner.getClass().getMethod("clean").invoke(cleaner);
+                    }
+                }
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                LOG.log(Level.FINE, "Unable to unmap logcat segment " + file, ex);
+            }
+        }
+
+        void closeForWriting() {
+            if (writable) {
+                buffer.force();
+                writable = false;
+            }
+        }
+    }
+}
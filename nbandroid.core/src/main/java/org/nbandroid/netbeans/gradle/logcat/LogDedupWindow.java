@@ -0,0 +1,214 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nbandroid.netbeans.gradle.logcat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bounded de-duplication window of one device. When logcat is restarted after
+ * a reconnect, it replays the whole device log buffer first. Only those
+ * replayed events are duplicates, so nothing is checked while a session runs.
+ * After {@link #beginReplay()} incoming events are classified by time: older
+ * than the window means already seen, newer than the last event means the
+ * replay is over, and events in between are looked up by their (time, pid,
+ * tid, level, tag hash, message hash) key among the last N events. The keys
+ * are counted in a hash map, the ring only decides which entry is evicted
+ * next.
+ *
+ * @author NYEREL
+ */
+final class LogDedupWindow {
+
+    public static final int DEFAULT_SIZE = 4096;
+    private static final int DAY_MILLIS = 24 * 60 * 60 * 1000;
+    private static final int UNKNOWN_TIME = -1;
+
+    private final Key[] ring;
+    /**
+     * Key -> {entries in the window, entries matched by the current replay}.
+     * Replays match the oldest entries of a key first, so the evicted entry
+     * of a key is a matched one, as long as there are any.
+     */
+    private final Map<Key, int[]> counts;
+    private int next = 0;
+    private int count = 0;
+    private boolean replay = false;
+
+    LogDedupWindow() {
+        this(DEFAULT_SIZE);
+    }
+
+    LogDedupWindow(int size) {
+        ring = new Key[size];
+        counts = new HashMap<>(size * 2);
+    }
+
+    /**
+     * A new logcat session starts, the next events may repeat the tail of the
+     * previous one.
+     */
+    synchronized void beginReplay() {
+        replay = count > 0;
+        for (int[] counters : counts.values()) {
+            counters[1] = 0;
+        }
+    }
+
+    /**
+     * Check the event and remember it, if it is new.
+     *
+     * @return {@code false}, if the event is a replayed duplicate
+     */
+    synchronized boolean accept(LogEvent event) {
+        Key key = new Key(event, parseTime(event.getTime()));
+        if (replay && key.time != UNKNOWN_TIME) {
+            int newest = ring[index(count - 1)].time;
+            int oldest = ring[index(0)].time;
+            boolean timed = newest != UNKNOWN_TIME && oldest != UNKNOWN_TIME;
+            if (timed && compareTimes(key.time, oldest) < 0) {
+                // replayed from before the window
+                return false;
+            }
+            if (timed && compareTimes(key.time, newest) > 0) {
+                replay = false;
+            } else {
+                int[] counters = counts.get(key);
+                if (counters != null && counters[1] < counters[0]) {
+                    // identical lines are matched one to one
+                    counters[1]++;
+                    return false;
+                }
+            }
+        }
+        if (count == ring.length) {
+            evict(ring[next]);
+        } else {
+            count++;
+        }
+        ring[next] = key;
+        next = (next + 1) % ring.length;
+        int[] counters = counts.get(key);
+        if (counters == null) {
+            counts.put(key, new int[]{1, 0});
+        } else {
+            counters[0]++;
+        }
+        return true;
+    }
+
+    private void evict(Key key) {
+        int[] counters = counts.get(key);
+        if (--counters[0] == 0) {
+            counts.remove(key);
+        } else if (counters[1] > 0) {
+            counters[1]--;
+        }
+    }
+
+    /**
+     * Index of the i-th oldest entry.
+     */
+    private int index(int i) {
+        return (next - count + i + ring.length) % ring.length;
+    }
+
+    private static final class Key {
+
+        private final int time;
+        private final int pid;
+        private final int tid;
+        private final int level;
+        private final int tagHash;
+        private final int messageHash;
+
+        Key(LogEvent event, int time) {
+            this.time = time;
+            this.pid = event.getPid();
+            this.tid = event.getTid();
+            this.level = event.getLevel().ordinal();
+            this.tagHash = event.getTag().hashCode();
+            this.messageHash = event.getMessage().hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            int h = time;
+            h = 31 * h + pid;
+            h = 31 * h + tid;
+            h = 31 * h + level;
+            h = 31 * h + tagHash;
+            return 31 * h + messageHash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return time == other.time && pid == other.pid && tid == other.tid && level == other.level
+                    && tagHash == other.tagHash && messageHash == other.messageHash;
+        }
+    }
+
+    /**
+     * Compare two times of day; a difference over 12 hours is a wrap around
+     * midnight.
+     */
+    private static int compareTimes(int a, int b) {
+        int diff = a - b;
+        if (diff > DAY_MILLIS / 2) {
+            diff -= DAY_MILLIS;
+        } else if (diff < -DAY_MILLIS / 2) {
+            diff += DAY_MILLIS;
+        }
+        return Integer.compare(diff, 0);
+    }
+
+    /**
+     * Parse {@code HH:MM:SS.fff} into milliseconds of the day.
+     */
+    static int parseTime(String time) {
+        if (time == null || time.length() < 10 || time.charAt(2) != ':' || time.charAt(5) != ':' || time.charAt(8) != '.') {
+            return UNKNOWN_TIME;
+        }
+        int h = digits(time, 0, 2);
+        int m = digits(time, 3, 5);
+        int s = digits(time, 6, 8);
+        int ms = digits(time, 9, Math.min(12, time.length()));
+        if (h < 0 || m < 0 || s < 0 || ms < 0) {
+            return UNKNOWN_TIME;
+        }
+        for (int i = time.length(); i < 12; i++) {
+            ms *= 10;
+        }
+        return ((h * 60 + m) * 60 + s) * 1000 + ms;
+    }
+
+    private static int digits(String s, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
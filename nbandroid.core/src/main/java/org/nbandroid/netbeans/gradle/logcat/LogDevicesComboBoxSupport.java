@@ -35,12 +35,14 @@ import org.nbandroid.netbeans.gradle.v2.sdk.AndroidSdkProvider;
 import org.openide.util.Lookup;
 import org.openide.util.LookupEvent;
 import org.openide.util.LookupListener;
+import org.openide.util.NbBundle;
 import org.openide.util.Utilities;
 import org.openide.util.WeakListeners;
 
 /**
  * Support class for the list of logged devices. Implements a data model, cell
- * renderer and a listener to handle attached and detached devices.
+ * renderer and a listener to handle attached and detached devices. The first
+ * entry shows the events of all devices.
  *
  * @author Christian Fischer
  */
@@ -60,6 +62,8 @@ public class LogDevicesComboBoxSupport
 
     protected LogDevicesComboBoxSupport(LogReader reader) {
         this.reader = reader;
+        devices.add(LogReader.ALL_DEVICES);
+        deviceLabels.put(LogReader.ALL_DEVICES, NbBundle.getMessage(LogDevicesComboBoxSupport.class, "LogDevices.allDevices"));
 
         // get notification for logged devices
         reader.addPropertyChangeListener(WeakListeners.propertyChange(this, reader));
@@ -183,7 +187,7 @@ public class LogDevicesComboBoxSupport
      */
     private void remove(String device) {
         // do we have log events for this device?
-        if (reader.getLogEventsForDevice(device) != null) {
+        if (reader.getLogEventBuffer(device) != null) {
             // if true, we want to keep it
             return;
         }
@@ -39,6 +39,7 @@ public class LogEvent implements Comparable<LogEvent> {
     private final LogEventInfo info;
     private final String message;
     private final StackTraceElement ste;
+    private volatile long sequence = -1;
 
     public LogEvent(LogEventInfo info, String message) {
         this.info = info;
@@ -91,6 +92,10 @@ public class LogEvent implements Comparable<LogEvent> {
         return info.getPid();
     }
 
+    public int getTid() {
+        return info.getTid();
+    }
+
     public String getProcessName() {
         return info.getProcessName();
     }
@@ -111,6 +116,18 @@ public class LogEvent implements Comparable<LogEvent> {
         return ste;
     }
 
+    /**
+     * Sequence number assigned by the {@link LogEventBuffer} holding this
+     * event, or {@code -1} if the event was never stored.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
     @Override
     public String toString() {
         return info.getTime() + ": "
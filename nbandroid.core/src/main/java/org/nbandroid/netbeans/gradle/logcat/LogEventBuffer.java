@@ -0,0 +1,296 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nbandroid.netbeans.gradle.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.prefs.Preferences;
+import org.openide.util.NbPreferences;
+
+/**
+ * Fixed-capacity ring buffer of log events of one device. Every stored event
+ * gets a monotonically increasing sequence number, so table models can keep
+ * plain sequence numbers instead of their own copy of the events. When the
+ * buffer is full, or the optional memory budget is exceeded, the oldest
+ * events are evicted first. With a {@link LogCaptureStore} every event is
+ * also written to disk, so evicted events can still be read back.
+ *
+ * @author NYEREL
+ */
+public class LogEventBuffer {
+
+    public static final String PREF_CAPACITY = "logcat.buffer.capacity";
+    public static final String PREF_MEMORY_BUDGET_MB = "logcat.buffer.memoryBudgetMB";
+    public static final int DEFAULT_CAPACITY = 200000;
+    public static final int MIN_CAPACITY = 1000;
+    public static final int MAX_CAPACITY = 10000000;
+    public static final int DEFAULT_MEMORY_BUDGET_MB = 0;
+    public static final int MIN_MEMORY_BUDGET_MB = 8;
+    public static final int MAX_MEMORY_BUDGET_MB = 4096;
+
+    private static final Logger LOG = Logger.getLogger(LogEventBuffer.class.getName());
+    // rough shallow size of LogEvent + String + char[] headers
+    private static final int EVENT_OVERHEAD = 96;
+
+    private final LogEvent[] events;
+    private final long memoryBudget;
+    private final LogEventIndex index;
+    private final LogCaptureStore store;
+    private boolean capturing;
+    private long firstSequence = 0;
+    private long nextSequence = 0;
+    private long usedBytes = 0;
+
+    /**
+     * Create a buffer for the device configured from the module preferences.
+     */
+    public static LogEventBuffer create(String deviceSerial) {
+        Preferences prefs = NbPreferences.forModule(LogEventBuffer.class);
+        int capacity = getCapacity(prefs);
+        int budgetMB = getMemoryBudgetMB(prefs);
+        return new LogEventBuffer(capacity, budgetMB * 1024L * 1024L, true, LogCaptureStore.open(deviceSerial));
+    }
+
+    /**
+     * Configured capacity, clamped to
+     * {@value #MIN_CAPACITY}..{@value #MAX_CAPACITY} events.
+     */
+    public static int getCapacity(Preferences prefs) {
+        int capacity = prefs.getInt(PREF_CAPACITY, DEFAULT_CAPACITY);
+        return Math.max(MIN_CAPACITY, Math.min(MAX_CAPACITY, capacity));
+    }
+
+    /**
+     * Configured memory budget in MB, {@code 0} for none, otherwise clamped
+     * to {@value #MIN_MEMORY_BUDGET_MB}..{@value #MAX_MEMORY_BUDGET_MB}.
+     */
+    public static int getMemoryBudgetMB(Preferences prefs) {
+        int budgetMB = prefs.getInt(PREF_MEMORY_BUDGET_MB, DEFAULT_MEMORY_BUDGET_MB);
+        if (budgetMB <= 0) {
+            return 0;
+        }
+        return Math.max(MIN_MEMORY_BUDGET_MB, Math.min(MAX_MEMORY_BUDGET_MB, budgetMB));
+    }
+
+    public LogEventBuffer(int capacity, long memoryBudget) {
+        this(capacity, memoryBudget, false);
+    }
+
+    public LogEventBuffer(int capacity, long memoryBudget, boolean indexed) {
+        this(capacity, memoryBudget, indexed, null);
+    }
+
+    /**
+     * @param capacity maximum number of events kept in the buffer
+     * @param memoryBudget approximate heap budget in bytes, {@code 0} means the
+     * buffer is limited by its capacity only
+     * @param indexed maintain a {@link LogEventIndex} for filtering
+     * @param store on-disk capture of the device or {@code null}; sequence
+     * numbers continue after the events already captured
+     */
+    public LogEventBuffer(int capacity, long memoryBudget, boolean indexed, LogCaptureStore store) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.events = new LogEvent[capacity];
+        this.memoryBudget = memoryBudget;
+        this.store = store;
+        this.capturing = store != null;
+        if (store != null) {
+            firstSequence = store.getNextSequence();
+            nextSequence = firstSequence;
+        }
+        this.index = indexed ? new LogEventIndex(this, capacity, firstSequence) : null;
+    }
+
+    /**
+     * Append an event, evicting the oldest ones when needed.
+     *
+     * @return sequence number assigned to the event
+     */
+    public synchronized long add(LogEvent event) {
+        if (nextSequence - firstSequence == events.length) {
+            evictOldest();
+        }
+        long sequence = nextSequence++;
+        event.setSequence(sequence);
+        events[slot(sequence)] = event;
+        usedBytes += estimateSize(event);
+        if (index != null) {
+            index.added(sequence, event);
+        }
+        if (capturing) {
+            capture(event, sequence);
+        }
+        if (memoryBudget > 0) {
+            // keep at least the event just added
+            while (usedBytes > memoryBudget && nextSequence - firstSequence > 1) {
+                evictOldest();
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * Get the event with the given sequence number. Evicted events are read
+     * from the capture store, if there is one.
+     *
+     * @return the event or {@code null}, if it was already evicted
+     */
+    public LogEvent get(long sequence) {
+        LogEvent event;
+        synchronized (this) {
+            event = getLocked(sequence);
+            if (event != null || store == null || sequence >= firstSequence) {
+                return event;
+            }
+        }
+        return store.read(sequence);
+    }
+
+    LogEvent getLocked(long sequence) {
+        if (sequence < firstSequence || sequence >= nextSequence) {
+            return null;
+        }
+        return events[slot(sequence)];
+    }
+
+    long firstSequenceLocked() {
+        return firstSequence;
+    }
+
+    long nextSequenceLocked() {
+        return nextSequence;
+    }
+
+    /**
+     * Find the events with at least the given level, which contain all the
+     * keywords in their tag, process name or message.
+     *
+     * @param keywords lower cased keywords
+     * @return the result or {@code null}, if this buffer is not indexed
+     */
+    public synchronized LogEventIndex.Result query(LogLevel level, String[] keywords) {
+        return index != null ? index.query(level, keywords) : null;
+    }
+
+    /**
+     * Check, if the event with the given sequence number is part of a query
+     * result of this buffer.
+     */
+    public synchronized boolean matches(LogEventIndex.Result result, long sequence) {
+        return index.contains(result, sequence);
+    }
+
+    /**
+     * Check, if the given event is still stored in the memory of this buffer.
+     * Events read back from the capture store are not.
+     */
+    public synchronized boolean contains(LogEvent event) {
+        long sequence = event.getSequence();
+        return sequence >= 0 && getLocked(sequence) == event;
+    }
+
+
+    /**
+     * Sequence number of the oldest event still stored.
+     */
+    public synchronized long getFirstSequence() {
+        return firstSequence;
+    }
+
+    /**
+     * Sequence number of the oldest event, which can still be read, either
+     * from memory or from the capture store.
+     */
+    public long getOldestSequence() {
+        return store != null ? Math.min(store.getFirstSequence(), getFirstSequence()) : getFirstSequence();
+    }
+
+    public LogCaptureStore getCaptureStore() {
+        return store;
+    }
+
+    /**
+     * Sequence number, which will be assigned to the next added event.
+     */
+    public synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    public synchronized int size() {
+        return (int) (nextSequence - firstSequence);
+    }
+
+    public int getCapacity() {
+        return events.length;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Create a snapshot of all events stored, oldest first.
+     */
+    public synchronized List<LogEvent> toList() {
+        List<LogEvent> list = new ArrayList<>(size());
+        for (long sequence = firstSequence; sequence < nextSequence; sequence++) {
+            list.add(events[slot(sequence)]);
+        }
+        return list;
+    }
+
+    /**
+     * Write the event to the capture store. A failing capture never breaks
+     * the buffer, it just stops capturing.
+     */
+    private void capture(LogEvent event, long sequence) {
+        try {
+            capturing = store.append(event, sequence);
+        } catch (RuntimeException ex) {
+            LOG.log(Level.INFO, "Logcat capture failed, events are kept in memory only", ex);
+            capturing = false;
+        }
+    }
+
+    private void evictOldest() {
+        int position = slot(firstSequence);
+        LogEvent event = events[position];
+        events[position] = null;
+        if (event != null) {
+            usedBytes -= estimateSize(event);
+        }
+        firstSequence++;
+        if (index != null) {
+            index.evicted(firstSequence - 1, firstSequence);
+        }
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % events.length);
+    }
+
+    private static long estimateSize(LogEvent event) {
+        String message = event.getMessage();
+        return EVENT_OVERHEAD + (message != null ? 2L * message.length() : 0);
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nbandroid.netbeans.gradle.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Filter index of a {@link LogEventBuffer}, maintained as events are added.
+ * It holds a bit set per log level and posting lists per tag and pid, so
+ * level and keyword filters are answered by intersecting bit sets. Messages
+ * are searched case-insensitively in place, without lower cased copies, so
+ * the index adds almost nothing to the memory of the buffer.
+ * Bit {@code i} of every set stands for the event with sequence number
+ * {@code base + i}.
+ * <p>
+ * Process names are resolved after their first events arrive. Results with
+ * keywords are evaluated again, once a name they were computed without is
+ * known.
+ * <p>
+ * The index is guarded by the monitor of its buffer.
+ *
+ * @author NYEREL
+ */
+public final class LogEventIndex {
+
+    private static final int MAX_CACHED_RESULTS = 16;
+
+    private final LogEventBuffer buffer;
+    private final int capacity;
+    private final BitSet[] levelBits = new BitSet[LogLevel.values().length];
+    private final Map<String, BitSet> tagBits = new HashMap<>();
+    private final Map<String, String> lowerTags = new HashMap<>();
+    private final Map<Integer, BitSet> pidBits = new HashMap<>();
+    private final Map<Integer, String[]> pidNames = new HashMap<>();
+    private final Map<Integer, String[]> unresolvedNames = new HashMap<>();
+    private final Map<String, Result> results = new LinkedHashMap<String, Result>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+            return size() > MAX_CACHED_RESULTS;
+        }
+    };
+    private long base;
+    private int namesVersion;
+
+    LogEventIndex(LogEventBuffer buffer, int capacity, long base) {
+        this.buffer = buffer;
+        this.base = base;
+        this.capacity = capacity;
+        for (int i = 0; i < levelBits.length; i++) {
+            levelBits[i] = new BitSet();
+        }
+    }
+
+    void added(long sequence, LogEvent event) {
+        int bit = (int) (sequence - base);
+        levelBits[event.getLevel().ordinal()].set(bit);
+
+        String tag = event.getTag();
+        BitSet tags = tagBits.get(tag);
+        if (tags == null) {
+            tags = new BitSet();
+            tagBits.put(tag, tags);
+            lowerTags.put(tag, tag.toLowerCase());
+        }
+        tags.set(bit);
+
+        BitSet pids = pidBits.get(event.getPid());
+        if (pids == null) {
+            pids = new BitSet();
+            pidBits.put(event.getPid(), pids);
+        }
+        pids.set(bit);
+        String[] nameRef = event.getProcessNameRef();
+        pidNames.put(event.getPid(), nameRef);
+        if (nameRef != null && nameRef[0] == null) {
+            unresolvedNames.put(event.getPid(), nameRef);
+        }
+    }
+
+    void evicted(long sequence, long firstSequence) {
+        if (firstSequence - base >= capacity) {
+            rebase(firstSequence);
+        }
+    }
+
+    /**
+     * Shift all sets, so bit 0 is the oldest stored event again.
+     */
+    private void rebase(long newBase) {
+        int shift = (int) (newBase - base);
+        for (int i = 0; i < levelBits.length; i++) {
+            levelBits[i] = shift(levelBits[i], shift);
+        }
+        for (Iterator<Map.Entry<String, BitSet>> it = tagBits.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, BitSet> entry = it.next();
+            BitSet bits = shift(entry.getValue(), shift);
+            if (bits.isEmpty()) {
+                lowerTags.remove(entry.getKey());
+                it.remove();
+            } else {
+                entry.setValue(bits);
+            }
+        }
+        for (Iterator<Map.Entry<Integer, BitSet>> it = pidBits.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Integer, BitSet> entry = it.next();
+            BitSet bits = shift(entry.getValue(), shift);
+            if (bits.isEmpty()) {
+                pidNames.remove(entry.getKey());
+                unresolvedNames.remove(entry.getKey());
+                it.remove();
+            } else {
+                entry.setValue(bits);
+            }
+        }
+        base = newBase;
+    }
+
+    private static BitSet shift(BitSet bits, int shift) {
+        int length = bits.length();
+        return length <= shift ? new BitSet() : bits.get(shift, length);
+    }
+
+    /**
+     * Get the events with at least the given level, which contain all
+     * keywords in their tag, process name or message. Results are cached, so
+     * all tables showing the buffer with the same text filter share them.
+     *
+     * @param keywords lower cased keywords
+     */
+    Result query(LogLevel level, String[] keywords) {
+        StringBuilder key = new StringBuilder(level.name());
+        for (String keyword : keywords) {
+            key.append('\u0000').append(keyword);
+        }
+        checkNames();
+        Result result = results.get(key.toString());
+        if (result == null) {
+            result = new Result(level, keywords.clone());
+            evaluate(result);
+            results.put(key.toString(), result);
+        } else if (isStale(result)) {
+            evaluate(result);
+        }
+        return result;
+    }
+
+    /**
+     * Count the process names resolved since the last check.
+     */
+    private void checkNames() {
+        if (unresolvedNames.isEmpty()) {
+            return;
+        }
+        boolean resolved = false;
+        for (Iterator<String[]> it = unresolvedNames.values().iterator(); it.hasNext();) {
+            if (it.next()[0] != null) {
+                it.remove();
+                resolved = true;
+            }
+        }
+        if (resolved) {
+            namesVersion++;
+        }
+    }
+
+    private boolean isStale(Result result) {
+        return result.keywords.length > 0 && result.namesVersion != namesVersion;
+    }
+
+    private void evaluate(Result result) {
+        long first = buffer.firstSequenceLocked();
+        long next = buffer.nextSequenceLocked();
+        BitSet matches = new BitSet();
+        for (LogLevel l : LogLevel.values()) {
+            if (l.getPriority() >= result.level.getPriority()) {
+                matches.or(levelBits[l.ordinal()]);
+            }
+        }
+        if (first > base) {
+            matches.clear(0, (int) (first - base));
+        }
+
+        for (String keyword : result.keywords) {
+            if (matches.isEmpty()) {
+                break;
+            }
+            BitSet found = new BitSet();
+            for (Map.Entry<String, BitSet> entry : tagBits.entrySet()) {
+                if (lowerTags.get(entry.getKey()).contains(keyword)) {
+                    found.or(entry.getValue());
+                }
+            }
+            for (Map.Entry<Integer, BitSet> entry : pidBits.entrySet()) {
+                if (processName(entry.getKey(), pidNames.get(entry.getKey())).contains(keyword)) {
+                    found.or(entry.getValue());
+                }
+            }
+            // only messages of the remaining candidates have to be searched
+            for (int bit = matches.nextSetBit(0); bit >= 0; bit = matches.nextSetBit(bit + 1)) {
+                if (!found.get(bit) && messageContains(base + bit, keyword)) {
+                    found.set(bit);
+                }
+            }
+            matches.and(found);
+        }
+        result.bits = matches;
+        result.base = base;
+        result.evaluatedTo = next;
+        result.namesVersion = namesVersion;
+    }
+
+    /**
+     * Evaluate events added since the result was computed, one by one.
+     */
+    private void catchUp(Result result) {
+        long next = buffer.nextSequenceLocked();
+        long from = Math.max(result.evaluatedTo, buffer.firstSequenceLocked());
+        for (long sequence = from; sequence < next; sequence++) {
+            LogEvent event = buffer.getLocked(sequence);
+            if (event != null && matches(result, event, sequence)) {
+                result.bits.set((int) (sequence - result.base));
+            }
+        }
+        result.evaluatedTo = next;
+    }
+
+    private boolean matches(Result result, LogEvent event, long sequence) {
+        if (event.getLevel().getPriority() < result.level.getPriority()) {
+            return false;
+        }
+        for (String keyword : result.keywords) {
+            String tag = lowerTags.get(event.getTag());
+            if ((tag == null || !tag.contains(keyword))
+                    && !processName(event.getPid(), event.getProcessNameRef()).contains(keyword)
+                    && !messageContains(sequence, keyword)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean contains(Result result, long sequence) {
+        if (sequence >= result.evaluatedTo) {
+            checkNames();
+        }
+        if (isStale(result)) {
+            evaluate(result);
+        } else if (result.base != base) {
+            result.bits = shift(result.bits, (int) (base - result.base));
+            result.base = base;
+        }
+        if (sequence >= result.evaluatedTo) {
+            catchUp(result);
+        }
+        return sequence >= base && result.bits.get((int) (sequence - base));
+    }
+
+    private boolean messageContains(long sequence, String keyword) {
+        LogEvent event = buffer.getLocked(sequence);
+        return event != null && containsIgnoreCase(event.getMessage(), keyword);
+    }
+
+    /**
+     * Case-insensitive {@link String#contains}, without creating a lower
+     * cased copy of the text.
+     *
+     * @param keyword lower cased keyword
+     */
+    static boolean containsIgnoreCase(String text, String keyword) {
+        int length = keyword.length();
+        if (length == 0) {
+            return true;
+        }
+        char lower = keyword.charAt(0);
+        char upper = Character.toUpperCase(lower);
+        for (int i = 0, last = text.length() - length; i <= last; i++) {
+            char c = text.charAt(i);
+            if ((c == lower || c == upper || Character.toLowerCase(c) == lower)
+                    && text.regionMatches(true, i, keyword, 0, length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String processName(int pid, String[] nameRef) {
+        String name = nameRef != null && nameRef[0] != null ? nameRef[0] : '#' + Integer.toString(pid);
+        return name.toLowerCase();
+    }
+
+    /**
+     * Events matching one level and keyword filter. The set is extended with
+     * new events whenever it is asked for one it has not seen yet.
+     */
+    public static final class Result {
+
+        private final LogLevel level;
+        private final String[] keywords;
+        private BitSet bits;
+        private long base;
+        private long evaluatedTo;
+        private int namesVersion;
+
+        private Result(LogLevel level, String[] keywords) {
+            this.level = level;
+            this.keywords = keywords;
+        }
+
+        public LogLevel getLevel() {
+            return level;
+        }
+    }
+}
@@ -22,6 +22,7 @@ import com.android.ddmlib.Log.LogLevel;
 public class LogEventInfo {
 
     private final int pid;
+    private final int tid;
     private final String[] pNameRef;
     private final String time;
     private final String tag;
@@ -35,6 +36,10 @@ public class LogEventInfo {
         return pid;
     }
 
+    public int getTid() {
+        return tid;
+    }
+
     public String getProcessName() {
         if (pNameRef[0] != null) {
             return pNameRef[0];
@@ -56,7 +61,12 @@ public class LogEventInfo {
     }
 
     public LogEventInfo(int pid, String[] pNameRef, String time, String tag, LogLevel level) {
+        this(pid, 0, pNameRef, time, tag, level);
+    }
+
+    public LogEventInfo(int pid, int tid, String[] pNameRef, String time, String tag, LogLevel level) {
         this.pid = pid;
+        this.tid = tid;
         this.pNameRef = pNameRef;
         this.time = time;
         this.tag = tag;
@@ -0,0 +1,74 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nbandroid.netbeans.gradle.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+import java.util.TimeZone;
+
+/**
+ * Decoder of the raw output of one logcat output format. The reader picks
+ * the {@link Provider} registered in the default lookup with the highest
+ * minimal API level the device supports, runs its command and feeds the shell
+ * output to the decoder.
+ *
+ * @author NYEREL
+ */
+public interface LogFormatDecoder {
+
+    /**
+     * Shell command, which produces the format handled by this decoder.
+     */
+    String getCommand();
+
+    /**
+     * Decode the next chunk of shell output. Incomplete entries at the end of
+     * the chunk have to be kept until the rest arrives.
+     */
+    void decode(byte[] data, int offset, int length, Sink sink);
+
+    /**
+     * The shell command has finished, decode what is left.
+     */
+    void flush(Sink sink);
+
+    /**
+     * Receives decoded events.
+     */
+    interface Sink {
+
+        /**
+         * Create the shared header of one or more events.
+         */
+        LogEventInfo createInfo(int pid, int tid, String time, String tag, LogLevel level);
+
+        void logEvent(LogEventInfo info, String message);
+    }
+
+    /**
+     * Factory of decoders, registered as a service.
+     */
+    interface Provider {
+
+        /**
+         * Lowest API level of a device, which supports the format.
+         */
+        int getMinApiLevel();
+
+        /**
+         * @param deviceTimeZone time zone of the device, for formats, which
+         * carry raw timestamps
+         */
+        LogFormatDecoder createDecoder(TimeZone deviceTimeZone);
+    }
+}
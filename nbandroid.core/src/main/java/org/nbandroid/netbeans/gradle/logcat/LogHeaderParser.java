@@ -0,0 +1,197 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nbandroid.netbeans.gradle.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+
+/**
+ * Index based parser of the {@code logcat -v long} header line
+ * <pre>[ 01-23 12:34:56.789  1234: 5678 D/Tag ]</pre>. It accepts the same
+ * lines as the former regular expression, but does not allocate anything for
+ * lines which are not headers. Tags are interned, so repeated tags share one
+ * string instance. Instances are not thread safe, every reader thread needs
+ * its own.
+ *
+ * @author NYEREL
+ */
+final class LogHeaderParser {
+
+    private final TagInterner tags = new TagInterner();
+
+    private String line;
+    private int timeStart;
+    private int timeEnd;
+    private int pid;
+    private int tid;
+    private char level;
+    private int tagStart;
+    private int tagEnd;
+
+    /**
+     * Try to parse the line as a header.
+     *
+     * @return {@code true}, if the line is a header; the parsed values are
+     * available through the getters until the next call
+     */
+    boolean parse(String line) {
+        int len = line.length();
+        // shortest header: "[ 00-00 00:00:00.0 :0 V/]"
+        if (len < 25 || line.charAt(0) != '[' || line.charAt(len - 1) != ']') {
+            return false;
+        }
+        int i = 1;
+        if (!isSpace(line.charAt(i++))) {
+            return false;
+        }
+        // date MM-DD
+        if (!isDigit(line, i) || !isDigit(line, i + 1) || line.charAt(i + 2) != '-'
+                || !isDigit(line, i + 3) || !isDigit(line, i + 4) || !isSpace(line.charAt(i + 5))) {
+            return false;
+        }
+        i += 6;
+        // time HH:MM:SS.f+
+        int ts = i;
+        if (i + 9 >= len
+                || !isDigit(line, i) || !isDigit(line, i + 1) || line.charAt(i + 2) != ':'
+                || !isDigit(line, i + 3) || !isDigit(line, i + 4) || line.charAt(i + 5) != ':'
+                || !isDigit(line, i + 6) || !isDigit(line, i + 7) || line.charAt(i + 8) != '.'
+                || !isDigit(line, i + 9)) {
+            return false;
+        }
+        i += 10;
+        while (i < len && isDigit(line, i)) {
+            i++;
+        }
+        int te = i;
+        // whitespace before pid
+        if (i >= len || !isSpace(line.charAt(i))) {
+            return false;
+        }
+        while (i < len && isSpace(line.charAt(i))) {
+            i++;
+        }
+        // pid, may be empty
+        int p = 0;
+        while (i < len && isDigit(line, i)) {
+            p = p * 10 + (line.charAt(i++) - '0');
+        }
+        if (i >= len || line.charAt(i++) != ':') {
+            return false;
+        }
+        // tid, hexadecimal or decimal with leading spaces
+        int t = 0;
+        if (i + 2 < len && line.charAt(i) == '0' && line.charAt(i + 1) == 'x' && isHex(line.charAt(i + 2))) {
+            i += 2;
+            while (i < len && isHex(line.charAt(i))) {
+                t = t * 16 + Character.digit(line.charAt(i++), 16);
+            }
+        } else {
+            while (i < len && isSpace(line.charAt(i))) {
+                i++;
+            }
+            if (i >= len || !isDigit(line, i)) {
+                return false;
+            }
+            while (i < len && isDigit(line, i)) {
+                t = t * 10 + (line.charAt(i++) - '0');
+            }
+        }
+        // " L/"
+        if (i + 2 >= len || !isSpace(line.charAt(i)) || line.charAt(i + 2) != '/') {
+            return false;
+        }
+        char l = line.charAt(i + 1);
+        if (l != 'V' && l != 'D' && l != 'I' && l != 'W' && l != 'E') {
+            return false;
+        }
+        i += 3;
+        // tag up to the closing bracket, trimmed
+        int gs = i;
+        int ge = len - 1;
+        while (gs < ge && line.charAt(gs) <= ' ') {
+            gs++;
+        }
+        while (ge > gs && line.charAt(ge - 1) <= ' ') {
+            ge--;
+        }
+
+        this.line = line;
+        this.timeStart = ts;
+        this.timeEnd = te;
+        this.pid = p;
+        this.tid = t;
+        this.level = l;
+        this.tagStart = gs;
+        this.tagEnd = ge;
+        return true;
+    }
+
+    String getTime() {
+        return line.substring(timeStart, timeEnd);
+    }
+
+    int getPid() {
+        return pid;
+    }
+
+    int getTid() {
+        return tid;
+    }
+
+    LogLevel getLevel() {
+        return LogLevel.getByLetter(level);
+    }
+
+    /**
+     * Get the interned tag of the last parsed header.
+     */
+    String getTag() {
+        return tags.intern(line, tagStart, tagEnd);
+    }
+
+    private static boolean isDigit(String s, int index) {
+        char c = s.charAt(index);
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isHex(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Replace tabs by 4 spaces, because they seem to display as only one
+     * character. Returns the line itself, if it contains no tab.
+     */
+    static String expandTabs(String line) {
+        int tab = line.indexOf('\t');
+        if (tab < 0) {
+            return line;
+        }
+        StringBuilder sb = new StringBuilder(line.length() + 12);
+        sb.append(line, 0, tab);
+        for (int i = tab; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\t') {
+                sb.append("    ");
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -16,32 +16,40 @@ package org.nbandroid.netbeans.gradle.logcat;
 import com.android.ddmlib.AdbCommandRejectedException;
 import com.android.ddmlib.AndroidDebugBridge;
 import com.android.ddmlib.Client;
-import com.android.ddmlib.ClientData;
 import com.android.ddmlib.IDevice;
+import com.android.ddmlib.IShellOutputReceiver;
 import com.android.ddmlib.Log.LogLevel;
-import com.android.ddmlib.MultiLineReceiver;
 import com.android.ddmlib.ShellCommandUnresponsiveException;
 import com.android.ddmlib.TimeoutException;
-import com.google.common.collect.ImmutableSet;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedHashSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.TimeZone;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import org.nbandroid.netbeans.gradle.v2.sdk.AndroidSdkProvider;
+import org.openide.util.Lookup;
 import org.openide.util.RequestProcessor;
 
 /**
+ * Reads the log of all attached devices. Every online device gets its own
+ * logcat pipeline, running on a shared executor with a bounded number of
+ * threads, and its own {@link LogEventBuffer}. The current device only
+ * selects the stream shown, so switching between devices does not restart
+ * logcat. New events are passed only to the listeners watching their device
+ * or {@link #ALL_DEVICES}.
  *
  * @author NYEREL
  */
@@ -50,13 +58,19 @@ public class LogReader {
     public final static String PROPERTY_DEVICE_LIST = "DEVICE_LIST";
     public final static String PROPERTY_CURRENT_DEVICE = "CURRENT_DEVICE";
     public final static String PROPERTY_CURRENT_DEVICE_STATE = "CURRENT_DEVICE_STATE";
+    /**
+     * Pseudo serial selecting the events of all devices, merged by time.
+     */
+    public final static String ALL_DEVICES = "*";
     private static final RequestProcessor RP = new RequestProcessor(LogReader.class);
+    /**
+     * Maximal number of devices captured at the same time. Each capture blocks
+     * one thread, further devices wait for a free one.
+     */
+    private static final int MAX_CAPTURES = 8;
+    private static final RequestProcessor CAPTURE_RP = new RequestProcessor("Logcat capture", MAX_CAPTURES);
 
     private static final Logger LOG = Logger.getLogger(LogReader.class.getName());
-    // These messages will not be added to log as events
-    private static final Set<String> ignoredLines = ImmutableSet.of(
-            "--------- beginning of /dev/log/main",
-            "--------- beginning of /dev/log/system");
 
     public static enum CurrentDeviceState {
         ATTACHED_AND_LOGGING,
@@ -66,28 +80,64 @@ public class LogReader {
     }
 
     private Set<LogListener> listeners;
+    // listeners of device events per serial, including ALL_DEVICES
+    private final Map<String, Set<LogListener>> deviceListeners = new ConcurrentHashMap<>();
     private PropertyChangeSupport changeSupport;
-    private IDevice currentDevice;
-    private String requestedDeviceSerial;
-    private LogCatOutputReceiver receiver;
-    private LogEventInfo lastLogEventInfo;
-    private static final Pattern sLogPattern = Pattern.compile(
-            "^\\[\\s\\d\\d-\\d\\d\\s(\\d\\d:\\d\\d:\\d\\d\\.\\d+)"
-            + "\\s+(\\d*):((?:0x[0-9a-fA-F]+)|(?:\\s*\\d+))\\s([VDIWE])/(.*)\\]$");
+    private volatile IDevice currentDevice;
+    private volatile String requestedDeviceSerial;
+    // serial announced by the last PROPERTY_CURRENT_DEVICE change
+    private String selectedDevice = "";
+    // running or queued captures per device serial
+    private final Map<String, LogCatOutputReceiver> receivers = new ConcurrentHashMap<>();
     private final AndroidDebugBridge adb;
-    private boolean shouldBeReading = false;
-    private volatile boolean reading = true;
+    private volatile boolean shouldBeReading = false;
     private Timer checkReadingStatusTimer;
     private int checkingPeriod = 10000;
 
-    private Map<String, Map<Integer, String[]>> processNameCache = new HashMap<>();
+    private final Map<String, ProcessNameTable> processNames = new ConcurrentHashMap<>();
+
+    private final Map<String, LogEventBuffer> logEventCache = new ConcurrentHashMap<>();
+    // recently logged events per device, used to skip replayed lines on reconnect
+    private final Map<String, LogDedupWindow> dedupWindows = new ConcurrentHashMap<>();
+
+    private final AndroidDebugBridge.IDeviceChangeListener deviceListener = new AndroidDebugBridge.IDeviceChangeListener() {
+        @Override
+        public void deviceConnected(IDevice device) {
+            if (shouldBeReading && device.isOnline()) {
+                startCapture(device);
+            }
+        }
+
+        @Override
+        public void deviceDisconnected(IDevice device) {
+            stopCapture(device.getSerialNumber());
+        }
 
-    private Map<String, Collection<LogEvent>> logEventCache = new HashMap<>();
+        @Override
+        public void deviceChanged(IDevice device, int changeMask) {
+            if ((changeMask & IDevice.CHANGE_STATE) != 0 && shouldBeReading && device.isOnline()) {
+                startCapture(device);
+            }
+            if ((changeMask & IDevice.CHANGE_CLIENT_LIST) != 0) {
+                getProcessNameTable(device.getSerialNumber()).clientListChanged(device.getClients());
+            }
+        }
+    };
+    private final AndroidDebugBridge.IClientChangeListener clientListener = new AndroidDebugBridge.IClientChangeListener() {
+        @Override
+        public void clientChanged(Client client, int changeMask) {
+            if ((changeMask & Client.CHANGE_NAME) != 0) {
+                getProcessNameTable(client.getDevice().getSerialNumber()).clientChanged(client);
+            }
+        }
+    };
+    // the ADB listeners are registered while reading
+    private boolean listening = false;
 
     public LogReader() {
 
         changeSupport = new PropertyChangeSupport(this);
-        listeners = new HashSet<>();
+        listeners = new CopyOnWriteArraySet<>();
 
         adb = AndroidSdkProvider.getAdb();
         checkReadingStatusTimer = new Timer();
@@ -102,6 +152,8 @@ public class LogReader {
                     if (!deviceReallyConnected()) {
                         infoMessage("Trying to reconnect to the device in " + checkingPeriod / 1000 + " seconds.");
                         startReading();
+                    } else if (!allDevicesCaptured()) {
+                        startReading();
                     }
                 } catch (Exception e) {
                     LOG.log(Level.SEVERE, "Unexpected exception on reconnecting the device.", e);
@@ -115,7 +167,97 @@ public class LogReader {
     }
 
     public Collection<LogEvent> getLogEventsForDevice(String device) {
-        return logEventCache.get(device);
+        LogEventBuffer buffer = device != null ? logEventCache.get(device) : null;
+        return buffer != null ? buffer.toList() : null;
+    }
+
+    /**
+     * Get the event storage of the given device. The buffer is shared by the
+     * reader and all log tables showing the device.
+     *
+     * @return the buffer or {@code null}, if nothing was logged from this
+     * device yet
+     */
+    public LogEventBuffer getLogEventBuffer(String device) {
+        return device != null ? logEventCache.get(device) : null;
+    }
+
+    /**
+     * Get the event storages of all logged devices. The collection is a live
+     * view, buffers of devices attached later appear in it.
+     */
+    public Collection<LogEventBuffer> getLogEventBuffers() {
+        return Collections.unmodifiableCollection(logEventCache.values());
+    }
+
+    /**
+     * Merge the events in memory of all logged devices into one list ordered
+     * by their time stamps.
+     */
+    public List<LogEvent> getMergedLogEvents() {
+        List<List<LogEvent>> streams = new ArrayList<>();
+        for (LogEventBuffer buffer : logEventCache.values()) {
+            streams.add(buffer.toList());
+        }
+        return mergeByTime(streams);
+    }
+
+    /**
+     * K-way merge of event streams by their time stamps. The events of each
+     * stream keep their order, events without a time stay behind their
+     * predecessor.
+     */
+    public static List<LogEvent> mergeByTime(List<List<LogEvent>> streams) {
+        int total = 0;
+        for (List<LogEvent> stream : streams) {
+            total += stream.size();
+        }
+        // heap entries: stream index, position, last known time
+        PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(1, streams.size()), new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                int c = Integer.compare(a[2], b[2]);
+                return c != 0 ? c : Integer.compare(a[0], b[0]);
+            }
+        });
+        for (int i = 0; i < streams.size(); i++) {
+            if (!streams.get(i).isEmpty()) {
+                heads.add(new int[]{i, 0, eventTime(streams.get(i).get(0), 0)});
+            }
+        }
+        List<LogEvent> merged = new ArrayList<>(total);
+        while (!heads.isEmpty()) {
+            int[] head = heads.poll();
+            List<LogEvent> stream = streams.get(head[0]);
+            merged.add(stream.get(head[1]));
+            if (++head[1] < stream.size()) {
+                head[2] = eventTime(stream.get(head[1]), head[2]);
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+
+    private static int eventTime(LogEvent event, int previous) {
+        int time = LogDedupWindow.parseTime(event.getTime());
+        return time >= 0 ? time : previous;
+    }
+
+    private LogEventBuffer getOrCreateLogEventBuffer(String device) {
+        LogEventBuffer buffer = logEventCache.get(device);
+        return buffer != null ? buffer : createLogEventBuffer(device);
+    }
+
+    private synchronized LogEventBuffer createLogEventBuffer(String device) {
+        LogEventBuffer buffer = logEventCache.get(device);
+        if (buffer == null) {
+            buffer = LogEventBuffer.create(device);
+            logEventCache.put(device, buffer);
+
+            // notify listeners for the new device
+            firePropertyChange(PROPERTY_DEVICE_LIST, null, getLoggedDevices());
+        }
+        return buffer;
     }
 
     public String getCurrentDevice() {
@@ -130,22 +272,40 @@ public class LogReader {
         return null;
     }
 
+    /**
+     * Select the device shown, or {@link #ALL_DEVICES}. Devices are captured
+     * independently of the selection, so this only switches to the stream
+     * already captured.
+     */
     public void setCurrentDevice(String device) {
         if (device != null && !device.equals(requestedDeviceSerial)) {
             // set new device
             this.requestedDeviceSerial = device;
 
-            if (receiver == null) {
+            if (adb != null) {
+                selectCurrentDevice(adb.getDevices());
+                changeSupport.firePropertyChange(PROPERTY_CURRENT_DEVICE_STATE, null, getCurrentDeviceState());
+            }
+            IDevice current = currentDevice;
+            if (current == null || !receivers.containsKey(current.getSerialNumber())) {
                 startReading();
-            } else {
-                // stop reading on current device,
-                // reading will be restarted 
-                stopReading();
             }
         }
     }
 
     public CurrentDeviceState getCurrentDeviceState() {
+        if (ALL_DEVICES.equals(requestedDeviceSerial)) {
+            CurrentDeviceState state = CurrentDeviceState.DETACHED;
+            for (LogCatOutputReceiver receiver : receivers.values()) {
+                if (receiver.running) {
+                    return CurrentDeviceState.ATTACHED_AND_LOGGING;
+                }
+                state = CurrentDeviceState.ATTACHED;
+            }
+            return state;
+        }
+
+        IDevice currentDevice = this.currentDevice;
         // device is currently unavailable
         if (currentDevice == null) {
             return CurrentDeviceState.DETACHED;
@@ -162,7 +322,8 @@ public class LogReader {
         }
 
         // is currently receiving events?
-        if (receiver == null || !reading) {
+        LogCatOutputReceiver receiver = receivers.get(currentDevice.getSerialNumber());
+        if (receiver == null || !receiver.running) {
             return CurrentDeviceState.ATTACHED;
         }
 
@@ -171,8 +332,16 @@ public class LogReader {
     }
 
     private boolean deviceReallyConnected() {
-        if (adb == null || !adb.isConnected() || !reading || currentDevice == null
-                || currentDevice.isOffline() || !currentDevice.isOnline() || !isReading()) {
+        if (ALL_DEVICES.equals(requestedDeviceSerial)) {
+            return adb != null && adb.isConnected() && isReading();
+        }
+        IDevice currentDevice = this.currentDevice;
+        if (adb == null || !adb.isConnected() || currentDevice == null
+                || currentDevice.isOffline() || !currentDevice.isOnline()) {
+            return false;
+        }
+        LogCatOutputReceiver receiver = receivers.get(currentDevice.getSerialNumber());
+        if (receiver == null || !receiver.running || receiver.isCancelled()) {
             return false;
         }
         boolean gotIt = false;
@@ -202,6 +371,10 @@ public class LogReader {
         this.changeSupport.firePropertyChange(property, oldVal, newVal);
     }
 
+    /**
+     * Add a listener of the messages of this reader. It gets no device events
+     * until {@link #setLogListenerDevice} is called.
+     */
     public void addLogListener(LogListener listener) {
         listeners.add(listener);
         if (adb == null) {
@@ -209,12 +382,35 @@ public class LogReader {
         }
     }
 
+    /**
+     * Pass the new events of the given device, or of {@link #ALL_DEVICES},
+     * to the listener instead of the device it watched before.
+     */
+    public void setLogListenerDevice(LogListener listener, String device) {
+        for (Set<LogListener> watching : deviceListeners.values()) {
+            watching.remove(listener);
+        }
+        Set<LogListener> watching = deviceListeners.get(device);
+        if (watching == null) {
+            watching = new CopyOnWriteArraySet<>();
+            Set<LogListener> existing = deviceListeners.putIfAbsent(device, watching);
+            if (existing != null) {
+                watching = existing;
+            }
+        }
+        watching.add(listener);
+    }
+
     public void removeAllLogListeners() {
         listeners.clear();
+        deviceListeners.clear();
     }
 
     public void removeLogListener(LogListener listener) {
         listeners.remove(listener);
+        for (Set<LogListener> watching : deviceListeners.values()) {
+            watching.remove(listener);
+        }
     }
 
     private void sendNewLogEvent(LogEvent logEvent) {
@@ -223,6 +419,19 @@ public class LogReader {
         }
     }
 
+    private void sendNewLogEvent(String device, LogEvent logEvent) {
+        deliver(deviceListeners.get(device), logEvent);
+        deliver(deviceListeners.get(ALL_DEVICES), logEvent);
+    }
+
+    private static void deliver(Set<LogListener> watching, LogEvent logEvent) {
+        if (watching != null) {
+            for (LogListener listener : watching) {
+                listener.newLogEvent(logEvent);
+            }
+        }
+    }
+
     private void errorMessage(String message) {
         LogEventInfo i = new LogEventInfo(0, new String[]{""}, "", "", LogLevel.ERROR);
         LogEvent e = new LogEvent(i, message);
@@ -235,21 +444,34 @@ public class LogReader {
         sendNewLogEvent(e);
     }
 
-    private final class LogCatOutputReceiver extends MultiLineReceiver {
+    private final class LogCatOutputReceiver implements IShellOutputReceiver, LogFormatDecoder.Sink {
 
         private final IDevice loggedDevice;
-        public boolean isCancelled = false;
+        private final LogFormatDecoder decoder;
+        public volatile boolean isCancelled = false;
+        // set, while the shell command is executed
+        private volatile boolean running = false;
 
         public LogCatOutputReceiver(IDevice device) {
-            super();
-            setTrimLine(false);
             loggedDevice = device;
+            decoder = createDecoder(device);
+        }
+
+        public String getCommand() {
+            return decoder.getCommand();
+        }
+
+        @Override
+        public void addOutput(byte[] data, int offset, int length) {
+            if (isCancelled == false) {
+                decoder.decode(data, offset, length, this);
+            }
         }
 
         @Override
-        public void processNewLines(String[] lines) {
+        public void flush() {
             if (isCancelled == false) {
-                processLogLines(loggedDevice, lines);
+                decoder.flush(this);
             }
         }
 
@@ -257,6 +479,58 @@ public class LogReader {
         public boolean isCancelled() {
             return isCancelled;
         }
+
+        @Override
+        public LogEventInfo createInfo(int pid, int tid, String time, String tag, LogLevel level) {
+            return new LogEventInfo(pid, tid, getProcessName(loggedDevice, pid), time, tag, level);
+        }
+
+        @Override
+        public void logEvent(LogEventInfo info, String message) {
+            if (isCancelled == false) {
+                processLogEvent(loggedDevice, new LogEvent(info, message));
+            }
+        }
+    }
+
+    /**
+     * Select the logcat output format for the device: the registered decoder
+     * with the highest minimal API level the device supports.
+     */
+    private static LogFormatDecoder createDecoder(IDevice device) {
+        int apiLevel = 0;
+        try {
+            String api = device.getProperty(IDevice.PROP_BUILD_API_LEVEL);
+            if (api != null) {
+                apiLevel = Integer.parseInt(api.trim());
+            }
+        } catch (NumberFormatException e) {
+            LOG.log(Level.FINE, null, e);
+        }
+
+        LogFormatDecoder.Provider best = null;
+        for (LogFormatDecoder.Provider provider : Lookup.getDefault().lookupAll(LogFormatDecoder.Provider.class)) {
+            if (provider.getMinApiLevel() <= apiLevel
+                    && (best == null || provider.getMinApiLevel() > best.getMinApiLevel())) {
+                best = provider;
+            }
+        }
+        return best != null ? best.createDecoder(getTimeZone(device)) : new LongFormatDecoder();
+    }
+
+    /**
+     * Time zone set on the device, the local one, if it is not known.
+     */
+    private static TimeZone getTimeZone(IDevice device) {
+        String id = device.getProperty("persist.sys.timezone");
+        if (id != null && !id.trim().isEmpty()) {
+            TimeZone zone = TimeZone.getTimeZone(id.trim());
+            // unknown ids give GMT
+            if (zone.getID().equals(id.trim())) {
+                return zone;
+            }
+        }
+        return TimeZone.getDefault();
     }
 
     public void startReading() {
@@ -264,6 +538,7 @@ public class LogReader {
         if (adb == null) {
             return;
         }
+        registerListeners();
         if (!adb.isConnected()) {
             RP.post(new Runnable() {
 
@@ -280,27 +555,51 @@ public class LogReader {
     }
 
     private void reallyStartReading() {
-        String lastDeviceSerial = currentDevice != null ? currentDevice.getSerialNumber() : "";
         IDevice[] devs = adb.getDevices();
+        selectCurrentDevice(devs);
+
+        if (devs != null) {
+            for (IDevice dev : devs) {
+                if (dev.isOnline()) {
+                    startCapture(dev);
+                }
+            }
+        }
+
+        // announce the current state
+        changeSupport.firePropertyChange(PROPERTY_CURRENT_DEVICE_STATE, null, getCurrentDeviceState());
+    }
+
+    /**
+     * Resolve the requested device among the attached ones and notify the
+     * clients, if the selected device has changed.
+     */
+    private synchronized void selectCurrentDevice(IDevice[] devs) {
+        String lastDeviceSerial = selectedDevice;
 
         // clear the current device, because the device may have gone
-        currentDevice = null;
+        IDevice device = null;
 
-        if (requestedDeviceSerial == null) {
+        if (ALL_DEVICES.equals(requestedDeviceSerial)) {
             currentDevice = null;
+            selectedDevice = ALL_DEVICES;
+            if (!lastDeviceSerial.equals(ALL_DEVICES)) {
+                changeSupport.firePropertyChange(PROPERTY_CURRENT_DEVICE, lastDeviceSerial, ALL_DEVICES);
+            }
+            return;
+        }
 
+        if (requestedDeviceSerial == null) {
             // if no device was requested, select the first available
             if (devs != null && devs.length > 0) {
                 requestedDeviceSerial = devs[0].getSerialNumber();
             } else {
+                currentDevice = null;
+                selectedDevice = "";
                 // previous device has gone?
                 if (lastDeviceSerial.isEmpty() == false) {
                     changeSupport.firePropertyChange(PROPERTY_CURRENT_DEVICE, lastDeviceSerial, "");
                 }
-
-                // no devices available - announce the current state and stop here
-                changeSupport.firePropertyChange(PROPERTY_CURRENT_DEVICE_STATE, null, getCurrentDeviceState());
-
                 return;
             }
         }
@@ -310,139 +609,156 @@ public class LogReader {
         if (devs != null) {
             for (IDevice dev : devs) {
                 if (dev.getSerialNumber().equals(requestedDeviceSerial)) {
-                    currentDevice = dev;
+                    device = dev;
                     break;
                 }
             }
         }
+        currentDevice = device;
 
         // get the serial of the current device (or empty string, if none connected)
-        String currentDeviceSerial = currentDevice != null ? currentDevice.getSerialNumber() : "";
+        String currentDeviceSerial = device != null ? device.getSerialNumber() : "";
+        selectedDevice = currentDeviceSerial;
+
+        // the storage has to exist before the clients are switched to the device
+        if (!currentDeviceSerial.isEmpty()) {
+            getOrCreateLogEventBuffer(currentDeviceSerial);
+        }
 
         // notify all clients, if the selected device has changed
         if (!lastDeviceSerial.equals(currentDeviceSerial)) {
             changeSupport.firePropertyChange(PROPERTY_CURRENT_DEVICE, lastDeviceSerial, currentDeviceSerial);
         }
+    }
 
-        if (currentDevice != null && !currentDevice.isOffline()) {
-            stopReading();
-            shouldBeReading = true;
-            receiver = new LogCatOutputReceiver(currentDevice);
-            RP.post(new Runnable() {
+    private boolean allDevicesCaptured() {
+        for (IDevice dev : adb.getDevices()) {
+            if (dev.isOnline() && !receivers.containsKey(dev.getSerialNumber())) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-                @Override
-                public void run() {
-                    reading = true;
+    /**
+     * Start the logcat pipeline of the device, unless it is already captured.
+     */
+    private synchronized void startCapture(final IDevice device) {
+        if (!shouldBeReading || device.isOffline()) {
+            return;
+        }
+        final String serial = device.getSerialNumber();
+        LogCatOutputReceiver running = receivers.get(serial);
+        if (running != null && !running.isCancelled() && running.loggedDevice == device) {
+            return;
+        }
+        if (running != null) {
+            // the device object was replaced after a reconnect
+            running.isCancelled = true;
+        }
 
-                    // announce the new device state
-                    changeSupport.firePropertyChange(PROPERTY_CURRENT_DEVICE_STATE, null, getCurrentDeviceState());
+        getOrCreateLogEventBuffer(serial);
+        // logcat starts with the whole device buffer again
+        getDedupWindow(serial).beginReplay();
+        final LogCatOutputReceiver newReceiver = new LogCatOutputReceiver(device);
+        receivers.put(serial, newReceiver);
+        CAPTURE_RP.post(new Runnable() {
 
-                    IDevice currDevice = currentDevice;
-                    if (currDevice == null) {
-                        return;
-                    }
-                    try {
-                        currDevice.executeShellCommand("logcat -v long", receiver);
-                    } catch (TimeoutException | AdbCommandRejectedException | ShellCommandUnresponsiveException | IOException e) {
-                        LOG.log(Level.FINE, null, e);
-                        reading = false;
-                    } finally {
-                        receiver = null;
-
-                        // announce the new device state
-                        changeSupport.firePropertyChange(PROPERTY_CURRENT_DEVICE_STATE, null, getCurrentDeviceState());
-
-                        // when the device has changed, we restart the logging process
-                        String serial = currDevice.getSerialNumber();
-                        if (!serial.equals(requestedDeviceSerial)) {
-                            startReading();
-                        }
-                    }
+            @Override
+            public void run() {
+                if (newReceiver.isCancelled()) {
+                    receivers.remove(serial, newReceiver);
+                    return;
                 }
-            });
-        }
+                newReceiver.running = true;
+                fireDeviceStateChange(serial);
+                try {
+                    device.executeShellCommand(newReceiver.getCommand(), newReceiver);
+                } catch (TimeoutException | AdbCommandRejectedException | ShellCommandUnresponsiveException | IOException e) {
+                    LOG.log(Level.FINE, null, e);
+                } finally {
+                    newReceiver.running = false;
+                    receivers.remove(serial, newReceiver);
+                    fireDeviceStateChange(serial);
+                }
+            }
+        });
     }
 
-    public void stopReading() {
+    private void stopCapture(String serial) {
+        LogCatOutputReceiver receiver = receivers.remove(serial);
         if (receiver != null) {
             receiver.isCancelled = true;
         }
+    }
 
-        shouldBeReading = false;
+    private void fireDeviceStateChange(String serial) {
+        // announce the new device state
+        if (serial.equals(requestedDeviceSerial) || ALL_DEVICES.equals(requestedDeviceSerial)) {
+            changeSupport.firePropertyChange(PROPERTY_CURRENT_DEVICE_STATE, null, getCurrentDeviceState());
+        }
     }
 
-    public boolean isReading() {
-        if (receiver != null) {
-            return !receiver.isCancelled();
+    public void stopReading() {
+        shouldBeReading = false;
+        unregisterListeners();
+        for (String serial : receivers.keySet()) {
+            stopCapture(serial);
         }
-        return false;
     }
 
-    LogEventInfo parseLine(IDevice device, String line) {
-        LOG.log(Level.FINER, line);
-        Matcher matcher = sLogPattern.matcher(line);
+    private synchronized void registerListeners() {
+        if (!listening) {
+            listening = true;
+            AndroidDebugBridge.addDeviceChangeListener(deviceListener);
+            AndroidDebugBridge.addClientChangeListener(clientListener);
+        }
+    }
 
-        if (matcher.matches()) {
-            String time = matcher.group(1);
-            int pid = Integer.valueOf(matcher.group(2));
-            String[] process = getProcessName(device, pid);
-            LogLevel level = LogLevel.getByLetterString(matcher.group(4));
-            String tag = matcher.group(5).trim();
-            return new LogEventInfo(pid, process, time, tag, level);
+    private synchronized void unregisterListeners() {
+        if (listening) {
+            listening = false;
+            AndroidDebugBridge.removeDeviceChangeListener(deviceListener);
+            AndroidDebugBridge.removeClientChangeListener(clientListener);
         }
-        return null;
     }
 
-    private void processLogLines(IDevice device, String[] lines) {
-        for (String line : lines) {
-            // ignore empty lines.
-            if (line.length() > 0) {
-                String time;
-                int pid;
-                String[] process;
-                LogLevel level;
-                String tag;
-                LogEventInfo lei = parseLine(device, line);
-                if (lei != null) {
-                    // this is a header line, parse the header and keep it around.
-                    lastLogEventInfo = lei;
-                } else {
-                    if (lastLogEventInfo == null) {
-                        // The first line of output wasn't preceded
-                        // by a header line; make something up so
-                        // that users of mc.data don't NPE.
-                        time = "??-?? ??:??:??.???"; //$NON-NLS1$
-                        pid = 0;
-                        process = new String[]{""};
-                        level = LogLevel.INFO;
-                        tag = "<unknown>"; //$NON-NLS1$
-                        lastLogEventInfo = new LogEventInfo(pid, process, time, tag, level);
-                    }
-                    // tabs seem to display as only 1 tab so we replace the leading tabs
-                    // by 4 spaces.
-                    String message = line.replaceAll("\t", "    "); //$NON-NLS-1$ //$NON-NLS-2$
-                    if (ignoredLines.contains(message)) {
-                        continue;
-                    }
+    /**
+     * Check, if any device is currently captured.
+     */
+    public boolean isReading() {
+        for (LogCatOutputReceiver receiver : receivers.values()) {
+            if (!receiver.isCancelled()) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-                    LogEvent event = new LogEvent(lastLogEventInfo, message);
+    private void processLogEvent(IDevice device, LogEvent event) {
+        if (LOG.isLoggable(Level.FINER)) {
+            LOG.log(Level.FINER, event.toString());
+        }
 
-                    Collection<LogEvent> loggedEvents = logEventCache.get(device.getSerialNumber());
-                    if (loggedEvents == null) {
-                        loggedEvents = new LinkedHashSet<>();
-                        logEventCache.put(device.getSerialNumber(), loggedEvents);
+        LogEventBuffer loggedEvents = getOrCreateLogEventBuffer(device.getSerialNumber());
+        LogDedupWindow window = getDedupWindow(device.getSerialNumber());
 
-                        // notify listeners for the new device
-                        firePropertyChange(PROPERTY_DEVICE_LIST, null, getLoggedDevices());
-                    }
+        if (window.accept(event)) {
+            loggedEvents.add(event);
+            sendNewLogEvent(device.getSerialNumber(), event);
+        }
+    }
 
-                    if (!loggedEvents.contains(event)) {
-                        loggedEvents.add(event);
-                        sendNewLogEvent(event);
-                    }
-                }
+    private LogDedupWindow getDedupWindow(String serial) {
+        LogDedupWindow window = dedupWindows.get(serial);
+        if (window == null) {
+            window = new LogDedupWindow();
+            LogDedupWindow existing = dedupWindows.putIfAbsent(serial, window);
+            if (existing != null) {
+                window = existing;
             }
         }
+        return window;
     }
 
     /**
@@ -456,28 +772,18 @@ public class LogReader {
      * {@code null}, if the process couldn't be retrieved yet.
      */
     private String[] getProcessName(IDevice device, int pid) {
-        Map<Integer, String[]> cache = processNameCache.get(device.getSerialNumber());
-        if (cache == null) {
-            cache = new HashMap<>();
-            processNameCache.put(device.getSerialNumber(), cache);
-        }
-
-        String[] nameref = cache.get(pid);
-        if (nameref == null) {
-            nameref = new String[1];
-            cache.put(pid, nameref);
-        }
-
-        if (nameref[0] == null) {
-            for (Client client : device.getClients()) {
-                ClientData data = client.getClientData();
+        return getProcessNameTable(device.getSerialNumber()).get(device, pid);
+    }
 
-                if (data.getPid() == pid) {
-                    nameref[0] = data.getClientDescription();
-                }
+    private ProcessNameTable getProcessNameTable(String serial) {
+        ProcessNameTable table = processNames.get(serial);
+        if (table == null) {
+            table = new ProcessNameTable();
+            ProcessNameTable existing = processNames.putIfAbsent(serial, table);
+            if (existing != null) {
+                table = existing;
             }
         }
-
-        return nameref;
+        return table;
     }
 }
@@ -20,7 +20,6 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Timer;
@@ -33,6 +32,8 @@ import javax.swing.JOptionPane;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.JViewport;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.table.AbstractTableModel;
 import javax.swing.table.TableColumn;
@@ -121,21 +122,9 @@ public final class LogTopComponent extends TopComponent {
         @Override
         public void propertyChange(PropertyChangeEvent evt) {
             if (LogReader.PROPERTY_CURRENT_DEVICE.equals(evt.getPropertyName())) {
-                String newDeviceSerial = reader.getCurrentDevice();
-                Collection<LogEvent> events = reader.getLogEventsForDevice(newDeviceSerial);
-
-                if (events != null) {
-                    // create a copy of this list to avoid concurrent modification exceptions
-                    Collection<LogEvent> eventsToAdd = new ArrayList<>(events.size());
-                    eventsToAdd.addAll(events);
-
-                    for (LogTableManager manager : tabManagers) {
-                        // clear all messages
-                        manager.clearLog();
-
-                        // add all events of the new device
-                        manager.addAllEvents(eventsToAdd);
-                    }
+                for (LogTableManager manager : tabManagers) {
+                    // replace all messages by the events of the new device
+                    showCurrentDevice(manager);
                 }
             }
 
@@ -346,15 +335,16 @@ public final class LogTopComponent extends TopComponent {
 
             if (reader == null) {
                 reader = new LogReader();
-                for (LogTableManager manager : tabManagers) {
-                    reader.addLogListener(manager);
-                }
-
                 reader.addPropertyChangeListener(WeakListeners.propertyChange(myPropertyChangeListener, reader));
 
                 cmbLogDevicesSupport = new LogDevicesComboBoxSupport(reader);
                 cmbLogDevicesSupport.attach(cmbLogDevices);
             }
+            // the listeners were removed, if reading was stopped before
+            for (LogTableManager manager : tabManagers) {
+                reader.addLogListener(manager);
+                showCurrentDevice(manager);
+            }
 
             timer = new Timer();
             timer.schedule(new TimerTask() {
@@ -369,14 +359,31 @@ public final class LogTopComponent extends TopComponent {
         }
     }
 
+    /**
+     * Switch the table of the manager to the events of the current device,
+     * or of all devices.
+     */
+    private void showCurrentDevice(LogTableManager manager) {
+        String device = reader.getCurrentDevice();
+        if (LogReader.ALL_DEVICES.equals(device)) {
+            reader.setLogListenerDevice(manager, device);
+            manager.setEventBuffers(reader.getLogEventBuffers(), reader.getMergedLogEvents());
+            return;
+        }
+        LogEventBuffer buffer = reader.getLogEventBuffer(device);
+        if (buffer != null) {
+            reader.setLogListenerDevice(manager, device);
+            manager.setEventBuffer(buffer);
+        }
+    }
+
     private void stopReading() {
         if (reader == null) {
             throw new IllegalStateException("Wanted to stop reading, but reader was null");
         }
-        if (reader.isReading()) {
-            reader.stopReading();
-            reader.removeAllLogListeners();
-        }
+        // also unregisters the ADB listeners of the reader, if no device is captured
+        reader.stopReading();
+        reader.removeAllLogListeners();
 
         timer.cancel();
     }
@@ -778,6 +785,21 @@ public final class LogTopComponent extends TopComponent {
     private void myInit() {
         tabManagers = new ArrayList<>();
 
+        // a filter computed in background is ready, sort the current tab again
+        rowFilter.addChangeListener(new ChangeListener() {
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (selectedTable != null && selectedTable.getRowSorter() != null) {
+                            ((TableRowSorter) selectedTable.getRowSorter()).sort();
+                        }
+                    }
+                });
+            }
+        });
+
         // create the first tab
         addTable(LogFilter.createDefaultTab());
 
@@ -800,6 +822,7 @@ public final class LogTopComponent extends TopComponent {
 
         if (reader != null) {
             reader.addLogListener(manager);
+            showCurrentDevice(manager);
         }
 
         JScrollPane scroll = new JScrollPane(table);
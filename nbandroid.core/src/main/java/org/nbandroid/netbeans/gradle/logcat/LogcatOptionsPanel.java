@@ -0,0 +1,132 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nbandroid.netbeans.gradle.logcat;
+
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.Insets;
+import java.util.prefs.Preferences;
+import javax.swing.JCheckBox;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
+import org.openide.util.NbBundle.Messages;
+import org.openide.util.NbPreferences;
+
+/**
+ * Settings of the logcat event storage in memory and of the capture to
+ * disk. They apply to devices connected after the change.
+ *
+ * @author NYEREL
+ */
+@Messages({
+    "LogcatOptionsPanel.capacity=&Events kept per device:",
+    "LogcatOptionsPanel.memoryBudget=&Memory budget per device (MB, 0 = unlimited):",
+    "LogcatOptionsPanel.captureEnabled=&Capture logcat to disk, kept across IDE restarts",
+    "LogcatOptionsPanel.captureMaxSize=Capture si&ze per device (MB):",
+    "LogcatOptionsPanel.captureMaxAge=Keep captured events for (&hours):",
+    "LogcatOptionsPanel.note=Changes apply to devices connected afterwards."})
+final class LogcatOptionsPanel extends JPanel {
+
+    private final LogcatOptionsPanelController controller;
+    private final JSpinner capacity = new JSpinner(new SpinnerNumberModel(LogEventBuffer.DEFAULT_CAPACITY,
+            LogEventBuffer.MIN_CAPACITY, LogEventBuffer.MAX_CAPACITY, 10000));
+    private final JSpinner memoryBudget = new JSpinner(new SpinnerNumberModel(LogEventBuffer.DEFAULT_MEMORY_BUDGET_MB,
+            0, LogEventBuffer.MAX_MEMORY_BUDGET_MB, 16));
+    private final JCheckBox captureEnabled = new JCheckBox();
+    private final JSpinner captureMaxSize = new JSpinner(new SpinnerNumberModel(LogCaptureStore.DEFAULT_MAX_SIZE_MB,
+            LogCaptureStore.MIN_MAX_SIZE_MB, LogCaptureStore.MAX_MAX_SIZE_MB, 64));
+    private final JSpinner captureMaxAge = new JSpinner(new SpinnerNumberModel(LogCaptureStore.DEFAULT_MAX_AGE_HOURS,
+            LogCaptureStore.MIN_MAX_AGE_HOURS, LogCaptureStore.MAX_MAX_AGE_HOURS, 24));
+    private int row = 0;
+
+    LogcatOptionsPanel(LogcatOptionsPanelController controller) {
+        super(new GridBagLayout());
+        this.controller = controller;
+        addRow(Bundle.LogcatOptionsPanel_capacity(), capacity);
+        addRow(Bundle.LogcatOptionsPanel_memoryBudget(), memoryBudget);
+        org.openide.awt.Mnemonics.setLocalizedText(captureEnabled, Bundle.LogcatOptionsPanel_captureEnabled());
+        GridBagConstraints c = new GridBagConstraints();
+        c.gridx = 0;
+        c.gridy = row++;
+        c.gridwidth = 2;
+        c.anchor = GridBagConstraints.WEST;
+        c.insets = new Insets(12, 0, 6, 0);
+        add(captureEnabled, c);
+        addRow(Bundle.LogcatOptionsPanel_captureMaxSize(), captureMaxSize);
+        addRow(Bundle.LogcatOptionsPanel_captureMaxAge(), captureMaxAge);
+        capacity.addChangeListener(e -> controller.changed());
+        memoryBudget.addChangeListener(e -> controller.changed());
+        captureMaxSize.addChangeListener(e -> controller.changed());
+        captureMaxAge.addChangeListener(e -> controller.changed());
+        captureEnabled.addActionListener(e -> {
+            updateEnabled();
+            controller.changed();
+        });
+        c = new GridBagConstraints();
+        c.gridx = 0;
+        c.gridy = 100;
+        c.gridwidth = 2;
+        c.weightx = 1;
+        c.weighty = 1;
+        c.anchor = GridBagConstraints.NORTHWEST;
+        c.insets = new Insets(12, 0, 0, 0);
+        add(new JLabel(Bundle.LogcatOptionsPanel_note()), c);
+    }
+
+    void addRow(String text, JComponent field) {
+        JLabel label = new JLabel();
+        org.openide.awt.Mnemonics.setLocalizedText(label, text);
+        label.setLabelFor(field);
+        GridBagConstraints c = new GridBagConstraints();
+        c.gridx = 0;
+        c.gridy = row;
+        c.anchor = GridBagConstraints.WEST;
+        c.insets = new Insets(0, 0, 6, 12);
+        add(label, c);
+        c = new GridBagConstraints();
+        c.gridx = 1;
+        c.gridy = row++;
+        c.anchor = GridBagConstraints.WEST;
+        c.insets = new Insets(0, 0, 6, 0);
+        add(field, c);
+    }
+
+    void load() {
+        Preferences prefs = NbPreferences.forModule(LogEventBuffer.class);
+        capacity.setValue(LogEventBuffer.getCapacity(prefs));
+        memoryBudget.setValue(LogEventBuffer.getMemoryBudgetMB(prefs));
+        captureEnabled.setSelected(prefs.getBoolean(LogCaptureStore.PREF_CAPTURE_ENABLED, false));
+        captureMaxSize.setValue(LogCaptureStore.getMaxSizeMB(prefs));
+        captureMaxAge.setValue(LogCaptureStore.getMaxAgeHours(prefs));
+        updateEnabled();
+    }
+
+    private void updateEnabled() {
+        captureMaxSize.setEnabled(captureEnabled.isSelected());
+        captureMaxAge.setEnabled(captureEnabled.isSelected());
+    }
+
+    void store() {
+        Preferences prefs = NbPreferences.forModule(LogEventBuffer.class);
+        prefs.putInt(LogEventBuffer.PREF_CAPACITY, (Integer) capacity.getValue());
+        int budget = (Integer) memoryBudget.getValue();
+        prefs.putInt(LogEventBuffer.PREF_MEMORY_BUDGET_MB, budget > 0 ? Math.max(LogEventBuffer.MIN_MEMORY_BUDGET_MB, budget) : 0);
+        prefs.putBoolean(LogCaptureStore.PREF_CAPTURE_ENABLED, captureEnabled.isSelected());
+        prefs.putInt(LogCaptureStore.PREF_MAX_SIZE_MB, (Integer) captureMaxSize.getValue());
+        prefs.putInt(LogCaptureStore.PREF_MAX_AGE_HOURS, (Integer) captureMaxAge.getValue());
+    }
+}
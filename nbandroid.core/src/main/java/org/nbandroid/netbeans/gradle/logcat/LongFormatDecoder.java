@@ -0,0 +1,66 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nbandroid.netbeans.gradle.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+import java.util.TimeZone;
+import org.openide.util.lookup.ServiceProvider;
+
+/**
+ * Decoder of {@code logcat -v long}. Every event is printed as a header line
+ * followed by message lines, so the last header has to be remembered.
+ *
+ * @author NYEREL
+ */
+public class LongFormatDecoder extends LineFormatDecoder {
+
+    private final LogHeaderParser headerParser = new LogHeaderParser();
+    private LogEventInfo lastLogEventInfo;
+
+    @Override
+    public String getCommand() {
+        return "logcat -v long";
+    }
+
+    @Override
+    protected void decodeLine(String line, Sink sink) {
+        if (headerParser.parse(line)) {
+            // this is a header line, parse the header and keep it around.
+            lastLogEventInfo = sink.createInfo(headerParser.getPid(), headerParser.getTid(), headerParser.getTime(),
+                    headerParser.getTag(), headerParser.getLevel());
+            return;
+        }
+        if (lastLogEventInfo == null) {
+            // The first line of output wasn't preceded
+            // by a header line; make something up so
+            // that users of mc.data don't NPE.
+            lastLogEventInfo = new LogEventInfo(0, new String[]{""}, "??-?? ??:??:??.???", "<unknown>", LogLevel.INFO); //$NON-NLS1$
+        }
+        sink.logEvent(lastLogEventInfo, LogHeaderParser.expandTabs(line));
+    }
+
+    @ServiceProvider(service = LogFormatDecoder.Provider.class, position = 100)
+    public static final class Provider implements LogFormatDecoder.Provider {
+
+        @Override
+        public int getMinApiLevel() {
+            return 0;
+        }
+
+        @Override
+        public LogFormatDecoder createDecoder(TimeZone deviceTimeZone) {
+            return new LongFormatDecoder();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nbandroid.netbeans.gradle.logcat;
+
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.Client;
+import com.android.ddmlib.ClientData;
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.MultiLineReceiver;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.TimeoutException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Process names of one device by pid. The table is filled by client changes
+ * pushed from ddmlib and by {@code ps} snapshots for processes, which are no
+ * debuggable clients. Pids, which could not be resolved, are not looked up
+ * again before {@link #NEGATIVE_TTL} has passed. When a pid shows up with a
+ * different name, it was reused and gets a new name reference, so events of
+ * the old process keep their name.
+ *
+ * @author NYEREL
+ */
+final class ProcessNameTable {
+
+    private static final Logger LOG = Logger.getLogger(ProcessNameTable.class.getName());
+    private static final RequestProcessor RP = new RequestProcessor(ProcessNameTable.class);
+    static final long NEGATIVE_TTL = 30000;
+    private static final long MIN_SNAPSHOT_INTERVAL = 5000;
+    private static final int PS_TIMEOUT = 10;
+
+    private final Map<Integer, String[]> names = new ConcurrentHashMap<>();
+    // unresolved pids and the time, when they may be looked up again
+    private final Map<Integer, Long> unresolved = new HashMap<>();
+    private Set<Integer> clientPids = new HashSet<>();
+    private long lastSnapshot = 0;
+    private boolean snapshotPending = false;
+
+    /**
+     * Get a reference to the name of the process with the given ID. The
+     * reference may contain {@code null}, if the name is not known yet; it is
+     * filled in, as soon as it gets resolved.
+     */
+    String[] get(IDevice device, int pid) {
+        String[] ref = names.get(pid);
+        if (ref != null && ref[0] != null) {
+            return ref;
+        }
+        return resolve(device, pid);
+    }
+
+    private synchronized String[] resolve(IDevice device, int pid) {
+        String[] ref = names.get(pid);
+        if (ref == null) {
+            ref = new String[1];
+            names.put(pid, ref);
+        } else if (ref[0] != null) {
+            return ref;
+        }
+
+        long now = System.currentTimeMillis();
+        Long retry = unresolved.get(pid);
+        if (retry != null && now < retry) {
+            return ref;
+        }
+
+        for (Client client : device.getClients()) {
+            ClientData data = client.getClientData();
+            if (data.getPid() == pid && data.getClientDescription() != null) {
+                ref[0] = data.getClientDescription();
+                unresolved.remove(pid);
+                return ref;
+            }
+        }
+        unresolved.put(pid, now + NEGATIVE_TTL);
+        requestSnapshot(device, now);
+        return ref;
+    }
+
+    /**
+     * The name of a client was pushed by ddmlib.
+     */
+    synchronized void clientChanged(Client client) {
+        ClientData data = client.getClientData();
+        String name = data.getClientDescription();
+        if (name == null) {
+            return;
+        }
+        unresolved.remove(data.getPid());
+        String[] ref = names.get(data.getPid());
+        if (ref == null) {
+            names.put(data.getPid(), new String[]{name});
+        } else {
+            // the same process, which got its final name
+            ref[0] = name;
+        }
+    }
+
+    /**
+     * The list of clients of the device changed. Pids of clients, which have
+     * gone, are dropped, because they may be reused.
+     */
+    synchronized void clientListChanged(Client[] clients) {
+        Set<Integer> pids = new HashSet<>();
+        for (Client client : clients) {
+            pids.add(client.getClientData().getPid());
+        }
+        for (Integer pid : clientPids) {
+            if (!pids.contains(pid)) {
+                names.remove(pid);
+                unresolved.remove(pid);
+            }
+        }
+        clientPids = pids;
+    }
+
+    private void requestSnapshot(final IDevice device, long now) {
+        if (snapshotPending || now - lastSnapshot < MIN_SNAPSHOT_INTERVAL) {
+            return;
+        }
+        snapshotPending = true;
+        RP.post(new Runnable() {
+            @Override
+            public void run() {
+                Map<Integer, String> snapshot = null;
+                try {
+                    snapshot = readProcesses(device);
+                } finally {
+                    applySnapshot(snapshot);
+                }
+            }
+        });
+    }
+
+    private synchronized void applySnapshot(Map<Integer, String> snapshot) {
+        snapshotPending = false;
+        lastSnapshot = System.currentTimeMillis();
+        if (snapshot == null) {
+            return;
+        }
+        for (Map.Entry<Integer, String> entry : snapshot.entrySet()) {
+            Integer pid = entry.getKey();
+            String name = entry.getValue();
+            String[] ref = names.get(pid);
+            if (ref == null) {
+                names.put(pid, new String[]{name});
+            } else if (ref[0] == null) {
+                ref[0] = name;
+            } else if (!ref[0].equals(name) && !clientPids.contains(pid)) {
+                // pid reused by another process
+                names.put(pid, new String[]{name});
+            }
+            unresolved.remove(pid);
+        }
+        // processes, which have exited
+        names.keySet().retainAll(snapshot.keySet());
+    }
+
+    private static Map<Integer, String> readProcesses(IDevice device) {
+        ProcessListReceiver receiver = new ProcessListReceiver();
+        // toybox ps lists only the own processes without -A
+        String command = apiLevel(device) >= 26 ? "ps -A -o PID,NAME" : "ps"; //NOI18N
+        try {
+            device.executeShellCommand(command, receiver, PS_TIMEOUT, TimeUnit.SECONDS);
+        } catch (TimeoutException | AdbCommandRejectedException | ShellCommandUnresponsiveException | IOException ex) {
+            LOG.log(Level.FINE, "Unable to list processes of " + device.getSerialNumber(), ex);
+            return null;
+        }
+        return receiver.processes.isEmpty() ? null : receiver.processes;
+    }
+
+    private static int apiLevel(IDevice device) {
+        String api = device.getProperty(IDevice.PROP_BUILD_API_LEVEL);
+        try {
+            return api != null ? Integer.parseInt(api.trim()) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Parses {@code ps} output: the column of the pid is taken from the
+     * header, the name is the last column.
+     */
+    private static final class ProcessListReceiver extends MultiLineReceiver {
+
+        private final Map<Integer, String> processes = new HashMap<>();
+        private int pidColumn = -1;
+
+        @Override
+        public void processNewLines(String[] lines) {
+            for (String line : lines) {
+                String[] columns = line.trim().split("\\s+");
+                if (pidColumn < 0) {
+                    for (int i = 0; i < columns.length; i++) {
+                        if ("PID".equals(columns[i])) {
+                            pidColumn = i;
+                        }
+                    }
+                } else if (columns.length > pidColumn + 1) {
+                    try {
+                        processes.put(Integer.parseInt(columns[pidColumn]), columns[columns.length - 1]);
+                    } catch (NumberFormatException ex) {
+                        // not a process line
+                    }
+                }
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nbandroid.netbeans.gradle.logcat;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Small direct mapped string table for log tags. A tag seen again returns the
+ * same string instance without allocating. On a collision the newer tag
+ * replaces the older one. Not thread safe.
+ *
+ * @author NYEREL
+ */
+final class TagInterner {
+
+    private static final int TABLE_SIZE = 1024;
+
+    private final String[] table = new String[TABLE_SIZE];
+
+    String intern(String s, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + s.charAt(i);
+        }
+        int slot = (hash ^ (hash >>> 16)) & (TABLE_SIZE - 1);
+        String cached = table[slot];
+        int length = end - start;
+        if (cached != null && cached.length() == length && s.regionMatches(start, cached, 0, length)) {
+            return cached;
+        }
+        String tag = s.substring(start, end);
+        table[slot] = tag;
+        return tag;
+    }
+
+    /**
+     * Intern a tag given as bytes. Only plain ASCII tags are compared without
+     * decoding, others are always decoded as UTF-8.
+     */
+    String intern(byte[] data, int start, int end) {
+        int hash = 0;
+        boolean ascii = true;
+        for (int i = start; i < end; i++) {
+            byte b = data[i];
+            ascii &= b >= 0;
+            hash = 31 * hash + b;
+        }
+        int slot = (hash ^ (hash >>> 16)) & (TABLE_SIZE - 1);
+        String cached = table[slot];
+        int length = end - start;
+        if (ascii && cached != null && cached.length() == length) {
+            boolean same = true;
+            for (int i = 0; i < length && same; i++) {
+                same = cached.charAt(i) == data[start + i];
+            }
+            if (same) {
+                return cached;
+            }
+        }
+        String tag = new String(data, start, length, StandardCharsets.UTF_8);
+        table[slot] = tag;
+        return tag;
+    }
+}
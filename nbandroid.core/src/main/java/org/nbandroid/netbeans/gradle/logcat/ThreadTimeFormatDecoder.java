@@ -0,0 +1,150 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nbandroid.netbeans.gradle.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+import java.util.TimeZone;
+import org.openide.util.lookup.ServiceProvider;
+
+/**
+ * Decoder of {@code logcat -v threadtime}, which prints one line per event:
+ * <pre>01-23 12:34:56.789  1234  5678 D Tag     : message</pre>
+ *
+ * @author NYEREL
+ */
+public class ThreadTimeFormatDecoder extends LineFormatDecoder {
+
+    private final TagInterner tags = new TagInterner();
+    private LogEventInfo lastLogEventInfo;
+
+    @Override
+    public String getCommand() {
+        return "logcat -v threadtime";
+    }
+
+    @Override
+    protected void decodeLine(String line, Sink sink) {
+        int len = line.length();
+        int i = 6;
+        // "MM-DD HH:MM:SS.f"
+        if (len < 22 || line.charAt(2) != '-' || line.charAt(5) != ' '
+                || line.charAt(8) != ':' || line.charAt(11) != ':' || line.charAt(14) != '.') {
+            unparsed(line, sink);
+            return;
+        }
+        int timeStart = i;
+        i = 15;
+        while (i < len && isDigit(line.charAt(i))) {
+            i++;
+        }
+        int timeEnd = i;
+        i = skipSpaces(line, i);
+        int pid = 0;
+        int pidStart = i;
+        while (i < len && isDigit(line.charAt(i))) {
+            pid = pid * 10 + (line.charAt(i++) - '0');
+        }
+        if (i == pidStart) {
+            unparsed(line, sink);
+            return;
+        }
+        i = skipSpaces(line, i);
+        int tid = 0;
+        int tidStart = i;
+        while (i < len && isDigit(line.charAt(i))) {
+            tid = tid * 10 + (line.charAt(i++) - '0');
+        }
+        if (i == tidStart || i + 2 >= len || line.charAt(i) != ' ' || line.charAt(i + 2) != ' ') {
+            unparsed(line, sink);
+            return;
+        }
+        LogLevel level = toLevel(line.charAt(i + 1));
+        if (level == null) {
+            unparsed(line, sink);
+            return;
+        }
+        int tagStart = i + 3;
+        int separator = line.indexOf(": ", tagStart);
+        int messageStart;
+        if (separator < 0) {
+            // empty message, the line ends with ':'
+            separator = line.endsWith(":") ? len - 1 : len;
+            messageStart = len;
+        } else {
+            messageStart = separator + 2;
+        }
+        int tagEnd = separator;
+        while (tagEnd > tagStart && line.charAt(tagEnd - 1) == ' ') {
+            tagEnd--;
+        }
+
+        String time = line.substring(timeStart, timeEnd);
+        String tag = tags.intern(line, tagStart, tagEnd);
+        lastLogEventInfo = sink.createInfo(pid, tid, time, tag, level);
+        sink.logEvent(lastLogEventInfo, LogHeaderParser.expandTabs(line.substring(messageStart)));
+    }
+
+    private void unparsed(String line, Sink sink) {
+        // should not happen, but keep the line attached to the last event
+        if (lastLogEventInfo == null) {
+            lastLogEventInfo = new LogEventInfo(0, new String[]{""}, "??-?? ??:??:??.???", "<unknown>", LogLevel.INFO); //$NON-NLS1$
+        }
+        sink.logEvent(lastLogEventInfo, LogHeaderParser.expandTabs(line));
+    }
+
+    private static int skipSpaces(String line, int i) {
+        while (i < line.length() && line.charAt(i) == ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    static LogLevel toLevel(char letter) {
+        switch (letter) {
+            case 'V':
+                return LogLevel.VERBOSE;
+            case 'D':
+                return LogLevel.DEBUG;
+            case 'I':
+                return LogLevel.INFO;
+            case 'W':
+                return LogLevel.WARN;
+            case 'E':
+                return LogLevel.ERROR;
+            case 'F':
+            case 'A':
+                return LogLevel.ASSERT;
+            default:
+                return null;
+        }
+    }
+
+    @ServiceProvider(service = LogFormatDecoder.Provider.class, position = 200)
+    public static final class Provider implements LogFormatDecoder.Provider {
+
+        @Override
+        public int getMinApiLevel() {
+            return 9;
+        }
+
+        @Override
+        public LogFormatDecoder createDecoder(TimeZone deviceTimeZone) {
+            return new ThreadTimeFormatDecoder();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nbandroid.netbeans.gradle.logcat.logtable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.SwingUtilities;
+import org.nbandroid.netbeans.gradle.logcat.LogEvent;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Collects log events on the reader thread and hands them over to the EDT in
+ * batches, at most once per flush interval. When the EDT falls behind, the
+ * reader thread is blocked for a while; if that doesn't help, the pending
+ * events are dropped and the table catches up with the missing events from
+ * the shared event buffer instead.
+ *
+ * @author NYEREL
+ */
+public class LogEventBatcher {
+
+    public static final int DEFAULT_FLUSH_INTERVAL = 75;
+    public static final int DEFAULT_MAX_PENDING = 50000;
+    private static final long BACKPRESSURE_TIMEOUT = 250;
+    private static final RequestProcessor RP = new RequestProcessor(LogEventBatcher.class);
+
+    /**
+     * Receives the batches on the EDT.
+     */
+    interface Target {
+
+        void addEvents(List<LogEvent> events);
+
+        /**
+         * Events were dropped, add them from the event storage.
+         */
+        void resync();
+    }
+
+    private final Target target;
+    private final int flushInterval;
+    private final int maxPending;
+    private final RequestProcessor.Task flushTask;
+    private final Object lock = new Object();
+    private List<LogEvent> pending = new ArrayList<>();
+    private boolean scheduled = false;
+    private boolean resync = false;
+
+    private final AtomicLong deliveredBatches = new AtomicLong();
+    private final AtomicLong deliveredEvents = new AtomicLong();
+    private final AtomicLong coalescedBatches = new AtomicLong();
+    private final AtomicLong droppedBatches = new AtomicLong();
+
+    LogEventBatcher(Target target) {
+        this(target, DEFAULT_FLUSH_INTERVAL, DEFAULT_MAX_PENDING);
+    }
+
+    LogEventBatcher(Target target, int flushInterval, int maxPending) {
+        this.target = target;
+        this.flushInterval = flushInterval;
+        this.maxPending = maxPending;
+        this.flushTask = RP.create(new Runnable() {
+            @Override
+            public void run() {
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Queue an event for the next batch. May block the calling thread, when
+     * the EDT does not keep up.
+     */
+    public void add(LogEvent event) {
+        synchronized (lock) {
+            if (pending.size() >= maxPending && !SwingUtilities.isEventDispatchThread()) {
+                long deadline = System.currentTimeMillis() + BACKPRESSURE_TIMEOUT;
+                long remaining = BACKPRESSURE_TIMEOUT;
+                while (pending.size() >= maxPending && remaining > 0) {
+                    try {
+                        lock.wait(remaining);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            }
+            if (pending.size() >= maxPending) {
+                pending = new ArrayList<>();
+                resync = true;
+                droppedBatches.incrementAndGet();
+            }
+            pending.add(event);
+            if (!scheduled) {
+                scheduled = true;
+                flushTask.schedule(flushInterval);
+            }
+        }
+    }
+
+    private void flush() {
+        List<LogEvent> batch;
+        boolean doResync;
+        synchronized (lock) {
+            batch = pending;
+            doResync = resync;
+            pending = new ArrayList<>();
+            resync = false;
+            scheduled = false;
+            lock.notifyAll();
+        }
+
+        if (doResync) {
+            target.resync();
+        }
+        if (!batch.isEmpty()) {
+            if (batch.size() > 1) {
+                coalescedBatches.incrementAndGet();
+            }
+            deliveredBatches.incrementAndGet();
+            deliveredEvents.addAndGet(batch.size());
+            target.addEvents(batch);
+        }
+    }
+
+    /**
+     * Number of batches delivered to the EDT.
+     */
+    public long getDeliveredBatches() {
+        return deliveredBatches.get();
+    }
+
+    /**
+     * Number of events delivered to the EDT.
+     */
+    public long getDeliveredEvents() {
+        return deliveredEvents.get();
+    }
+
+    /**
+     * Number of batches, which merged more than one event into one table
+     * update.
+     */
+    public long getCoalescedBatches() {
+        return coalescedBatches.get();
+    }
+
+    /**
+     * Number of times the pending events were dropped, because the EDT did not
+     * keep up.
+     */
+    public long getDroppedBatches() {
+        return droppedBatches.get();
+    }
+
+    @Override
+    public String toString() {
+        return "LogEventBatcher[delivered=" + deliveredBatches + "/" + deliveredEvents
+                + " coalesced=" + coalescedBatches + " dropped=" + droppedBatches + "]";
+    }
+}
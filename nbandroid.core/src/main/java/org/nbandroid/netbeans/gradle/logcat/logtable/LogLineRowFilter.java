@@ -14,11 +14,22 @@
 package org.nbandroid.netbeans.gradle.logcat.logtable;
 
 import com.android.ddmlib.Log.LogLevel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 import javax.swing.RowFilter;
+import javax.swing.event.ChangeListener;
 import static org.nbandroid.netbeans.gradle.logcat.HtmlUtil.htmlEscape;
+import org.nbandroid.netbeans.gradle.logcat.LogCaptureStore;
 import org.nbandroid.netbeans.gradle.logcat.LogEvent;
+import org.nbandroid.netbeans.gradle.logcat.LogEventBuffer;
+import org.nbandroid.netbeans.gradle.logcat.LogEventIndex;
+import org.openide.util.ChangeSupport;
+import org.openide.util.RequestProcessor;
 
 /**
  *
@@ -33,10 +44,14 @@ public class LogLineRowFilter extends RowFilter<LogTableModel, Integer> {
         String highlight(String str);
     }
 
+    private static final RequestProcessor RP = new RequestProcessor(LogLineRowFilter.class);
+    private static final int SCAN_CHUNK = 64 * 1024;
+
     private LogLevel level = LogLevel.VERBOSE;
     private boolean useRegexp = false;
     private String filterText = "";
-    private RowMatcher currentFilter;
+    private volatile RowMatcher currentFilter;
+    private final ChangeSupport changeSupport = new ChangeSupport(this);
 
     public LogLineRowFilter() {
         setFilterString("");
@@ -52,7 +67,26 @@ public class LogLineRowFilter extends RowFilter<LogTableModel, Integer> {
     }
 
     private void updateFilter() {
-        currentFilter = useRegexp ? new RegexpRowMatcher(filterText) : new TextSearchFilter(filterText);
+        RowMatcher previous = currentFilter;
+        if (previous instanceof RegexpRowMatcher) {
+            // the user typed again, the old scan is useless now
+            previous = ((RegexpRowMatcher) previous).cancel();
+        } else if (previous instanceof TextSearchFilter) {
+            ((TextSearchFilter) previous).cancel();
+        }
+        currentFilter = useRegexp ? new RegexpRowMatcher(filterText, previous) : new TextSearchFilter(filterText);
+    }
+
+    /**
+     * Listeners are notified, when a filter computed in background is ready
+     * and the tables should be sorted again. Called outside of the EDT.
+     */
+    public void addChangeListener(ChangeListener listener) {
+        changeSupport.addChangeListener(listener);
+    }
+
+    public void removeChangeListener(ChangeListener listener) {
+        changeSupport.removeChangeListener(listener);
     }
 
     public void setUseRegExp(boolean useRegexp) {
@@ -96,10 +130,22 @@ public class LogLineRowFilter extends RowFilter<LogTableModel, Integer> {
         return currentFilter.include(entry);
     }
 
+    /**
+     * Matches keywords against tag, process name and message. Events in
+     * memory are answered by the index of their buffer. Events read back from
+     * the capture store are matched by a background scan of the capture and
+     * are left out until it is done.
+     */
     private class TextSearchFilter implements RowMatcher {
 
         private String[] searchKeyWords = new String[]{};
         private Pattern keywordFinder = null;
+        // last index query, shared by all tables showing the same buffer
+        private LogEventBuffer resultBuffer;
+        private LogEventIndex.Result result;
+        private volatile ScanResult captureScan;
+        private LogEventBuffer captureScanned;
+        private final AtomicBoolean cancelled = new AtomicBoolean();
 
         public TextSearchFilter(String filterText) {
             searchKeyWords = filterText.toLowerCase().trim().split("\\s");
@@ -132,22 +178,88 @@ public class LogLineRowFilter extends RowFilter<LogTableModel, Integer> {
             }
 
             if (searchKeyWords.length > 0) {
-                String message = event.getMessage().toLowerCase();
-                String pname = event.getProcessName().toLowerCase();
-                String tag = event.getTag().toLowerCase();
-
-                for (String exp : searchKeyWords) {
-                    if (!tag.contains(exp)
-                            && !pname.contains(exp)
-                            && !message.contains(exp)) {
+                LogEventBuffer buffer = model.getBuffer();
+                if (buffer != null && buffer.contains(event)) {
+                    LogEventIndex.Result r = getResult(buffer);
+                    if (r != null) {
+                        return buffer.matches(r, event.getSequence());
+                    }
+                } else if (buffer != null && event.getSequence() >= 0) {
+                    ScanResult scan = captureScan;
+                    if (scan == null || scan.buffer != buffer) {
+                        startCaptureScan(buffer);
                         return false;
                     }
+                    if (event.getSequence() < scan.end) {
+                        return event.getSequence() >= scan.first
+                                && scan.bits.get((int) (event.getSequence() - scan.first));
+                    }
+                    // evicted from memory after the scan
                 }
+
+                // events, which are not in an indexed buffer, are checked directly
+                return matches(event);
             }
 
             return true;
         }
 
+        private boolean matches(LogEvent event) {
+            String message = event.getMessage().toLowerCase();
+            String pname = event.getProcessName().toLowerCase();
+            String tag = event.getTag().toLowerCase();
+
+            for (String exp : searchKeyWords) {
+                if (!tag.contains(exp)
+                        && !pname.contains(exp)
+                        && !message.contains(exp)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void cancel() {
+            cancelled.set(true);
+        }
+
+        private synchronized void startCaptureScan(final LogEventBuffer buffer) {
+            if (captureScanned == buffer || cancelled.get()) {
+                return;
+            }
+            captureScanned = buffer;
+            RP.post(new Runnable() {
+                @Override
+                public void run() {
+                    long end = buffer.getFirstSequence();
+                    long first = Math.min(buffer.getOldestSequence(), end);
+                    BitSet bits = new BitSet();
+                    LogCaptureStore store = buffer.getCaptureStore();
+                    for (long from = first; store != null && from < end; from += SCAN_CHUNK) {
+                        if (cancelled.get()) {
+                            return;
+                        }
+                        LogEvent[] events = store.read(from, Math.min(from + SCAN_CHUNK, end));
+                        for (int i = 0; i < events.length; i++) {
+                            if (events[i] != null && matches(events[i])) {
+                                bits.set((int) (from - first) + i);
+                            }
+                        }
+                    }
+                    captureScan = new ScanResult(buffer, first, end, bits);
+                    changeSupport.fireChange();
+                }
+            });
+        }
+
+        private synchronized LogEventIndex.Result getResult(LogEventBuffer buffer) {
+            if (result == null || resultBuffer != buffer || result.getLevel() != level) {
+                result = buffer.query(level, searchKeyWords);
+                resultBuffer = buffer;
+            }
+            return result;
+        }
+
         @Override
         public String highlight(String str) {
             if (searchKeyWords.length > 0) {
@@ -158,11 +270,23 @@ public class LogLineRowFilter extends RowFilter<LogTableModel, Integer> {
         }
     }
 
+    /**
+     * Matches the regular expression against message and tag. Rows of an
+     * event buffer are matched in background by a fork/join scan of the whole
+     * buffer, including the events in its capture store; until the scan
+     * result is swapped in, the previous filter stays in effect, so the EDT
+     * never evaluates the expression for all rows.
+     */
     private class RegexpRowMatcher implements RowMatcher {
 
         private Pattern keywordFinder = null;
+        private volatile RowMatcher previous;
+        private volatile ScanResult scan;
+        private LogEventBuffer scannedBuffer;
+        private final AtomicBoolean cancelled = new AtomicBoolean();
 
-        public RegexpRowMatcher(String filterText) {
+        public RegexpRowMatcher(String filterText, RowMatcher previous) {
+            this.previous = previous;
             try {
                 keywordFinder = Pattern.compile(filterText);
             } catch (PatternSyntaxException pse) {
@@ -170,6 +294,17 @@ public class LogLineRowFilter extends RowFilter<LogTableModel, Integer> {
             }
         }
 
+        /**
+         * Stop the background scan.
+         *
+         * @return the matcher, which is really in effect
+         */
+        RowMatcher cancel() {
+            cancelled.set(true);
+            RowMatcher p = previous;
+            return scan != null || p == null ? this : p;
+        }
+
         @Override
         public boolean include(Entry<? extends LogTableModel, ? extends Integer> entry) {
             if (keywordFinder == null) {
@@ -182,11 +317,67 @@ public class LogLineRowFilter extends RowFilter<LogTableModel, Integer> {
                 return false;
             }
 
-            if (keywordFinder.matcher(event.getMessage()).find()
-                    || keywordFinder.matcher(event.getTag()).find()) {
-                return true;
+            LogEventBuffer buffer = model.getBuffer();
+            // rows with a sequence number are events of the buffer, in memory or captured
+            if (buffer != null && event.getSequence() >= 0) {
+                ScanResult result = scan;
+                if (result == null || result.buffer != buffer) {
+                    startScan(buffer);
+                    RowMatcher p = previous;
+                    if (p != null) {
+                        return p.include(entry);
+                    }
+                } else if (event.getSequence() < result.end) {
+                    return event.getSequence() >= result.first
+                            && result.bits.get((int) (event.getSequence() - result.first));
+                }
+            }
+
+            // events added after the scan and events not stored in the buffer
+            return matches(event);
+        }
+
+        private boolean matches(LogEvent event) {
+            return keywordFinder.matcher(event.getMessage()).find()
+                    || keywordFinder.matcher(event.getTag()).find();
+        }
+
+        private synchronized void startScan(final LogEventBuffer buffer) {
+            if (scannedBuffer == buffer || cancelled.get()) {
+                return;
+            }
+            scannedBuffer = buffer;
+            RP.post(new Runnable() {
+                @Override
+                public void run() {
+                    List<LogEvent> events = buffer.toList();
+                    long first = events.isEmpty() ? buffer.getFirstSequence() : events.get(0).getSequence();
+                    long oldest = Math.min(buffer.getOldestSequence(), first);
+                    BitSet bits = new BitSet();
+                    LogCaptureStore store = buffer.getCaptureStore();
+                    // the capture is read chunk by chunk, it may not fit in memory
+                    for (long from = oldest; store != null && from < first && !cancelled.get(); from += SCAN_CHUNK) {
+                        long to = Math.min(from + SCAN_CHUNK, first);
+                        scan(Arrays.asList(store.read(from, to)), bits, (int) (from - oldest));
+                    }
+                    scan(events, bits, (int) (first - oldest));
+                    if (cancelled.get()) {
+                        return;
+                    }
+                    scan = new ScanResult(buffer, oldest, first + events.size(), bits);
+                    previous = null;
+                    changeSupport.fireChange();
+                }
+            });
+        }
+
+        private void scan(List<LogEvent> events, BitSet bits, int offset) {
+            RegexScanTask task = new RegexScanTask(events, keywordFinder, cancelled);
+            ForkJoinPool.commonPool().invoke(task);
+            BitSet found = task.getResult();
+            for (int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1)) {
+                bits.set(offset + i);
             }
-            return false;
         }
 
         @Override
@@ -195,4 +386,22 @@ public class LogLineRowFilter extends RowFilter<LogTableModel, Integer> {
         }
 
     }
+
+    /**
+     * Sequence range of a buffer scanned in background and its matches.
+     */
+    private static final class ScanResult {
+
+        private final LogEventBuffer buffer;
+        private final long first;
+        private final long end;
+        private final BitSet bits;
+
+        ScanResult(LogEventBuffer buffer, long first, long end, BitSet bits) {
+            this.buffer = buffer;
+            this.first = first;
+            this.end = end;
+            this.bits = bits;
+        }
+    }
 }
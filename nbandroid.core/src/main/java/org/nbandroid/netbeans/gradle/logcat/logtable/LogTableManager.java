@@ -15,6 +15,7 @@ package org.nbandroid.netbeans.gradle.logcat.logtable;
 
 import java.awt.Rectangle;
 import java.util.Collection;
+import java.util.List;
 import javax.swing.JTable;
 import javax.swing.JToggleButton;
 import javax.swing.SwingUtilities;
@@ -23,7 +24,9 @@ import javax.swing.event.ChangeListener;
 import javax.swing.table.TableColumn;
 import javax.swing.table.TableColumnModel;
 import org.nbandroid.netbeans.gradle.logcat.LogEvent;
+import org.nbandroid.netbeans.gradle.logcat.LogEventBuffer;
 import org.nbandroid.netbeans.gradle.logcat.LogListener;
+import org.openide.util.NbBundle;
 
 /**
  *
@@ -34,12 +37,28 @@ public class LogTableManager implements LogListener, ChangeListener {
     private final TableColumnModel columnModel;
     private final JTable table;
     private final LogTableModel model;
+    private final LogEventBatcher batcher;
     private boolean autoFollowScroll = true;
 
     public LogTableManager(JTable table) {
         this.table = table;
         this.model = (LogTableModel) table.getModel();
         this.columnModel = table.getColumnModel();
+        this.batcher = new LogEventBatcher(new LogEventBatcher.Target() {
+            @Override
+            public void addEvents(List<LogEvent> events) {
+                model.addNewEvents(events);
+                if (autoFollowScroll) {
+                    scrollToBottom();
+                }
+                updateBatcherStatistics();
+            }
+
+            @Override
+            public void resync() {
+                model.catchUp();
+            }
+        });
         initTable();
     }
 
@@ -72,6 +91,13 @@ public class LogTableManager implements LogListener, ChangeListener {
 
     }
 
+    private void updateBatcherStatistics() {
+        if (table.getTableHeader() != null) {
+            table.getTableHeader().setToolTipText(NbBundle.getMessage(LogTableManager.class, "LogTable.header.toolTipText",
+                    batcher.getDeliveredBatches(), batcher.getCoalescedBatches(), batcher.getDroppedBatches()));
+        }
+    }
+
     public LogTableModel getModel() {
         return model;
     }
@@ -102,21 +128,47 @@ public class LogTableManager implements LogListener, ChangeListener {
         });
     }
 
-    @Override
-    public void newLogEvent(final LogEvent logEvent) {
+    /**
+     * Show the events of another device.
+     */
+    public void setEventBuffer(final LogEventBuffer buffer) {
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
-                model.addNewEvent(logEvent);
+                model.setBuffer(buffer);
+
                 if (autoFollowScroll) {
                     scrollToBottom();
                 }
+            }
+        });
+    }
 
-                return;
+    /**
+     * Show the events of all devices.
+     */
+    public void setEventBuffers(final Collection<LogEventBuffer> buffers, final List<LogEvent> mergedEvents) {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                model.setMergedBuffers(buffers, mergedEvents);
+
+                if (autoFollowScroll) {
+                    scrollToBottom();
+                }
             }
         });
     }
 
+    @Override
+    public void newLogEvent(final LogEvent logEvent) {
+        batcher.add(logEvent);
+    }
+
+    public LogEventBatcher getBatcher() {
+        return batcher;
+    }
+
     @Override
     public void error(String m) {
         model.showError(m);
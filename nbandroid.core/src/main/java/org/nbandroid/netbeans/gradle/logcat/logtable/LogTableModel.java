@@ -15,14 +15,21 @@ package org.nbandroid.netbeans.gradle.logcat.logtable;
 
 import com.android.ddmlib.Log.LogLevel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import javax.swing.SwingUtilities;
 import javax.swing.table.AbstractTableModel;
 import org.nbandroid.netbeans.gradle.logcat.LogEvent;
+import org.nbandroid.netbeans.gradle.logcat.LogEventBuffer;
 import org.nbandroid.netbeans.gradle.logcat.LogEventInfo;
+import org.nbandroid.netbeans.gradle.logcat.LogReader;
 import org.openide.util.NbBundle;
+import org.openide.util.NbPreferences;
+import org.openide.util.RequestProcessor;
 
 /**
  *
@@ -43,21 +50,51 @@ public class LogTableModel extends AbstractTableModel {
     public static final String COL_TAG_NAME = "tag";
     public static final String COL_MESSAGE_NAME = "message";
 
-    private List<LogEvent> data;
+    private static final int LOCAL_CAPACITY = 1000;
+    private static final int REPLAY_CHUNK = 4096;
+    private static final RequestProcessor RP = new RequestProcessor(LogTableModel.class);
+    private static final LogEvent EVICTED = new LogEvent(
+            new LogEventInfo(0, new String[]{""}, "", "", LogLevel.VERBOSE), "");
+
+    /**
+     * Rows are sequence numbers into the shared device buffer. Events, which
+     * are not stored there (error and info messages), are kept in a small
+     * local buffer and their rows are stored as {@code ~sequence}.
+     */
+    private long[] rows = new long[1024];
+    private int rowStart = 0;
+    private int rowCount = 0;
+    private long lastSharedSequence = -1;
+    private LogEventBuffer buffer;
+    private final LogEventBuffer localBuffer = new LogEventBuffer(LOCAL_CAPACITY, 0);
+    /**
+     * Buffers of all devices, while their events are shown together. The
+     * matching events are then kept in the {@code merged} ring and the shared
+     * rows are positions in it.
+     */
+    private Collection<LogEventBuffer> mergedBuffers;
+    private LogEvent[] merged;
+    private long mergedFirst = 0;
+    private long mergedNext = 0;
+    // last sequence number merged from each buffer
+    private final Map<LogEventBuffer, Long> mergedUpTo = new IdentityHashMap<>();
     private LogFilter filter;
+    /**
+     * Incremented by every {@link #setBuffer}, stops replays of older buffers
+     */
+    private int generation = 0;
 
     public LogTableModel() {
         this(null);
     }
 
     public LogTableModel(LogFilter filter) {
-        this.data = Collections.synchronizedList(new ArrayList<LogEvent>());
         this.filter = filter;
     }
 
     @Override
-    public int getRowCount() {
-        return data.size();
+    public synchronized int getRowCount() {
+        return rowCount;
     }
 
     @Override
@@ -108,18 +145,200 @@ public class LogTableModel extends AbstractTableModel {
         return 6;
     }
 
-    public LogEvent getValueAt(int rowIndex) {
-        return data.get(rowIndex);
+    public synchronized LogEvent getValueAt(int rowIndex) {
+        if (rowIndex < 0 || rowIndex >= rowCount) {
+            throw new IndexOutOfBoundsException("Row " + rowIndex + " of " + rowCount);
+        }
+        long row = rows[rowStart + rowIndex];
+        LogEvent event;
+        if (row < 0) {
+            event = localBuffer.get(~row);
+        } else if (merged != null) {
+            event = row >= mergedFirst ? merged[(int) (row % merged.length)] : null;
+        } else {
+            event = buffer != null ? buffer.get(row) : null;
+        }
+        // evicted rows are removed with the next insert
+        return event != null ? event : EVICTED;
     }
 
     public void clear() {
-        data.clear();
+        synchronized (this) {
+            generation++;
+            rowStart = 0;
+            rowCount = 0;
+        }
+        fireTableDataChanged();
+    }
+
+    /**
+     * Switch this model to the event storage of another device. The rows of
+     * the events in memory are rebuilt right away, the older events left only
+     * in the capture store of the buffer are replayed in background, newest
+     * first, and inserted at the top of the table chunk by chunk.
+     */
+    public void setBuffer(LogEventBuffer buffer) {
+        long replayEnd = -1;
+        int replayGeneration;
+        synchronized (this) {
+            this.buffer = buffer;
+            mergedBuffers = null;
+            merged = null;
+            mergedUpTo.clear();
+            rowStart = 0;
+            rowCount = 0;
+            lastSharedSequence = -1;
+            replayGeneration = ++generation;
+            if (buffer != null) {
+                // read before the snapshot, which may already hold later events
+                long next = buffer.getNextSequence();
+                List<LogEvent> inMemory = buffer.toList();
+                for (LogEvent event : inMemory) {
+                    appendEvent(event);
+                }
+                if (inMemory.isEmpty()) {
+                    // older events are replayed, newer ones come via catchUp
+                    lastSharedSequence = next - 1;
+                }
+                if (buffer.getCaptureStore() != null) {
+                    replayEnd = inMemory.isEmpty() ? next : inMemory.get(0).getSequence();
+                }
+            }
+        }
+        fireTableDataChanged();
+        if (replayEnd >= 0 && replayEnd > buffer.getOldestSequence()) {
+            replayCapture(buffer, replayEnd, replayGeneration);
+        }
+    }
+
+    /**
+     * Show the events of all devices. Only the events in memory are shown,
+     * the capture stores are not replayed. Later events are appended in the
+     * order they arrive.
+     *
+     * @param buffers live view of the device buffers
+     * @param events events of the buffers merged by time
+     */
+    public void setMergedBuffers(Collection<LogEventBuffer> buffers, List<LogEvent> events) {
+        synchronized (this) {
+            this.buffer = null;
+            mergedBuffers = buffers;
+            merged = new LogEvent[LogEventBuffer.getCapacity(NbPreferences.forModule(LogEventBuffer.class))];
+            mergedFirst = 0;
+            mergedNext = 0;
+            mergedUpTo.clear();
+            rowStart = 0;
+            rowCount = 0;
+            lastSharedSequence = -1;
+            generation++;
+            for (LogEvent event : events) {
+                appendNewMerged(event);
+            }
+            // more matching events than the ring holds
+            trimEvicted();
+        }
         fireTableDataChanged();
     }
 
+    private void replayCapture(final LogEventBuffer buffer, final long end, final int replayGeneration) {
+        RP.post(new Runnable() {
+            @Override
+            public void run() {
+                long to = end;
+                while (to > buffer.getOldestSequence() && isCurrent(replayGeneration)) {
+                    long from = Math.max(to - REPLAY_CHUNK, buffer.getOldestSequence());
+                    insertLater(match(buffer, from, to), to, false, replayGeneration);
+                    to = from;
+                }
+            }
+        });
+    }
+
+    /**
+     * Fill in the rows of events, which were evicted from memory before they
+     * got to this model, oldest first.
+     */
+    private void replayGap(final LogEventBuffer buffer, final long start, final long end, final int replayGeneration) {
+        RP.post(new Runnable() {
+            @Override
+            public void run() {
+                long from = Math.max(start, buffer.getOldestSequence());
+                while (from < end && isCurrent(replayGeneration)) {
+                    long to = Math.min(from + REPLAY_CHUNK, end);
+                    insertLater(match(buffer, from, to), to, true, replayGeneration);
+                    from = to;
+                }
+            }
+        });
+    }
+
+    private long[] match(LogEventBuffer buffer, long from, long to) {
+        long[] matches = new long[(int) (to - from)];
+        int count = 0;
+        // one pass over the capture, the page cache is kept for the table
+        LogEvent[] captured = buffer.getCaptureStore() != null
+                ? buffer.getCaptureStore().read(from, to) : new LogEvent[(int) (to - from)];
+        for (long sequence = from; sequence < to; sequence++) {
+            LogEvent event = captured[(int) (sequence - from)];
+            if (event == null) {
+                event = buffer.get(sequence);
+            }
+            if (event != null && (filter == null || filter.satisfy(event))) {
+                matches[count++] = sequence;
+            }
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    /**
+     * Insert the rows on the EDT, in front of the first row of an event with
+     * sequence number {@code before} or later.
+     *
+     * @param fromEnd look for the position from the last row, rather than
+     * from the first one
+     */
+    private void insertLater(final long[] rowsToInsert, final long before, final boolean fromEnd, final int replayGeneration) {
+        if (rowsToInsert.length == 0) {
+            return;
+        }
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                int index;
+                synchronized (LogTableModel.this) {
+                    if (generation != replayGeneration) {
+                        return;
+                    }
+                    // local rows are negative, they never stop the search
+                    if (fromEnd) {
+                        index = rowCount;
+                        while (index > 0 && (rows[rowStart + index - 1] >= before || rows[rowStart + index - 1] < 0)) {
+                            index--;
+                        }
+                    } else {
+                        index = 0;
+                        while (index < rowCount && rows[rowStart + index] < before) {
+                            index++;
+                        }
+                    }
+                    insertRows(rowsToInsert, index);
+                }
+                fireTableRowsInserted(index, index + rowsToInsert.length - 1);
+            }
+        });
+    }
+
+    private synchronized boolean isCurrent(int replayGeneration) {
+        return generation == replayGeneration;
+    }
+
+    public LogEventBuffer getBuffer() {
+        return buffer;
+    }
+
     @Override
     public Object getValueAt(int rowIndex, int columnIndex) {
-        LogEvent e = data.get(rowIndex);
+        LogEvent e = getValueAt(rowIndex);
         switch (columnIndex) {
             case COL_MESSAGE:
                 return e.getMessage();
@@ -138,36 +357,262 @@ public class LogTableModel extends AbstractTableModel {
     }
 
     public void addNewEvent(LogEvent event) {
-        // Do filtering
-        if (filter != null && !filter.satisfy(event)) {
-            return;
+        addNewEvents(Arrays.asList(event));
+    }
+
+    public void addNewEvents(Collection<? extends LogEvent> events) {
+        int oldsize;
+        int newsize;
+        List<int[]> evicted;
+
+        synchronized (this) {
+            oldsize = rowCount;
+            for (LogEvent event : events) {
+                appendEvent(event);
+            }
+            newsize = rowCount;
+            evicted = trimEvicted();
         }
+        fireRowsAppended(oldsize, newsize, evicted);
+    }
+
+    /**
+     * Append the rows of all events of the shared buffer, which were not
+     * passed to this model yet, e.g. because they were dropped on the way to
+     * the EDT. Existing rows, including the local ones, are kept. Only the
+     * events in memory are read here; missed events already moved to the
+     * capture store are filled in from a background task.
+     */
+    public void catchUp() {
+        int oldsize;
+        int newsize;
+        List<int[]> evicted;
+        long gapStart = -1;
+        long gapEnd = -1;
+        LogEventBuffer gapBuffer = null;
+        int gapGeneration;
 
-        if (event.getTime().equals("")) {
-            event = changeTime(event);
+        synchronized (this) {
+            oldsize = rowCount;
+            gapGeneration = generation;
+            if (merged != null) {
+                catchUpMerged();
+            } else if (buffer != null) {
+                long first = buffer.getFirstSequence();
+                long end = buffer.getNextSequence();
+                // events before lastSharedSequence are replayed by setBuffer
+                if (lastSharedSequence + 1 < first && buffer.getCaptureStore() != null) {
+                    gapStart = lastSharedSequence + 1;
+                    gapEnd = first;
+                }
+                gapBuffer = buffer;
+                for (long sequence = Math.max(lastSharedSequence + 1, first); sequence < end; sequence++) {
+                    LogEvent event = buffer.get(sequence);
+                    if (event != null) {
+                        appendShared(event);
+                    }
+                }
+            } else {
+                return;
+            }
+            newsize = rowCount;
+            evicted = trimEvicted();
+        }
+        fireRowsAppended(oldsize, newsize, evicted);
+        if (gapStart >= 0) {
+            replayGap(gapBuffer, gapStart, gapEnd, gapGeneration);
         }
-        data.add(event);
-        fireTableRowsInserted(data.size() - 1, data.size() - 1);
     }
 
-    public void addNewEvents(Collection<? extends LogEvent> events) {
-        int oldsize = data.size();
+    /**
+     * Merge the events in memory, which were not passed to this model yet,
+     * and append them.
+     */
+    private void catchUpMerged() {
+        List<List<LogEvent>> streams = new ArrayList<>();
+        for (LogEventBuffer deviceBuffer : mergedBuffers) {
+            Long upTo = mergedUpTo.get(deviceBuffer);
+            long from = Math.max(upTo != null ? upTo + 1 : 0, deviceBuffer.getFirstSequence());
+            long end = deviceBuffer.getNextSequence();
+            List<LogEvent> missed = new ArrayList<>();
+            for (long sequence = from; sequence < end; sequence++) {
+                LogEvent event = deviceBuffer.get(sequence);
+                if (event != null) {
+                    missed.add(event);
+                }
+            }
+            if (!missed.isEmpty()) {
+                mergedUpTo.put(deviceBuffer, missed.get(missed.size() - 1).getSequence());
+                streams.add(missed);
+            }
+        }
+        for (LogEvent event : LogReader.mergeByTime(streams)) {
+            appendMerged(event);
+        }
+    }
+
+    private void fireRowsAppended(int oldsize, int newsize, List<int[]> evicted) {
+        if (!evicted.isEmpty() && evicted.get(0)[1] >= oldsize) {
+            // some of the new rows were evicted right away
+            fireTableDataChanged();
+            return;
+        }
+        // runs are ordered from the last one, so indices stay valid
+        for (int[] run : evicted) {
+            fireTableRowsDeleted(run[0], run[1]);
+            int count = run[1] - run[0] + 1;
+            oldsize -= count;
+            newsize -= count;
+        }
+        if (newsize > oldsize) {
+            fireTableRowsInserted(oldsize, newsize - 1);
+        }
+    }
 
-        for (LogEvent event : events) {
+    private void appendEvent(LogEvent event) {
+        if (buffer != null && buffer.contains(event)) {
+            appendShared(event);
+        } else if (merged != null && event.getSequence() >= 0) {
+            appendNewMerged(event);
+        } else if (event.getSequence() < 0) {
+            // Do filtering
             if (filter != null && !filter.satisfy(event)) {
-                continue;
+                return;
             }
-
             if (event.getTime().equals("")) {
                 event = changeTime(event);
             }
+            appendRow(~localBuffer.add(event));
+        }
+        // else stored in the buffer of a device this table does not show
+    }
+
+    private void appendShared(LogEvent event) {
+        if (event.getSequence() <= lastSharedSequence) {
+            // already added by setBuffer or catchUp
+            return;
+        }
+        lastSharedSequence = event.getSequence();
+        // Do filtering
+        if (filter != null && !filter.satisfy(event)) {
+            return;
+        }
+        appendRow(event.getSequence());
+    }
+
+    /**
+     * Append an event of one of the merged buffers, unless it was already
+     * merged or has left memory before it got here.
+     */
+    private void appendNewMerged(LogEvent event) {
+        for (LogEventBuffer deviceBuffer : mergedBuffers) {
+            if (deviceBuffer.contains(event)) {
+                Long upTo = mergedUpTo.get(deviceBuffer);
+                if (upTo == null || event.getSequence() > upTo) {
+                    mergedUpTo.put(deviceBuffer, event.getSequence());
+                    appendMerged(event);
+                }
+                return;
+            }
+        }
+    }
 
-            data.add(event);
+    private void appendMerged(LogEvent event) {
+        // Do filtering
+        if (filter != null && !filter.satisfy(event)) {
+            return;
+        }
+        if (mergedNext - mergedFirst == merged.length) {
+            mergedFirst++;
         }
+        long position = mergedNext++;
+        merged[(int) (position % merged.length)] = event;
+        appendRow(position);
+    }
 
-        if (data.size() > oldsize) {
-            fireTableRowsInserted(oldsize, data.size() - 1);
+    private void appendRow(long row) {
+        if (rowStart + rowCount == rows.length) {
+            if (rowStart > rows.length / 2) {
+                System.arraycopy(rows, rowStart, rows, 0, rowCount);
+                rowStart = 0;
+            } else {
+                rows = Arrays.copyOf(rows, rows.length * 2);
+            }
+        }
+        rows[rowStart + rowCount] = row;
+        rowCount++;
+    }
+
+    private void insertRows(long[] insert, int index) {
+        int count = insert.length;
+        if (index == 0) {
+            if (rowStart < count) {
+                long[] grown = new long[Math.max(rows.length, rowCount + count) + count];
+                System.arraycopy(rows, rowStart, grown, count, rowCount);
+                rows = grown;
+                rowStart = count;
+            }
+            rowStart -= count;
+            System.arraycopy(insert, 0, rows, rowStart, count);
+            rowCount += count;
+            return;
+        }
+        if (rowStart + rowCount + count > rows.length) {
+            long[] grown = new long[Math.max(rows.length * 2, rowCount + count)];
+            System.arraycopy(rows, rowStart, grown, 0, rowCount);
+            rows = grown;
+            rowStart = 0;
+        }
+        int at = rowStart + index;
+        System.arraycopy(rows, at, rows, at + count, rowCount - index);
+        System.arraycopy(insert, 0, rows, at, count);
+        rowCount += count;
+    }
+
+    /**
+     * Drop rows, whose events were evicted from their buffer and are not in
+     * its capture store either. Both shared and
+     * local sequence numbers grow with the row index, so only the rows before
+     * the first live shared row have to be checked.
+     *
+     * @return removed row ranges, the last one first
+     */
+    private List<int[]> trimEvicted() {
+        long firstShared = merged != null ? mergedFirst
+                : buffer != null ? buffer.getOldestSequence() : 0;
+        long firstLocal = localBuffer.getFirstSequence();
+        List<int[]> runs = new ArrayList<>();
+        int write = rowStart;
+        int runStart = -1;
+        int index = 0;
+        for (; index < rowCount; index++) {
+            long row = rows[rowStart + index];
+            if (row >= 0 && row >= firstShared) {
+                break;
+            }
+            boolean live = row < 0 && ~row >= firstLocal;
+            if (live) {
+                if (runStart >= 0) {
+                    runs.add(0, new int[]{runStart, index - 1});
+                    runStart = -1;
+                }
+                rows[write++] = row;
+            } else if (runStart < 0) {
+                runStart = index;
+            }
+        }
+        if (runStart >= 0) {
+            runs.add(0, new int[]{runStart, index - 1});
+        }
+        int removed = (rowStart + index) - write;
+        if (removed > 0) {
+            // shift the kept head rows right behind the removed ones
+            int kept = write - rowStart;
+            System.arraycopy(rows, rowStart, rows, rowStart + removed, kept);
+            rowStart += removed;
+            rowCount -= removed;
         }
+        return runs;
     }
 
     public void showError(String errorMessage) {
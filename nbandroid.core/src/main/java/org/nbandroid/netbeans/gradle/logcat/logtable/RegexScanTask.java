@@ -0,0 +1,94 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nbandroid.netbeans.gradle.logcat.logtable;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.nbandroid.netbeans.gradle.logcat.LogEvent;
+
+/**
+ * Fork/join scan of a snapshot of the event buffer for a regular expression.
+ * Ranges are split on multiples of 64, so every leaf writes its own words of
+ * the result and no synchronization is needed.
+ *
+ * @author NYEREL
+ */
+class RegexScanTask extends RecursiveAction {
+
+    private static final int THRESHOLD = 64 * 64;
+
+    private final List<LogEvent> events;
+    private final Pattern pattern;
+    private final long[] words;
+    private final AtomicBoolean cancelled;
+    private final int from;
+    private final int to;
+
+    /**
+     * Scan the whole snapshot.
+     */
+    RegexScanTask(List<LogEvent> events, Pattern pattern, AtomicBoolean cancelled) {
+        this(events, pattern, new long[(events.size() + 63) / 64], cancelled, 0, events.size());
+    }
+
+    private RegexScanTask(List<LogEvent> events, Pattern pattern, long[] words, AtomicBoolean cancelled, int from, int to) {
+        this.events = events;
+        this.pattern = pattern;
+        this.words = words;
+        this.cancelled = cancelled;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+        if (cancelled.get()) {
+            return;
+        }
+        if (to - from <= THRESHOLD) {
+            scan();
+            return;
+        }
+        int middle = ((from + to) >>> 1) & ~63;
+        if (middle <= from) {
+            middle = from + 64;
+        }
+        invokeAll(new RegexScanTask(events, pattern, words, cancelled, from, middle),
+                new RegexScanTask(events, pattern, words, cancelled, middle, to));
+    }
+
+    private void scan() {
+        Matcher matcher = pattern.matcher("");
+        for (int i = from; i < to; i++) {
+            if ((i & 255) == 0 && cancelled.get()) {
+                return;
+            }
+            LogEvent event = events.get(i);
+            if (event != null && (matcher.reset(event.getMessage()).find() || matcher.reset(event.getTag()).find())) {
+                words[i >>> 6] |= 1L << i;
+            }
+        }
+    }
+
+    /**
+     * Result of the scan, bit {@code i} stands for {@code events.get(i)}.
+     */
+    BitSet getResult() {
+        return BitSet.valueOf(words);
+    }
+}
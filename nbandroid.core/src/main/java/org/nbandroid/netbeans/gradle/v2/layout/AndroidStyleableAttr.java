@@ -88,6 +88,17 @@ public class AndroidStyleableAttr implements Serializable {
         handleBugs();
     }
 
+    /**
+     * Restore an attribute from {@link AndroidStyleableCache}, the types are
+     * already fixed by the bug providers.
+     */
+    AndroidStyleableAttr(String name, String description, EnumSet<AndroidStyleableAttrType> attrTypes, AndroidStyleableAttrEnum[] enums, AndroidStyleableAttrFlag[] flags) {
+        this.name = name;
+        this.description = description;
+        this.attrTypes = attrTypes;
+        this.enums = enums;
+        this.flags = flags;
+    }
 
     private void handleBugs() {
         Collection<? extends StyleableAttrBugProvider> bugProviders = Lookup.getDefault().lookupAll(StyleableAttrBugProvider.class);
@@ -124,6 +135,14 @@ public class AndroidStyleableAttr implements Serializable {
         }
     }
 
+    AndroidStyleableAttrEnum[] getEnumsOrNull() {
+        return enums;
+    }
+
+    AndroidStyleableAttrFlag[] getFlagsOrNull() {
+        return flags;
+    }
+
     public EnumSet<AndroidStyleableAttrType> getAttrTypes() {
         return attrTypes;
     }
@@ -0,0 +1,483 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.nbandroid.netbeans.gradle.v2.layout;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.nbandroid.netbeans.gradle.v2.layout.completion.analyzer.StyleableResultCollector;
+
+/**
+ * Binary cache of one parsed platform styleable namespace.
+ * <p>
+ * The file starts with a magic number, format version and a stamp of the
+ * platform it was created from, followed by a table of all strings used.
+ * Enums, flags, attributes, class scan results and styleables are stored in
+ * tables of their own and refer to each other and to the strings by index,
+ * written as variable length integers. Index {@code 0} always stands for
+ * {@code null}. A file written by another format version, or for a platform
+ * which has changed since, is rejected by {@link #read}.
+ *
+ * @author arsi
+ */
+public final class AndroidStyleableCache {
+
+    private static final int MAGIC = 0x4E425354; // NBST
+    private static final int VERSION = 1;
+
+    private AndroidStyleableCache() {
+    }
+
+    /**
+     * Stamp of the platform sources the namespace is parsed from. Any change
+     * of the platform folder, its attrs.xml or widgets.txt invalidates the
+     * cache.
+     */
+    public static String createStamp(File platformFolder) {
+        File attrs = new File(platformFolder, "data/res/values/attrs.xml");
+        File widgets = new File(platformFolder, "data/widgets.txt");
+        return platformFolder.getAbsolutePath() + '|' + attrs.lastModified() + '|' + attrs.length()
+                + '|' + widgets.lastModified() + '|' + widgets.length();
+    }
+
+    /**
+     * Name of the cache file of a platform. The hash string alone is the same
+     * for one API level in every SDK, the hash of the platform folder keeps
+     * the files of several SDKs apart.
+     */
+    public static String createFileName(String hashString, File platformFolder) {
+        return hashString.replaceAll("[^A-Za-z0-9._-]", "_") + '-'
+                + Integer.toHexString(platformFolder.getAbsolutePath().hashCode()) + ".bin";
+    }
+
+    /**
+     * Read the namespace.
+     *
+     * @return the namespace or {@code null}, if the file does not exist or was
+     * not written for this hash string and stamp
+     */
+    public static AndroidStyleableNamespace read(File file, String hashString, String stamp) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            if (!hashString.equals(in.readUTF()) || !stamp.equals(in.readUTF())) {
+                return null;
+            }
+            return new Reader(in, hashString).read();
+        }
+    }
+
+    /**
+     * Write the namespace. The file is replaced atomically, so concurrent
+     * readers see either the old or the new content.
+     */
+    public static void write(File file, AndroidStyleableNamespace namespace, String stamp) throws IOException {
+        Writer writer = new Writer(namespace);
+        byte[] body = writer.write();
+        File parent = file.getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(namespace.getAndroidPlatformHashString());
+            out.writeUTF(stamp);
+            writeVarInt(out, writer.strings.size());
+            for (String s : writer.strings) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                writeVarInt(out, bytes.length);
+                out.write(bytes);
+            }
+            out.write(body);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static final class Writer {
+
+        private final AndroidStyleableNamespace namespace;
+        private final List<String> strings = new ArrayList<>();
+        private final Map<String, Integer> stringIndex = new HashMap<>();
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 * 1024);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        Writer(AndroidStyleableNamespace namespace) {
+            this.namespace = namespace;
+        }
+
+        byte[] write() throws IOException {
+            writeString(namespace.getNamespace());
+            writeString(namespace.getPrimary_namespace());
+
+            Map<AndroidStyleable, Integer> styleables = new IdentityHashMap<>();
+            List<AndroidStyleable> styleableList = new ArrayList<>();
+            collect(namespace.getAll(), styleables, styleableList);
+            collect(namespace.getUknown(), styleables, styleableList);
+            collect(namespace.getTodo(), styleables, styleableList);
+            collect(namespace.getLayouts().values(), styleables, styleableList);
+            collect(namespace.getLayoutsParams().values(), styleables, styleableList);
+            collect(namespace.getWitgets().values(), styleables, styleableList);
+            collect(namespace.getLayoutsSimpleNames().values(), styleables, styleableList);
+            collect(namespace.getLayoutsParamsSimpleNames().values(), styleables, styleableList);
+            collect(namespace.getWitgetsSimpleNames().values(), styleables, styleableList);
+            collect(namespace.getOther().values(), styleables, styleableList);
+            collect(namespace.getOtherSimpleNames().values(), styleables, styleableList);
+            // super styleables of the same namespace, which are not listed anywhere
+            for (int i = 0; i < styleableList.size(); i++) {
+                AndroidStyleable superStyleable = styleableList.get(i).getSuperStyleable();
+                if (superStyleable != null && superStyleable.getNameSpace() == namespace && !styleables.containsKey(superStyleable)) {
+                    styleables.put(superStyleable, styleableList.size());
+                    styleableList.add(superStyleable);
+                }
+            }
+
+            Map<AndroidStyleableAttr, Integer> attrs = new IdentityHashMap<>();
+            List<AndroidStyleableAttr> attrList = new ArrayList<>();
+            Map<AndroidStyleableAttrEnum, Integer> enums = new IdentityHashMap<>();
+            List<AndroidStyleableAttrEnum> enumList = new ArrayList<>();
+            Map<AndroidStyleableAttrFlag, Integer> flags = new IdentityHashMap<>();
+            List<AndroidStyleableAttrFlag> flagList = new ArrayList<>();
+            for (AndroidStyleable styleable : styleableList) {
+                for (AndroidStyleableAttr attr : styleable.getAttrs()) {
+                    if (index(attr, attrs, attrList)) {
+                        for (AndroidStyleableAttrEnum attrEnum : attr.getEnums()) {
+                            index(attrEnum, enums, enumList);
+                        }
+                        for (AndroidStyleableAttrFlag attrFlag : attr.getFlags()) {
+                            index(attrFlag, flags, flagList);
+                        }
+                    }
+                }
+            }
+
+            writeVarInt(out, enumList.size());
+            for (AndroidStyleableAttrEnum attrEnum : enumList) {
+                writeString(attrEnum.getName());
+                writeString(attrEnum.getValue());
+                writeString(attrEnum.getComment());
+            }
+            writeVarInt(out, flagList.size());
+            for (AndroidStyleableAttrFlag attrFlag : flagList) {
+                writeString(attrFlag.getName());
+                writeString(attrFlag.getValue());
+                writeString(attrFlag.getComment());
+            }
+            writeVarInt(out, attrList.size());
+            for (AndroidStyleableAttr attr : attrList) {
+                writeString(attr.getName());
+                writeString(attr.getDescription());
+                int types = 0;
+                for (AndroidStyleableAttrType type : attr.getAttrTypes()) {
+                    types |= 1 << type.ordinal();
+                }
+                writeVarInt(out, types);
+                // length + 1, 0 for attributes without any enum or flag array
+                AndroidStyleableAttrEnum[] attrEnums = attr.getEnumsOrNull();
+                writeVarInt(out, attrEnums == null ? 0 : attrEnums.length + 1);
+                if (attrEnums != null) {
+                    for (AndroidStyleableAttrEnum attrEnum : attrEnums) {
+                        writeVarInt(out, enums.get(attrEnum));
+                    }
+                }
+                AndroidStyleableAttrFlag[] attrFlags = attr.getFlagsOrNull();
+                writeVarInt(out, attrFlags == null ? 0 : attrFlags.length + 1);
+                if (attrFlags != null) {
+                    for (AndroidStyleableAttrFlag attrFlag : attrFlags) {
+                        writeVarInt(out, flags.get(attrFlag));
+                    }
+                }
+            }
+
+            Map<StyleableResultCollector, Integer> collectors = new IdentityHashMap<>();
+            List<StyleableResultCollector> collectorList = new ArrayList<>();
+            for (StyleableResultCollector collector : namespace.getFullClassNameMap().values()) {
+                index(collector, collectors, collectorList);
+            }
+            writeVarInt(out, collectorList.size());
+            for (StyleableResultCollector collector : collectorList) {
+                writeString(collector.getFileUrl() != null ? collector.getFileUrl().toExternalForm() : null);
+                writeString(collector.getClassName());
+                writeString(collector.getSuperClassName());
+                writeVarInt(out, collector.getStyleables().size());
+                for (String styleable : collector.getStyleables()) {
+                    writeString(styleable);
+                }
+            }
+
+            writeVarInt(out, styleableList.size());
+            for (AndroidStyleable styleable : styleableList) {
+                writeString(styleable.getName());
+                writeString(styleable.getFullClassName());
+                writeString(styleable.getSuperStyleableName());
+                writeVarInt(out, styleable.getAndroidStyleableType().ordinal());
+                writeString(styleable.getClassFileURL() != null ? styleable.getClassFileURL().toExternalForm() : null);
+                AndroidStyleable superStyleable = styleable.getSuperStyleable();
+                Integer superIndex = superStyleable != null ? styleables.get(superStyleable) : null;
+                writeVarInt(out, superIndex != null ? superIndex + 1 : 0);
+                writeVarInt(out, styleable.getAttrs().size());
+                for (AndroidStyleableAttr attr : styleable.getAttrs()) {
+                    writeVarInt(out, attrs.get(attr));
+                }
+            }
+
+            writeList(namespace.getAll(), styleables);
+            writeList(namespace.getUknown(), styleables);
+            writeList(namespace.getTodo(), styleables);
+            writeMap(namespace.getLayouts(), styleables);
+            writeMap(namespace.getLayoutsParams(), styleables);
+            writeMap(namespace.getWitgets(), styleables);
+            writeMap(namespace.getLayoutsSimpleNames(), styleables);
+            writeMap(namespace.getLayoutsParamsSimpleNames(), styleables);
+            writeMap(namespace.getWitgetsSimpleNames(), styleables);
+            writeMap(namespace.getOther(), styleables);
+            writeMap(namespace.getOtherSimpleNames(), styleables);
+            writeMap(namespace.getFullClassNameMap(), collectors);
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        private void collect(Iterable<AndroidStyleable> from, Map<AndroidStyleable, Integer> to, List<AndroidStyleable> list) {
+            for (AndroidStyleable styleable : from) {
+                index(styleable, to, list);
+            }
+        }
+
+        private void writeString(String s) throws IOException {
+            if (s == null) {
+                writeVarInt(out, 0);
+                return;
+            }
+            Integer index = stringIndex.get(s);
+            if (index == null) {
+                strings.add(s);
+                index = strings.size();
+                stringIndex.put(s, index);
+            }
+            writeVarInt(out, index);
+        }
+
+        private void writeList(List<AndroidStyleable> list, Map<AndroidStyleable, Integer> styleables) throws IOException {
+            writeVarInt(out, list.size());
+            for (AndroidStyleable styleable : list) {
+                writeVarInt(out, styleables.get(styleable));
+            }
+        }
+
+        private <T> void writeMap(Map<String, T> map, Map<T, Integer> indexes) throws IOException {
+            writeVarInt(out, map.size());
+            for (Map.Entry<String, T> entry : map.entrySet()) {
+                writeString(entry.getKey());
+                writeVarInt(out, indexes.get(entry.getValue()));
+            }
+        }
+    }
+
+    private static final class Reader {
+
+        private final DataInputStream in;
+        private final String hashString;
+        private String[] strings;
+
+        Reader(DataInputStream in, String hashString) {
+            this.in = in;
+            this.hashString = hashString;
+        }
+
+        AndroidStyleableNamespace read() throws IOException {
+            strings = new String[readVarInt(in) + 1];
+            byte[] buffer = new byte[256];
+            for (int i = 1; i < strings.length; i++) {
+                int length = readVarInt(in);
+                if (buffer.length < length) {
+                    buffer = new byte[Math.max(length, buffer.length * 2)];
+                }
+                in.readFully(buffer, 0, length);
+                strings[i] = new String(buffer, 0, length, StandardCharsets.UTF_8);
+            }
+            AndroidStyleableNamespace namespace = new AndroidStyleableNamespace(readString(), hashString);
+            namespace.setPrimary_namespace(readString());
+
+            AndroidStyleableAttrEnum[] enums = new AndroidStyleableAttrEnum[readVarInt(in)];
+            for (int i = 0; i < enums.length; i++) {
+                enums[i] = AndroidStyleableStore.getOrAddEnum(new AndroidStyleableAttrEnum(readString(), readString(), readString()));
+            }
+            AndroidStyleableAttrFlag[] flags = new AndroidStyleableAttrFlag[readVarInt(in)];
+            for (int i = 0; i < flags.length; i++) {
+                flags[i] = AndroidStyleableStore.getOrAddFlag(new AndroidStyleableAttrFlag(readString(), readString(), readString()));
+            }
+            AndroidStyleableAttrType[] allTypes = AndroidStyleableAttrType.values();
+            AndroidStyleableAttr[] attrs = new AndroidStyleableAttr[readVarInt(in)];
+            for (int i = 0; i < attrs.length; i++) {
+                String name = readString();
+                String description = readString();
+                int typeBits = readVarInt(in);
+                EnumSet<AndroidStyleableAttrType> types = EnumSet.noneOf(AndroidStyleableAttrType.class);
+                for (AndroidStyleableAttrType type : allTypes) {
+                    if ((typeBits & (1 << type.ordinal())) != 0) {
+                        types.add(type);
+                    }
+                }
+                AndroidStyleableAttrEnum[] attrEnums = null;
+                int enumCount = readVarInt(in);
+                if (enumCount > 0) {
+                    attrEnums = new AndroidStyleableAttrEnum[enumCount - 1];
+                    for (int j = 0; j < attrEnums.length; j++) {
+                        attrEnums[j] = enums[readVarInt(in)];
+                    }
+                }
+                AndroidStyleableAttrFlag[] attrFlags = null;
+                int flagCount = readVarInt(in);
+                if (flagCount > 0) {
+                    attrFlags = new AndroidStyleableAttrFlag[flagCount - 1];
+                    for (int j = 0; j < attrFlags.length; j++) {
+                        attrFlags[j] = flags[readVarInt(in)];
+                    }
+                }
+                // share equal attributes with the other loaded platforms
+                attrs[i] = AndroidStyleableStore.getOrAddAttr(new AndroidStyleableAttr(name, description, types, attrEnums, attrFlags));
+            }
+
+            StyleableResultCollector[] collectors = new StyleableResultCollector[readVarInt(in)];
+            for (int i = 0; i < collectors.length; i++) {
+                URL fileUrl = readUrl();
+                String className = readString();
+                String superClassName = readString();
+                List<String> styleableNames = new ArrayList<>();
+                for (int j = readVarInt(in); j > 0; j--) {
+                    styleableNames.add(readString());
+                }
+                collectors[i] = new StyleableResultCollector(fileUrl, className, superClassName, styleableNames);
+            }
+
+            AndroidStyleableType[] allStyleableTypes = AndroidStyleableType.values();
+            AndroidStyleable[] styleables = new AndroidStyleable[readVarInt(in)];
+            int[] supers = new int[styleables.length];
+            for (int i = 0; i < styleables.length; i++) {
+                AndroidStyleable styleable = new AndroidStyleable(namespace, readString());
+                styleable.setFullClassName(readString());
+                styleable.setSuperStyleableName(readString());
+                styleable.setAndroidStyleableType(allStyleableTypes[readVarInt(in)]);
+                styleable.setClassFileURL(readUrl());
+                supers[i] = readVarInt(in);
+                List<AndroidStyleableAttr> styleableAttrs = styleable.getAttrs();
+                for (int j = readVarInt(in); j > 0; j--) {
+                    styleableAttrs.add(attrs[readVarInt(in)]);
+                }
+                styleables[i] = styleable;
+            }
+            for (int i = 0; i < styleables.length; i++) {
+                if (supers[i] > 0) {
+                    styleables[i].setSuperStyleable(styleables[supers[i] - 1]);
+                }
+            }
+
+            readList(namespace.getAll(), styleables);
+            readList(namespace.getUknown(), styleables);
+            readList(namespace.getTodo(), styleables);
+            readMap(namespace.getLayouts(), styleables);
+            readMap(namespace.getLayoutsParams(), styleables);
+            readMap(namespace.getWitgets(), styleables);
+            readMap(namespace.getLayoutsSimpleNames(), styleables);
+            readMap(namespace.getLayoutsParamsSimpleNames(), styleables);
+            readMap(namespace.getWitgetsSimpleNames(), styleables);
+            readMap(namespace.getOther(), styleables);
+            readMap(namespace.getOtherSimpleNames(), styleables);
+            readMap(namespace.getFullClassNameMap(), collectors);
+            return namespace;
+        }
+
+        private void readList(List<AndroidStyleable> list, AndroidStyleable[] styleables) throws IOException {
+            for (int i = readVarInt(in); i > 0; i--) {
+                list.add(styleables[readVarInt(in)]);
+            }
+        }
+
+        private <T> void readMap(Map<String, T> map, T[] values) throws IOException {
+            for (int i = readVarInt(in); i > 0; i--) {
+                String key = readString();
+                map.put(key, values[readVarInt(in)]);
+            }
+        }
+
+        private String readString() throws IOException {
+            return strings[readVarInt(in)];
+        }
+
+        private URL readUrl() throws IOException {
+            String url = readString();
+            return url != null ? new URL(url) : null;
+        }
+    }
+
+    /**
+     * Assign the next index to a value seen for the first time.
+     *
+     * @return {@code true}, if the value was not indexed yet
+     */
+    private static <T> boolean index(T value, Map<T, Integer> indexes, List<T> list) {
+        if (indexes.containsKey(value)) {
+            return false;
+        }
+        indexes.put(value, list.size());
+        list.add(value);
+        return true;
+    }
+
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+}
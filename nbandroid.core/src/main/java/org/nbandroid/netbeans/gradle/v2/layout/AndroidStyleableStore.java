@@ -20,22 +20,22 @@ package org.nbandroid.netbeans.gradle.v2.layout;
 
 import com.android.builder.model.AndroidProject;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.nbandroid.netbeans.gradle.query.GradleAndroidClassPathProvider;
 import org.nbandroid.netbeans.gradle.v2.layout.completion.analyzer.StyleableResultCollector;
 import org.nbandroid.netbeans.gradle.v2.layout.parsers.StyleableXmlParser;
@@ -50,6 +50,7 @@ import org.openide.filesystems.FileObject;
 import org.openide.filesystems.FileUtil;
 import org.openide.modules.Places;
 import org.openide.util.Exceptions;
+import org.openide.util.RequestProcessor;
 
 /**
  *
@@ -61,49 +62,42 @@ public class AndroidStyleableStore {
     public static final String LIB_NAMESPACE = "LIB_NAMESPACE";
     public static final String RES_AUTO_NAMESPACE = "http://schemas.android.com/apk/res-auto";
     public static final String TOOLS_NAMESPACE = "http://schemas.android.com/tools";
-    private static final List<AndroidStyleableAttrEnum> ATTR_ENUMS = new ArrayList<>();
-    private static final List<AndroidStyleableAttrFlag> ATTR_FLAGS = new ArrayList<>();
-    private static final List<AndroidStyleableAttr> STYLEABLE_ATTRS = new ArrayList<>();
+    private static final Map<AndroidStyleableAttrEnum, AndroidStyleableAttrEnum> ATTR_ENUMS = new ConcurrentHashMap<>();
+    private static final Map<AndroidStyleableAttrFlag, AndroidStyleableAttrFlag> ATTR_FLAGS = new ConcurrentHashMap<>();
+    private static final Map<AndroidStyleableAttr, AndroidStyleableAttr> STYLEABLE_ATTRS = new ConcurrentHashMap<>();
+    /**
+     * Attribute name -> first attribute interned with this name
+     */
+    private static final Map<String, AndroidStyleableAttr> STYLEABLE_ATTRS_BY_NAME = new ConcurrentHashMap<>();
     private static final ReentrantLock LOCK = new ReentrantLock(true);
-    private static final Map<String, AndroidStyleableNamespace> PLATFORM_STYLEABLE_NAMESPACES_MAP = new HashMap<>();
+    /**
+     * Platform hash string -> loading or loaded platform namespace
+     */
+    private static final Map<String, FutureTask<AndroidStyleableNamespace>> PLATFORM_STYLEABLE_NAMESPACES_MAP = new ConcurrentHashMap<>();
     private static final Map<String, AndroidStyleableNamespace> LIBS_STYLEABLE_NAMESPACES_MAP = new HashMap<>();
-    private static final String STYLEABLE_CACHE_FILENAME_STRING = "platformStyleableCache.obj";
-    private static final File cacheSubfile = Places.getCacheSubfile(NBANDROID_FOLDER + STYLEABLE_CACHE_FILENAME_STRING);
+    private static final String STYLEABLE_CACHE_FOLDER = NBANDROID_FOLDER + "styleables/";
+    private static final String LEGACY_CACHE_FILENAME_STRING = "platformStyleableCache.obj";
+    private static final RequestProcessor LOADER = new RequestProcessor("Android styleable loader", 4);
+    private static final Logger LOG = Logger.getLogger(AndroidStyleableStore.class.getName());
     public static final ScheduledExecutorService POOL = Executors.newScheduledThreadPool(1);
-    private static final AtomicBoolean saveFlag = new AtomicBoolean(false);
+    private static final AtomicBoolean legacyCacheRemoved = new AtomicBoolean(false);
 
-    static {
-        if (cacheSubfile.exists()) {
-            try (ObjectInputStream objStream = new ObjectInputStream(new FileInputStream(cacheSubfile))) {
-                Map<String, AndroidStyleableNamespace> cacheObj = (Map<String, AndroidStyleableNamespace>) objStream.readObject();
-                PLATFORM_STYLEABLE_NAMESPACES_MAP.putAll(cacheObj);
-                removeInvalidPlatforms();
-            } catch (IOException | ClassNotFoundException ex) {
-                Exceptions.printStackTrace(ex);
+    public static Map<String, AndroidStyleableNamespace> findNamespaces(FileObject primaryFile) {
+        Project owner = FileOwnerQuery.getOwner(primaryFile);
+        // load the platform before locking, completions of other projects need not wait for it
+        AndroidStyleableNamespace platformNamespace = null;
+        if (owner instanceof NbGradleProject) {
+            AndroidJavaPlatform platform = findPlatform(owner.getLookup().lookup(AndroidProject.class));
+            if (platform != null) {
+                platformNamespace = getPlatformStyleableNamespace(platform);
             }
         }
-    }
-
-    public static Map<String, AndroidStyleableNamespace> findNamespaces(FileObject primaryFile) {
         LOCK.lock();
         try {
-//            PLATFORM_STYLEABLE_NAMESPACES_MAP.clear();
-//            LIBS_STYLEABLE_NAMESPACES_MAP.clear();
             Map<String, AndroidStyleableNamespace> namespaces = new HashMap<>();
-            Project owner = FileOwnerQuery.getOwner(primaryFile);
             if (owner instanceof NbGradleProject) {
-                AndroidStyleableNamespace platformNamespace = null;
-                AndroidProject androidProject = ((NbGradleProject) owner).getLookup().lookup(AndroidProject.class);
-                if (androidProject != null) {
-                    String next = androidProject.getBootClasspath().iterator().next();
-                    AndroidJavaPlatform platform = AndroidJavaPlatformProvider.findPlatform(next, androidProject.getCompileTarget());
-                    if (platform != null) {
-                        AndroidStyleableNamespace namespace = getPlatformStyleableNamespace(platform);
-                        if (namespace != null) {
-                            platformNamespace = namespace;
-                            namespaces.put(namespace.getNamespace(), namespace);
-                        }
-                    }
+                if (platformNamespace != null) {
+                    namespaces.put(platformNamespace.getNamespace(), platformNamespace);
                 }
                 GradleAndroidClassPathProvider classPathProvider = owner.getLookup().lookup(GradleAndroidClassPathProvider.class);
                 if (classPathProvider != null && platformNamespace != null) {
@@ -235,106 +229,127 @@ public class AndroidStyleableStore {
         }
     }
 
+    /**
+     * Start loading the platform styleables of the project in background, so
+     * they are ready when the first layout is edited.
+     */
+    public static void preloadPlatform(AndroidProject androidProject) {
+        AndroidJavaPlatform platform = findPlatform(androidProject);
+        if (platform != null) {
+            FutureTask<AndroidStyleableNamespace> task = getPlatformTask(platform);
+            if (!task.isDone()) {
+                LOADER.post(task);
+            }
+        }
+    }
+
     public static final AndroidStyleableNamespace getPlatformStyleableNamespace(AndroidJavaPlatform androidJavaPlatform) {
-        LOCK.lock();
+        FutureTask<AndroidStyleableNamespace> task = getPlatformTask(androidJavaPlatform);
+        // runs the load in this thread, unless it is already done or running in the loader
+        task.run();
         try {
-            AndroidStyleableNamespace namespace = PLATFORM_STYLEABLE_NAMESPACES_MAP.get(androidJavaPlatform.getPlatformFolder().toString());
-            if (namespace == null) {
-                namespace = StyleableXmlParser.parseAndroidPlatform(androidJavaPlatform);
-                PLATFORM_STYLEABLE_NAMESPACES_MAP.put(androidJavaPlatform.getPlatformFolder().toString(), namespace);
-                if (saveFlag.compareAndSet(false, true)) {
-                    POOL.schedule(new Runnable() {
-                        @Override
-                        public void run() {
-                            saveFlag.set(false);
-                            removeInvalidPlatforms();
-                            try (ObjectOutputStream oStream = new ObjectOutputStream(new FileOutputStream(cacheSubfile))) {
-                                oStream.writeObject(PLATFORM_STYLEABLE_NAMESPACES_MAP);
-                                oStream.flush();
-                            } catch (FileNotFoundException ex) {
-                                Exceptions.printStackTrace(ex);
-                            } catch (IOException ex) {
-                                Exceptions.printStackTrace(ex);
-                            }
-                        }
-                    }, 30, TimeUnit.SECONDS);
-                }
-            }
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            PLATFORM_STYLEABLE_NAMESPACES_MAP.remove(androidJavaPlatform.getHashString(), task);
+            Exceptions.printStackTrace(ex);
+        }
+        return null;
+    }
 
-            return namespace;
-        } finally {
-            LOCK.unlock();
+    private static AndroidJavaPlatform findPlatform(AndroidProject androidProject) {
+        if (androidProject == null || androidProject.getBootClasspath().isEmpty()) {
+            return null;
         }
+        String next = androidProject.getBootClasspath().iterator().next();
+        return AndroidJavaPlatformProvider.findPlatform(next, androidProject.getCompileTarget());
     }
 
-    /**
-     * Remove invalid platforms from map
-     */
-    private static void removeInvalidPlatforms() {
-        Iterator<Map.Entry<String, AndroidStyleableNamespace>> iterator = PLATFORM_STYLEABLE_NAMESPACES_MAP.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<String, AndroidStyleableNamespace> next = iterator.next();
-            if (!new File(next.getKey()).exists()) {
-                iterator.remove();
+    private static FutureTask<AndroidStyleableNamespace> getPlatformTask(AndroidJavaPlatform androidJavaPlatform) {
+        String hashString = androidJavaPlatform.getHashString();
+        FutureTask<AndroidStyleableNamespace> task = PLATFORM_STYLEABLE_NAMESPACES_MAP.get(hashString);
+        if (task == null) {
+            FutureTask<AndroidStyleableNamespace> created = new FutureTask<>(() -> loadPlatform(androidJavaPlatform));
+            task = PLATFORM_STYLEABLE_NAMESPACES_MAP.putIfAbsent(hashString, created);
+            if (task == null) {
+                task = created;
             }
         }
+        return task;
     }
 
-    public static AndroidStyleableAttrEnum getOrAddEnum(AndroidStyleableAttrEnum attrEnum) {
-        LOCK.lock();
+    /**
+     * Read the platform namespace from its cache file, or parse the platform
+     * and write the cache file, when there is none or it is out of date.
+     */
+    private static AndroidStyleableNamespace loadPlatform(AndroidJavaPlatform androidJavaPlatform) {
+        if (legacyCacheRemoved.compareAndSet(false, true)) {
+            File legacyCache = Places.getCacheSubfile(NBANDROID_FOLDER + LEGACY_CACHE_FILENAME_STRING);
+            if (legacyCache.exists() && !legacyCache.delete()) {
+                LOG.log(Level.INFO, "Unable to delete {0}", legacyCache);
+            }
+        }
+        String hashString = androidJavaPlatform.getHashString();
+        String stamp = AndroidStyleableCache.createStamp(androidJavaPlatform.getPlatformFolder());
+        File cacheFile = Places.getCacheSubfile(STYLEABLE_CACHE_FOLDER
+                + AndroidStyleableCache.createFileName(hashString, androidJavaPlatform.getPlatformFolder()));
         try {
-            if (ATTR_ENUMS.contains(attrEnum)) {
-                return ATTR_ENUMS.get(ATTR_ENUMS.indexOf(attrEnum));
-            } else {
-                ATTR_ENUMS.add(attrEnum);
-                return attrEnum;
+            AndroidStyleableNamespace namespace = AndroidStyleableCache.read(cacheFile, hashString, stamp);
+            if (namespace != null) {
+                return namespace;
             }
-        } finally {
-            LOCK.unlock();
+        } catch (IOException | RuntimeException ex) {
+            LOG.log(Level.INFO, "Discarding corrupted styleable cache " + cacheFile, ex);
         }
+        AndroidStyleableNamespace namespace = StyleableXmlParser.parseAndroidPlatform(androidJavaPlatform);
+        // first completions resolve the remaining styleables, write them too
+        POOL.schedule(new Runnable() {
+            @Override
+            public void run() {
+                LOCK.lock();
+                try {
+                    AndroidStyleableCache.write(cacheFile, namespace, stamp);
+                } catch (IOException ex) {
+                    Exceptions.printStackTrace(ex);
+                } finally {
+                    LOCK.unlock();
+                }
+            }
+        }, 30, TimeUnit.SECONDS);
+        return namespace;
+    }
+
+    public static AndroidStyleableAttrEnum getOrAddEnum(AndroidStyleableAttrEnum attrEnum) {
+        AndroidStyleableAttrEnum existing = ATTR_ENUMS.putIfAbsent(attrEnum, attrEnum);
+        return existing != null ? existing : attrEnum;
     }
 
     public static AndroidStyleableAttrFlag getOrAddFlag(AndroidStyleableAttrFlag attrFlag) {
-        LOCK.lock();
-        try {
-            if (ATTR_FLAGS.contains(attrFlag)) {
-                return ATTR_FLAGS.get(ATTR_FLAGS.indexOf(attrFlag));
-            } else {
-                ATTR_FLAGS.add(attrFlag);
-                return attrFlag;
-            }
-        } finally {
-            LOCK.unlock();
-        }
+        AndroidStyleableAttrFlag existing = ATTR_FLAGS.putIfAbsent(attrFlag, attrFlag);
+        return existing != null ? existing : attrFlag;
     }
 
+    /**
+     * Find an attribute with the same name, or add this one.
+     */
     public static AndroidStyleableAttr findOrAddAttr(AndroidStyleableAttr attr) {
-        LOCK.lock();
-        try {
-            for (AndroidStyleableAttr a : STYLEABLE_ATTRS) {
-                if (a.getName().equals(attr.getName())) {
-                    return a;
-                }
-            }
-            STYLEABLE_ATTRS.add(attr);
-            return attr;
-        } finally {
-            LOCK.unlock();
+        AndroidStyleableAttr existing = STYLEABLE_ATTRS_BY_NAME.get(attr.getName());
+        if (existing != null) {
+            return existing;
         }
+        AndroidStyleableAttr added = getOrAddAttr(attr);
+        existing = STYLEABLE_ATTRS_BY_NAME.putIfAbsent(added.getName(), added);
+        return existing != null ? existing : added;
     }
 
     public static AndroidStyleableAttr getOrAddAttr(AndroidStyleableAttr attr) {
-        LOCK.lock();
-        try {
-            if (STYLEABLE_ATTRS.contains(attr)) {
-                return STYLEABLE_ATTRS.get(STYLEABLE_ATTRS.indexOf(attr));
-            } else {
-                STYLEABLE_ATTRS.add(attr);
-                return attr;
-            }
-        } finally {
-            LOCK.unlock();
+        AndroidStyleableAttr existing = STYLEABLE_ATTRS.putIfAbsent(attr, attr);
+        if (existing != null) {
+            return existing;
         }
+        STYLEABLE_ATTRS_BY_NAME.putIfAbsent(attr.getName(), attr);
+        return attr;
     }
 
 }
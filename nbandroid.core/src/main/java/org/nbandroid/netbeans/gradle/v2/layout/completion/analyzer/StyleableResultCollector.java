@@ -36,6 +36,16 @@ public class StyleableResultCollector implements Serializable {
         this.fileUrl = fileUrl;
     }
 
+    /**
+     * Restore a scan result, class names are already in the dotted form.
+     */
+    public StyleableResultCollector(URL fileUrl, String className, String superClassName, List<String> styleables) {
+        this.fileUrl = fileUrl;
+        this.className = className;
+        this.superClassName = superClassName;
+        this.styleables.addAll(styleables);
+    }
+
     public URL getFileUrl() {
         return fileUrl;
     }
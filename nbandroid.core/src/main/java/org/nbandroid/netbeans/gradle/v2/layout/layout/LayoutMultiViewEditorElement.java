@@ -91,6 +91,9 @@ public class LayoutMultiViewEditorElement extends MultiViewEditorElement impleme
         if (lookupResult != null) {
             lookupResult.removeLookupListener(this);
         }
+        if (panel != null) {
+            panel.dispose();
+        }
     }
 
     private void initLayoutEditor() {
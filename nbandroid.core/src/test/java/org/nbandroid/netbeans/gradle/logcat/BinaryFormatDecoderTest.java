@@ -0,0 +1,140 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nbandroid.netbeans.gradle.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.TimeZone;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Feeds {@link BinaryFormatDecoder} with generated {@code logcat -B} entries,
+ * split into chunks and mixed with corrupted bytes.
+ *
+ * @author NYEREL
+ */
+public class BinaryFormatDecoderTest {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    @Test
+    public void decodesEntriesSplitIntoChunks() {
+        byte[] stream = concat(
+                entry(0, 100, 101, 3, "First", "one"),
+                entry(24, 200, 202, 4, "Second", "two\nlines"),
+                entry(28, 300, 303, 6, "Third", "three\n"));
+        for (int chunk = 1; chunk <= stream.length; chunk++) {
+            assertEquals("chunk " + chunk,
+                    "100 D/First one|200 I/Second two|200 I/Second lines|300 E/Third three|",
+                    decode(stream, chunk));
+        }
+    }
+
+    @Test
+    public void resyncsAfterGarbage() {
+        byte[] garbage = new byte[37];
+        for (int i = 0; i < garbage.length; i++) {
+            garbage[i] = (byte) (i * 73 + 11);
+        }
+        byte[] stream = concat(
+                entry(24, 100, 101, 4, "Before", "a"),
+                garbage,
+                entry(24, 200, 202, 5, "After", "b"),
+                new byte[]{(byte) 0xFF, (byte) 0xFF, 0, 0, 0},
+                entry(0, 300, 303, 6, "Last", "c"));
+        String expected = "100 I/Before a|200 W/After b|300 E/Last c|";
+        assertEquals(expected, decode(stream, stream.length));
+        assertEquals(expected, decode(stream, 7));
+    }
+
+    @Test
+    public void resyncsAfterTruncatedHeader() {
+        byte[] cut = entry(24, 100, 101, 4, "Cut", "lost");
+        byte[] stream = concat(
+                Arrays.copyOf(cut, 10),
+                entry(24, 200, 202, 4, "Whole", "kept"));
+        assertEquals("200 I/Whole kept|", decode(stream, stream.length));
+    }
+
+    @Test
+    public void implausibleHeaderIsSkipped() {
+        // a valid length and header size, but a negative pid
+        byte[] bad = entry(24, -5, 1, 4, "Bad", "x");
+        assertEquals("300 I/Good y|", decode(concat(bad, entry(24, 300, 1, 4, "Good", "y")), 5));
+    }
+
+    @Test
+    public void formatsTimeInDeviceTimeZone() {
+        assertEquals("00:00:01.234", BinaryFormatDecoder.formatTime(1234, UTC));
+        assertEquals("02:00:01.234", BinaryFormatDecoder.formatTime(1234, TimeZone.getTimeZone("GMT+02:00")));
+        assertEquals("19:00:00.000", BinaryFormatDecoder.formatTime(0, TimeZone.getTimeZone("GMT-05:00")));
+    }
+
+    private static String decode(byte[] stream, int chunk) {
+        final StringBuilder sb = new StringBuilder();
+        LogFormatDecoder.Sink sink = new LogFormatDecoder.Sink() {
+            @Override
+            public LogEventInfo createInfo(int pid, int tid, String time, String tag, LogLevel level) {
+                return new LogEventInfo(pid, tid, new String[1], time, tag, level);
+            }
+
+            @Override
+            public void logEvent(LogEventInfo info, String message) {
+                sb.append(info.getPid()).append(' ').append(info.getLevel().getPriorityLetter())
+                        .append('/').append(info.getTag()).append(' ').append(message).append('|');
+            }
+        };
+        BinaryFormatDecoder decoder = new BinaryFormatDecoder(UTC);
+        for (int i = 0; i < stream.length; i += chunk) {
+            decoder.decode(stream, i, Math.min(chunk, stream.length - i), sink);
+        }
+        decoder.flush(sink);
+        return sb.toString();
+    }
+
+    /**
+     * A {@code logger_entry} with the given header size, {@code 0} for v1.
+     */
+    private static byte[] entry(int headerSize, int pid, int tid, int priority, String tag, String message) {
+        byte[] tagBytes = tag.getBytes(StandardCharsets.UTF_8);
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        int payloadLength = 1 + tagBytes.length + 1 + messageBytes.length + 1;
+        int size = headerSize == 0 ? 20 : headerSize;
+        ByteBuffer buffer = ByteBuffer.allocate(size + payloadLength).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putShort((short) payloadLength);
+        buffer.putShort((short) headerSize);
+        buffer.putInt(pid);
+        buffer.putInt(tid);
+        buffer.putInt(1500000000);
+        buffer.putInt(123000000);
+        buffer.position(size);
+        buffer.put((byte) priority);
+        buffer.put(tagBytes).put((byte) 0);
+        buffer.put(messageBytes).put((byte) 0);
+        return buffer.array();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+}
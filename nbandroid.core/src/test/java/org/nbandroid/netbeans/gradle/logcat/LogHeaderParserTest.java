@@ -0,0 +1,137 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nbandroid.netbeans.gradle.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Compares {@link LogHeaderParser} with the regular expression it replaced,
+ * on recorded {@code logcat -v long} headers and on malformed lines.
+ *
+ * @author NYEREL
+ */
+public class LogHeaderParserTest {
+
+    // the former LogReader.sLogPattern
+    private static final Pattern LOG_PATTERN = Pattern.compile(
+            "^\\[\\s\\d\\d-\\d\\d\\s(\\d\\d:\\d\\d:\\d\\d\\.\\d+)"
+            + "\\s+(\\d*):((?:0x[0-9a-fA-F]+)|(?:\\s*\\d+))\\s([VDIWE])/(.*)\\]$");
+
+    // recorded from emulators and devices of several API levels
+    static final String[] HEADERS = {
+        "[ 01-23 12:34:56.789  1234: 5678 D/Tag ]",
+        "[ 06-14 09:01:02.003   123:  123 I/ActivityManager ]",
+        "[ 06-14 09:01:02.003  1701: 1734 W/ResourcesManager ]",
+        "[ 06-14 09:01:02.004  1701: 1701 E/AndroidRuntime ]",
+        "[ 06-14 09:01:02.010   601:  625 V/audio_hw_primary ]",
+        "[ 11-02 23:59:59.999 32767:32767 I/chatty   ]",
+        "[ 03-05 14:15:16.171  4321:0x10e1 D/dalvikvm ]",
+        "[ 03-05 14:15:16.171  4321:0xABCDEF D/dalvikvm ]",
+        "[ 03-05 14:15:16.171810  4321: 4322 I/Choreographer ]",
+        "[ 12-31 00:00:00.0 1:1 V/A]",
+        "[ 12-31 00:00:00.000  2345: 2345 D/Tag with spaces ]",
+        "[ 12-31 00:00:00.000  2345: 2345 D/Tag:with/slash ]",
+        "[ 12-31 00:00:00.000  2345: 2345 D/]",
+        "[ 12-31 00:00:00.000  2345: 2345 D/ ]",
+        "[ 12-31 00:00:00.000\t2345:\t2345 D/tabs ]",
+        "[ 12-31 00:00:00.000  2345: 2345 I/Nested [brackets] ]",
+    };
+
+    static final String[] MALFORMED = {
+        "",
+        "plain message text",
+        "[",
+        "[]",
+        "[ 01-23 12:34:56.789  1234: 5678 D/Tag",
+        "[ 01-23 12:34:56.789  1234: 5678 D/Tag ] trailing",
+        "[01-23 12:34:56.789  1234: 5678 D/Tag ]",
+        "[ 1-23 12:34:56.789  1234: 5678 D/Tag ]",
+        "[ 01/23 12:34:56.789  1234: 5678 D/Tag ]",
+        "[ 01-23 12:34:56  1234: 5678 D/Tag ]",
+        "[ 01-23 12:34:56.  1234: 5678 D/Tag ]",
+        "[ 01-23 12:34:56.789 1234 5678 D/Tag ]",
+        "[ 01-23 12:34:56.789  1234: 5678 X/Tag ]",
+        "[ 01-23 12:34:56.789  1234: 5678 d/Tag ]",
+        "[ 01-23 12:34:56.789  1234: 5678 D Tag ]",
+        "[ 01-23 12:34:56.789  1234: 5678  D/Tag ]",
+        "[ 01-23 12:34:56.789  1234:0x D/Tag ]",
+        "[ 01-23 12:34:56.789  1234:0x1g D/Tag ]",
+        "[ 01-23 12:34:56.789  1234: D/Tag ]",
+        "[ 01-23 12:34:56.789  12a4: 5678 D/Tag ]",
+        "[ 01-23 12:34:56.789  1234: 5678 D/Tag ]\n",
+        "--------- beginning of main",
+        "[ 01-23 ab:34:56.789  1234: 5678 D/Tag ]",
+    };
+
+    @Test
+    public void testRecordedHeaders() {
+        LogHeaderParser parser = new LogHeaderParser();
+        for (String line : HEADERS) {
+            Matcher matcher = LOG_PATTERN.matcher(line);
+            assertTrue("regex rejects " + line, matcher.matches());
+            assertTrue("parser rejects " + line, parser.parse(line));
+            assertEquals(line, matcher.group(1), parser.getTime());
+            assertEquals(line, Integer.parseInt(matcher.group(2)), parser.getPid());
+            assertEquals(line, tid(matcher.group(3)), parser.getTid());
+            assertSame(line, LogLevel.getByLetterString(matcher.group(4)), parser.getLevel());
+            assertEquals(line, matcher.group(5).trim(), parser.getTag());
+        }
+    }
+
+    @Test
+    public void testMalformedLines() {
+        LogHeaderParser parser = new LogHeaderParser();
+        for (String line : MALFORMED) {
+            assertEquals(line, LOG_PATTERN.matcher(line).matches(), parser.parse(line));
+        }
+    }
+
+    @Test
+    public void testEmptyPid() {
+        // the regex accepted it, but Integer.valueOf("") then failed
+        String line = "[ 01-23 12:34:56.789  : 5678 D/Tag ]";
+        assertTrue(LOG_PATTERN.matcher(line).matches());
+        LogHeaderParser parser = new LogHeaderParser();
+        assertTrue(parser.parse(line));
+        assertEquals(0, parser.getPid());
+    }
+
+    @Test
+    public void testTagsAreInterned() {
+        LogHeaderParser parser = new LogHeaderParser();
+        parser.parse("[ 01-23 12:34:56.789  1234: 5678 D/Tag ]");
+        String first = parser.getTag();
+        parser.parse("[ 01-23 12:34:57.000  1234: 5679 I/Tag ]");
+        assertSame(first, parser.getTag());
+    }
+
+    @Test
+    public void testExpandTabs() {
+        String line = "no tabs";
+        assertSame(line, LogHeaderParser.expandTabs(line));
+        assertEquals("\tat x".replaceAll("\t", "    "), LogHeaderParser.expandTabs("\tat x"));
+        assertEquals("a\t\tb".replaceAll("\t", "    "), LogHeaderParser.expandTabs("a\t\tb"));
+    }
+
+    private static int tid(String group) {
+        String tid = group.trim();
+        return tid.startsWith("0x") ? Integer.parseInt(tid.substring(2), 16) : Integer.parseInt(tid);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.nbandroid.netbeans.gradle.v2.layout;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import org.nbandroid.netbeans.gradle.v2.layout.completion.analyzer.StyleableResultCollector;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Writes a platform namespace with {@link AndroidStyleableCache} and reads it
+ * back.
+ *
+ * @author arsi
+ */
+public class AndroidStyleableCacheTest {
+
+    private static final String HASH = "android-26";
+    private static final String STAMP = "/sdk/platforms/android-26|1|2|3|4";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static AndroidStyleableNamespace createNamespace() throws IOException {
+        AndroidStyleableNamespace namespace = new AndroidStyleableNamespace(AndroidStyleableStore.ANDROID_NAMESPACE, HASH);
+        namespace.setPrimary_namespace("android");
+        AndroidStyleableAttrEnum vertical = new AndroidStyleableAttrEnum("vertical", "1", "Column layout.");
+        AndroidStyleableAttrEnum horizontal = new AndroidStyleableAttrEnum("horizontal", "0", null);
+        AndroidStyleableAttrFlag top = new AndroidStyleableAttrFlag("top", "0x30", "Push to the top.");
+        AndroidStyleableAttrFlag bottom = new AndroidStyleableAttrFlag("bottom", "0x50", null);
+        AndroidStyleableAttr orientation = new AndroidStyleableAttr("android:orientation", "Layout direction.",
+                Collections.<AndroidStyleableAttrFlag>emptyList(), Arrays.asList(horizontal, vertical), AndroidStyleableAttrType.Enum);
+        AndroidStyleableAttr gravity = new AndroidStyleableAttr("gravity", null,
+                Arrays.asList(top, bottom), Collections.<AndroidStyleableAttrEnum>emptyList(), AndroidStyleableAttrType.Flag);
+        AndroidStyleableAttr alpha = new AndroidStyleableAttr("alpha", "Opacity.", AndroidStyleableAttrType.Float, AndroidStyleableAttrType.Reference);
+
+        AndroidStyleable viewGroup = new AndroidStyleable(namespace, "ViewGroup");
+        viewGroup.setFullClassName("android.view.ViewGroup");
+        viewGroup.setAndroidStyleableType(AndroidStyleableType.Layout);
+        viewGroup.getAttrs().add(alpha);
+        AndroidStyleable linearLayout = new AndroidStyleable(namespace, "LinearLayout");
+        linearLayout.setFullClassName("android.widget.LinearLayout");
+        linearLayout.setSuperStyleableName("android.view.ViewGroup");
+        linearLayout.setSuperStyleable(viewGroup);
+        linearLayout.setAndroidStyleableType(AndroidStyleableType.Layout);
+        linearLayout.setClassFileURL(new URL("file:/sdk/platforms/android-26/android.jar"));
+        linearLayout.getAttrs().add(orientation);
+        linearLayout.getAttrs().add(gravity);
+        linearLayout.getAttrs().add(alpha);
+
+        namespace.getAll().add(linearLayout);
+        namespace.getLayouts().put(linearLayout.getFullClassName(), linearLayout);
+        namespace.getLayoutsSimpleNames().put(linearLayout.getName(), linearLayout);
+        namespace.getFullClassNameMap().put("android.widget.LinearLayout", new StyleableResultCollector(null,
+                "android.widget.LinearLayout", "android.view.ViewGroup", Arrays.asList("LinearLayout", "LinearLayout_Layout")));
+        return namespace;
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        File file = new File(folder.getRoot(), "cache/android-26.bin");
+        AndroidStyleableNamespace written = createNamespace();
+        AndroidStyleableCache.write(file, written, STAMP);
+        AndroidStyleableNamespace namespace = AndroidStyleableCache.read(file, HASH, STAMP);
+        AndroidStyleable writtenLayout = written.getAll().get(0);
+        assertNotNull(namespace);
+        assertEquals(AndroidStyleableStore.ANDROID_NAMESPACE, namespace.getNamespace());
+        assertEquals("android", namespace.getPrimary_namespace());
+        assertEquals(HASH, namespace.getAndroidPlatformHashString());
+
+        assertEquals(1, namespace.getAll().size());
+        AndroidStyleable linearLayout = namespace.getAll().get(0);
+        assertSame(linearLayout, namespace.getLayouts().get("android.widget.LinearLayout"));
+        assertSame(linearLayout, namespace.getLayoutsSimpleNames().get("LinearLayout"));
+        assertEquals("LinearLayout", linearLayout.getName());
+        assertEquals(AndroidStyleableType.Layout, linearLayout.getAndroidStyleableType());
+        assertEquals(new URL("file:/sdk/platforms/android-26/android.jar"), linearLayout.getClassFileURL());
+        assertEquals("android.view.ViewGroup", linearLayout.getSuperStyleableName());
+
+        AndroidStyleable viewGroup = linearLayout.getSuperStyleable();
+        assertNotNull(viewGroup);
+        assertEquals("android.view.ViewGroup", viewGroup.getFullClassName());
+        assertNull(viewGroup.getClassFileURL());
+        // shared attributes stay shared
+        assertSame(viewGroup.getAttrs().get(0), linearLayout.getAttrs().get(2));
+
+        AndroidStyleableAttr orientation = linearLayout.getAttrs().get(0);
+        assertEquals("orientation", orientation.getName());
+        assertEquals("Layout direction.", orientation.getDescription());
+        assertEquals(writtenLayout.getAttrs().get(0).getAttrTypes(), orientation.getAttrTypes());
+        assertArrayEquals(new AndroidStyleableAttrEnum[]{
+            new AndroidStyleableAttrEnum("horizontal", "0", null),
+            new AndroidStyleableAttrEnum("vertical", "1", "Column layout.")}, orientation.getEnums());
+        assertArrayEquals(new AndroidStyleableAttrFlag[0], orientation.getFlagsOrNull());
+
+        AndroidStyleableAttr gravity = linearLayout.getAttrs().get(1);
+        assertNull(gravity.getDescription());
+        assertEquals("0x50", gravity.getFlags()[1].getValue());
+        assertNull(gravity.getFlags()[1].getComment());
+
+        AndroidStyleableAttr alpha = linearLayout.getAttrs().get(2);
+        assertEquals(writtenLayout.getAttrs().get(2).getAttrTypes(), alpha.getAttrTypes());
+        assertNull(alpha.getEnumsOrNull());
+        assertNull(alpha.getFlagsOrNull());
+
+        StyleableResultCollector collector = namespace.getFullClassNameMap().get("android.widget.LinearLayout");
+        assertNull(collector.getFileUrl());
+        assertEquals("android.view.ViewGroup", collector.getSuperClassName());
+        assertEquals(Arrays.asList("LinearLayout", "LinearLayout_Layout"), collector.getStyleables());
+    }
+
+    @Test
+    public void staleFileIsIgnored() throws IOException {
+        File file = new File(folder.getRoot(), "android-26.bin");
+        assertNull(AndroidStyleableCache.read(file, HASH, STAMP));
+        AndroidStyleableCache.write(file, createNamespace(), STAMP);
+        assertNull(AndroidStyleableCache.read(file, HASH, STAMP + "|changed"));
+        assertNull(AndroidStyleableCache.read(file, "android-27", STAMP));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.writeInt(0);
+        }
+        assertNull(AndroidStyleableCache.read(file, HASH, STAMP));
+    }
+
+    @Test
+    public void fileNameDependsOnPlatformFolder() {
+        String first = AndroidStyleableCache.createFileName("Google Inc.:Google APIs:26", new File("/sdk1/platforms/android-26"));
+        String second = AndroidStyleableCache.createFileName("Google Inc.:Google APIs:26", new File("/sdk2/platforms/android-26"));
+        assertNotEquals(first, second);
+        assertEquals(first, AndroidStyleableCache.createFileName("Google Inc.:Google APIs:26", new File("/sdk1/platforms/android-26")));
+        assertEquals(-1, first.indexOf(':'));
+        assertEquals(-1, first.indexOf(' '));
+    }
+}
@@ -18,42 +18,58 @@
  */
 package sk.arsi.netbeans.gradle.android.layout.impl;
 
-import com.android.ide.common.resources.MergerResourceRepository;
+import com.android.ide.common.rendering.api.ResourceNamespace;
 import com.android.ide.common.resources.MergingException;
-import com.android.ide.common.resources.ResourceMerger;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import java.io.File;
 import org.openide.util.Exceptions;
-import sk.arsi.netbeans.gradle.android.layout.impl.v2.FrameworkResourceSet;
+import sk.arsi.netbeans.gradle.android.layout.impl.v2.AarResourceSet;
 
 /**
+ * Loaded resource sets by exploded aar folder. The sets are shared by the
+ * {@link ProjectResourceRepository} of all modules depending on the aar.
  *
  * @author arsi
  */
 public class AarResourcesCache {
 
-    private static final LoadingCache<File, MergerResourceRepository> cache = CacheBuilder.newBuilder().softValues().build(new CacheLoader<File, MergerResourceRepository>() {
+    private static final LoadingCache<File, AarResourceSet> cache = CacheBuilder.newBuilder().softValues().build(new CacheLoader<File, AarResourceSet>() {
 
         @Override
-        public MergerResourceRepository load(File res) throws Exception {
-            MergerResourceRepository repo = new MergerResourceRepository();
-            ResourceMerger resourceMerger = new ResourceMerger(0);
-
-            FrameworkResourceSet framefork = new FrameworkResourceSet(res, false);
-            try {
-                framefork.loadFromFiles(new LayoutIO());
-            } catch (MergingException ex) {
-                Exceptions.printStackTrace(ex);
-            }
-            resourceMerger.addDataSet(framefork);
-            repo.update(resourceMerger);
-            return repo;
+        public AarResourceSet load(File aar) throws Exception {
+            File resFolder = new File(aar.getPath() + File.separator + "res");
+            AarResourceSet aarSet = new AarResourceSet(aar.getName(), ResourceNamespace.RES_AUTO, aar.getName(), false);
+            aarSet.addSource(resFolder);
+            aarSet.setShouldParseResourceIds(false);
+            aarSet.setTrackSourcePositions(true);
+            aarSet.setCheckDuplicates(true);
+            aarSet.loadFromFiles(new LayoutIO());
+            return aarSet;
         }
     });
 
-    public static MergerResourceRepository getOrCreateAarResources(File platformResFolder) {
-        return cache.getUnchecked(platformResFolder);
+    /**
+     * Get the loaded resources of the exploded aar.
+     *
+     * @return the resource set or null, if the aar has no resources or they
+     * can't be loaded
+     */
+    public static AarResourceSet getOrCreateAarResources(File aar) {
+        File resFolder = new File(aar.getPath() + File.separator + "res");
+        if (!resFolder.exists() || !resFolder.isDirectory()) {
+            return null;
+        }
+        try {
+            return cache.getUnchecked(aar);
+        } catch (UncheckedExecutionException ex) {
+            if (ex.getCause() instanceof MergingException) {
+                Exceptions.printStackTrace(ex.getCause());
+                return null;
+            }
+            throw ex;
+        }
     }
 }
@@ -40,7 +40,7 @@ public class DelayedFileChangeListener implements FileChangeListener {
         changeTimer = new Timer(3000, new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                panel.refreshPreview();
+                panel.classesChanged();
             }
         });
         changeTimer.setRepeats(false);
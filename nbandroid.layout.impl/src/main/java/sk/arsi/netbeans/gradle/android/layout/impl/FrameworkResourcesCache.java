@@ -18,7 +18,6 @@
  */
 package sk.arsi.netbeans.gradle.android.layout.impl;
 
-import com.android.ide.common.resources.MergerResourceRepository;
 import com.android.ide.common.resources.MergingException;
 import com.android.ide.common.resources.ResourceMerger;
 import com.google.common.cache.CacheBuilder;
@@ -27,18 +26,25 @@ import com.google.common.cache.LoadingCache;
 import java.io.File;
 import org.openide.util.Exceptions;
 import sk.arsi.netbeans.gradle.android.layout.impl.v2.FrameworkResourceSet;
+import sk.arsi.netbeans.gradle.android.layout.impl.v2.MergerResourceRepositoryV2;
 
 /**
+ * Framework resources by platform res folder. The resources are parsed only
+ * when there is no up to date {@link FrameworkResourcesSnapshot} on disk.
  *
  * @author arsi
  */
 public class FrameworkResourcesCache {
 
-    private static final LoadingCache<File, MergerResourceRepository> cache = CacheBuilder.newBuilder().softValues().build(new CacheLoader<File, MergerResourceRepository>() {
+    private static final LoadingCache<File, FrameworkResourcesSnapshot> cache = CacheBuilder.newBuilder().softValues().build(new CacheLoader<File, FrameworkResourcesSnapshot>() {
 
         @Override
-        public MergerResourceRepository load(File res) throws Exception {
-            MergerResourceRepository repo = new MergerResourceRepository();
+        public FrameworkResourcesSnapshot load(File res) throws Exception {
+            FrameworkResourcesSnapshot snapshot = FrameworkResourcesSnapshot.open(res);
+            if (snapshot != null) {
+                return snapshot;
+            }
+            MergerResourceRepositoryV2 repo = new MergerResourceRepositoryV2();
             ResourceMerger resourceMerger = new ResourceMerger(0);
 
             FrameworkResourceSet framefork = new FrameworkResourceSet(res, false);
@@ -49,11 +55,11 @@ public class FrameworkResourcesCache {
             }
             resourceMerger.addDataSet(framefork);
             repo.update(resourceMerger);
-            return repo;
+            return FrameworkResourcesSnapshot.create(res, repo);
         }
     });
 
-    public static MergerResourceRepository getOrCreateFrameworkResources(File platformResFolder) {
+    public static FrameworkResourcesSnapshot getOrCreateFrameworkResources(File platformResFolder) {
         return cache.getUnchecked(platformResFolder);
     }
 }
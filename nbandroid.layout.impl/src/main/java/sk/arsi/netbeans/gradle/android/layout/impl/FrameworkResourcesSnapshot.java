@@ -0,0 +1,539 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package sk.arsi.netbeans.gradle.android.layout.impl;
+
+import com.android.ide.common.rendering.api.ArrayResourceValue;
+import com.android.ide.common.rendering.api.ArrayResourceValueImpl;
+import com.android.ide.common.rendering.api.AttrResourceValue;
+import com.android.ide.common.rendering.api.AttrResourceValueImpl;
+import com.android.ide.common.rendering.api.DeclareStyleableResourceValue;
+import com.android.ide.common.rendering.api.DeclareStyleableResourceValueImpl;
+import com.android.ide.common.rendering.api.DensityBasedResourceValue;
+import com.android.ide.common.rendering.api.DensityBasedResourceValueImpl;
+import com.android.ide.common.rendering.api.ResourceNamespace;
+import com.android.ide.common.rendering.api.ResourceReference;
+import com.android.ide.common.rendering.api.ResourceValue;
+import com.android.ide.common.rendering.api.ResourceValueImpl;
+import com.android.ide.common.rendering.api.StyleItemResourceValue;
+import com.android.ide.common.rendering.api.StyleItemResourceValueImpl;
+import com.android.ide.common.rendering.api.StyleResourceValue;
+import com.android.ide.common.rendering.api.StyleResourceValueImpl;
+import com.android.ide.common.resources.ResourceItem;
+import com.android.ide.common.resources.ResourceValueMap;
+import com.android.ide.common.resources.configuration.Configurable;
+import com.android.ide.common.resources.configuration.FolderConfiguration;
+import com.android.resources.Density;
+import com.android.resources.ResourceType;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Table;
+import com.google.common.collect.Tables;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.openide.modules.Places;
+import sk.arsi.netbeans.gradle.android.layout.impl.v2.MergerResourceRepositoryV2;
+
+/**
+ * Framework resources of one platform in a compact binary form, stored in the
+ * NetBeans cache dir and memory mapped on the next start. The file has one
+ * section per {@link ResourceType}, a section is decoded on first use and
+ * resource values are created only for the items matching the requested
+ * configuration.
+ * <p>
+ * File layout: header (magic, version, key, namespaces, configurations,
+ * section directory) followed by the sections. A section is the item index
+ * (namespace, name and the candidate configurations with value offsets)
+ * followed by the encoded values.
+ *
+ * @author arsi
+ */
+public class FrameworkResourcesSnapshot {
+
+    private static final Logger LOG = Logger.getLogger(FrameworkResourcesSnapshot.class.getName());
+    private static final String CACHE_FOLDER = "nbandroid/framework";
+    private static final int MAGIC = 0x46524553;
+    private static final int VERSION = 1;
+
+    private static final byte KIND_PLAIN = 0;
+    private static final byte KIND_DENSITY = 1;
+    private static final byte KIND_STYLE = 2;
+    private static final byte KIND_ATTR = 3;
+    private static final byte KIND_ARRAY = 4;
+    private static final byte KIND_STYLEABLE = 5;
+    private static final int CONFIGURED_CACHE_SIZE = 16;
+
+    private final ByteBuffer buffer;
+    private final List<ResourceNamespace> namespaces;
+    private final FolderConfiguration[] configurations;
+    private final Map<ResourceType, int[]> sections;
+    private final Map<ResourceType, Map<ResourceNamespace, Map<String, List<Candidate>>>> decoded = new EnumMap<>(ResourceType.class);
+    private final Map<Integer, ResourceValue> values = new HashMap<>();
+    //the framework never changes, resolved tables are valid as long as they are reachable
+    private final Cache<String, Table<ResourceNamespace, ResourceType, ResourceValueMap>> configured
+            = CacheBuilder.newBuilder().softValues().maximumSize(CONFIGURED_CACHE_SIZE).build();
+
+    private FrameworkResourcesSnapshot(ByteBuffer buffer, List<ResourceNamespace> namespaces, FolderConfiguration[] configurations, Map<ResourceType, int[]> sections) {
+        this.buffer = buffer;
+        this.namespaces = namespaces;
+        this.configurations = configurations;
+        this.sections = sections;
+    }
+
+    /**
+     * Open the stored snapshot of the platform resources.
+     *
+     * @return the snapshot or null, if there is none or it is out of date
+     */
+    public static FrameworkResourcesSnapshot open(File platformResFolder) {
+        File file = getFile(platformResFolder);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(mapped, computeKey(platformResFolder));
+        } catch (IOException | RuntimeException ex) {
+            LOG.log(Level.INFO, "Dropping unreadable framework resources snapshot " + file, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Create and store the snapshot of the parsed platform resources. If the
+     * snapshot can't be stored, it is kept on the heap.
+     */
+    public static FrameworkResourcesSnapshot create(File platformResFolder, MergerResourceRepositoryV2 repository) throws IOException {
+        String key = computeKey(platformResFolder);
+        byte[] data = write(repository, key);
+        File file = getFile(platformResFolder);
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            out.write(data);
+        } catch (IOException ex) {
+            LOG.log(Level.INFO, "Unable to write framework resources snapshot " + file, ex);
+        }
+        if (tmp.isFile() && (tmp.renameTo(file) || (file.delete() && tmp.renameTo(file)))) {
+            FrameworkResourcesSnapshot snapshot = open(platformResFolder);
+            if (snapshot != null) {
+                return snapshot;
+            }
+        }
+        tmp.delete();
+        return read(ByteBuffer.wrap(data), key);
+    }
+
+    public List<ResourceNamespace> getNamespaces() {
+        return namespaces;
+    }
+
+    /**
+     * Resolve the resources of all namespaces and types for the
+     * configuration, like
+     * {@code AbstractResourceRepository.getConfiguredResources}. The result
+     * is memoized per configuration and must not be modified.
+     */
+    public Table<ResourceNamespace, ResourceType, ResourceValueMap> getConfiguredResources(FolderConfiguration referenceConfig) {
+        String key = referenceConfig.getQualifierString();
+        Table<ResourceNamespace, ResourceType, ResourceValueMap> table = configured.getIfPresent(key);
+        if (table != null) {
+            return table;
+        }
+        table = Tables.newCustomTable(new HashMap<>(), () -> new EnumMap<>(ResourceType.class));
+        for (ResourceNamespace namespace : namespaces) {
+            for (ResourceType type : ResourceType.values()) {
+                table.put(namespace, type, getConfiguredResources(namespace, type, referenceConfig));
+            }
+        }
+        configured.put(key, table);
+        return table;
+    }
+
+    /**
+     * Resolve the resources of one type for the configuration. Only the
+     * section of the type is decoded.
+     */
+    public ResourceValueMap getConfiguredResources(ResourceNamespace namespace, ResourceType type, FolderConfiguration referenceConfig) {
+        ResourceValueMap map = ResourceValueMap.create();
+        for (Map.Entry<String, List<Candidate>> entry : getItems(namespace, type).entrySet()) {
+            Candidate match = (Candidate) referenceConfig.findMatchingConfigurable(entry.getValue());
+            if (match != null) {
+                ResourceValue value = getValue(namespace, type, entry.getKey(), match.offset);
+                if (value != null) {
+                    map.put(entry.getKey(), value);
+                }
+            }
+        }
+        return map;
+    }
+
+    private synchronized Map<String, List<Candidate>> getItems(ResourceNamespace namespace, ResourceType type) {
+        Map<ResourceNamespace, Map<String, List<Candidate>>> items = decoded.get(type);
+        if (items == null) {
+            items = decodeSection(type);
+            decoded.put(type, items);
+        }
+        Map<String, List<Candidate>> named = items.get(namespace);
+        return named != null ? named : Collections.<String, List<Candidate>>emptyMap();
+    }
+
+    private synchronized ResourceValue getValue(ResourceNamespace namespace, ResourceType type, String name, int offset) {
+        ResourceValue value = values.get(offset);
+        if (value == null) {
+            value = decodeValue(namespace, type, name, offset);
+            values.put(offset, value);
+        }
+        return value;
+    }
+
+    private Map<ResourceNamespace, Map<String, List<Candidate>>> decodeSection(ResourceType type) {
+        Map<ResourceNamespace, Map<String, List<Candidate>>> items = new HashMap<>();
+        int[] section = sections.get(type);
+        if (section == null) {
+            return items;
+        }
+        ByteBuffer in = buffer.duplicate();
+        in.position(section[0]);
+        int indexLength = in.getInt();
+        int valuesStart = section[0] + 4 + indexLength;
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            ResourceNamespace namespace = namespaces.get(in.getShort());
+            String name = readString(in);
+            int candidateCount = in.getInt();
+            List<Candidate> candidates = new ArrayList<>(candidateCount);
+            for (int j = 0; j < candidateCount; j++) {
+                FolderConfiguration configuration = configurations[in.getShort()];
+                candidates.add(new Candidate(configuration, valuesStart + in.getInt()));
+            }
+            items.computeIfAbsent(namespace, k -> new HashMap<>()).put(name, candidates);
+        }
+        return items;
+    }
+
+    private ResourceValue decodeValue(ResourceNamespace namespace, ResourceType type, String name, int offset) {
+        ByteBuffer in = buffer.duplicate();
+        in.position(offset);
+        byte kind = in.get();
+        switch (kind) {
+            case KIND_DENSITY: {
+                String value = readString(in);
+                String density = readString(in);
+                if (density != null) {
+                    return new DensityBasedResourceValueImpl(new ResourceReference(namespace, type, name), value, Density.valueOf(density));
+                }
+                return new ResourceValueImpl(namespace, type, name, value, null);
+            }
+            case KIND_STYLE: {
+                StyleResourceValueImpl style = new StyleResourceValueImpl(new ResourceReference(namespace, type, name), readString(in), null);
+                int count = in.getInt();
+                for (int i = 0; i < count; i++) {
+                    String attrName = readString(in);
+                    String value = readString(in);
+                    style.addItem(new StyleItemResourceValueImpl(namespace, attrName, value, null));
+                }
+                return style;
+            }
+            case KIND_ATTR: {
+                AttrResourceValueImpl attr = new AttrResourceValueImpl(namespace, type, name, null);
+                readAttrValues(in, attr);
+                return attr;
+            }
+            case KIND_ARRAY: {
+                ArrayResourceValueImpl array = new ArrayResourceValueImpl(namespace, type, name, null);
+                int count = in.getInt();
+                for (int i = 0; i < count; i++) {
+                    array.addElement(readString(in));
+                }
+                return array;
+            }
+            case KIND_STYLEABLE: {
+                DeclareStyleableResourceValueImpl styleable = new DeclareStyleableResourceValueImpl(namespace, type, name, null, null);
+                int count = in.getInt();
+                for (int i = 0; i < count; i++) {
+                    short attrNamespace = in.getShort();
+                    AttrResourceValueImpl attr = new AttrResourceValueImpl(attrNamespace >= 0 ? namespaces.get(attrNamespace) : namespace,
+                            ResourceType.ATTR, readString(in), null);
+                    readAttrValues(in, attr);
+                    styleable.addValue(attr);
+                }
+                return styleable;
+            }
+            default:
+                return new ResourceValueImpl(namespace, type, name, readString(in), null);
+        }
+    }
+
+    private static void readAttrValues(ByteBuffer in, AttrResourceValueImpl attr) {
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            String name = readString(in);
+            attr.addValue(name, in.getInt());
+        }
+    }
+
+    private static FrameworkResourcesSnapshot read(ByteBuffer buffer, String key) {
+        ByteBuffer in = buffer.duplicate();
+        if (in.getInt() != MAGIC || in.getInt() != VERSION || !key.equals(readString(in))) {
+            return null;
+        }
+        int namespaceCount = in.getInt();
+        List<ResourceNamespace> namespaces = new ArrayList<>(namespaceCount);
+        for (int i = 0; i < namespaceCount; i++) {
+            namespaces.add(ResourceNamespace.fromNamespaceUri(readString(in)));
+        }
+        FolderConfiguration[] configurations = new FolderConfiguration[in.getInt()];
+        for (int i = 0; i < configurations.length; i++) {
+            String qualifiers = readString(in);
+            configurations[i] = qualifiers.isEmpty() ? new FolderConfiguration() : FolderConfiguration.getConfigForQualifierString(qualifiers);
+        }
+        int sectionCount = in.getInt();
+        Map<ResourceType, int[]> sections = new EnumMap<>(ResourceType.class);
+        for (int i = 0; i < sectionCount; i++) {
+            ResourceType type = ResourceType.getEnum(readString(in));
+            int offset = in.getInt();
+            int length = in.getInt();
+            if (type != null) {
+                sections.put(type, new int[]{offset, length});
+            }
+        }
+        // section offsets are relative to the end of the header
+        int dataStart = in.position();
+        for (int[] section : sections.values()) {
+            section[0] += dataStart;
+        }
+        return new FrameworkResourcesSnapshot(buffer, Collections.unmodifiableList(namespaces), configurations, sections);
+    }
+
+    private static byte[] write(MergerResourceRepositoryV2 repository, String key) throws IOException {
+        List<ResourceNamespace> namespaces = new ArrayList<>(repository.getNamespaces());
+        Map<String, Integer> configurations = new LinkedHashMap<>();
+        ByteArrayOutputStream data = new ByteArrayOutputStream(1 << 20);
+        ByteArrayOutputStream directory = new ByteArrayOutputStream();
+        DataOutputStream directoryOut = new DataOutputStream(directory);
+        int sectionCount = 0;
+        for (ResourceType type : ResourceType.values()) {
+            ByteArrayOutputStream index = new ByteArrayOutputStream();
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            DataOutputStream indexOut = new DataOutputStream(index);
+            DataOutputStream valuesOut = new DataOutputStream(encoded);
+            int count = 0;
+            for (int ns = 0; ns < namespaces.size(); ns++) {
+                ListMultimap<String, ResourceItem> items = repository.getItems(namespaces.get(ns), type);
+                if (items == null) {
+                    continue;
+                }
+                for (String name : items.keySet()) {
+                    List<int[]> candidates = new ArrayList<>();
+                    for (ResourceItem item : items.get(name)) {
+                        ResourceValue value = item.getResourceValue();
+                        if (value != null) {
+                            String qualifiers = item.getConfiguration().getQualifierString();
+                            Integer configuration = configurations.get(qualifiers);
+                            if (configuration == null) {
+                                configuration = configurations.size();
+                                configurations.put(qualifiers, configuration);
+                            }
+                            candidates.add(new int[]{configuration, valuesOut.size()});
+                            writeValue(valuesOut, value, namespaces);
+                        }
+                    }
+                    if (!candidates.isEmpty()) {
+                        indexOut.writeShort(ns);
+                        writeString(indexOut, name);
+                        indexOut.writeInt(candidates.size());
+                        for (int[] candidate : candidates) {
+                            indexOut.writeShort(candidate[0]);
+                            indexOut.writeInt(candidate[1]);
+                        }
+                        count++;
+                    }
+                }
+            }
+            if (count == 0) {
+                continue;
+            }
+            DataOutputStream dataOut = new DataOutputStream(data);
+            int offset = data.size();
+            dataOut.writeInt(index.size() + 4);
+            dataOut.writeInt(count);
+            index.writeTo(dataOut);
+            encoded.writeTo(dataOut);
+            dataOut.flush();
+            writeString(directoryOut, type.getName());
+            directoryOut.writeInt(offset);
+            directoryOut.writeInt(data.size() - offset);
+            sectionCount++;
+        }
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream(data.size() + 4096);
+        DataOutputStream out = new DataOutputStream(file);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeString(out, key);
+        out.writeInt(namespaces.size());
+        for (ResourceNamespace namespace : namespaces) {
+            writeString(out, namespace.getXmlNamespaceUri());
+        }
+        out.writeInt(configurations.size());
+        for (String qualifiers : configurations.keySet()) {
+            writeString(out, qualifiers);
+        }
+        out.writeInt(sectionCount);
+        directoryOut.flush();
+        directory.writeTo(out);
+        data.writeTo(out);
+        out.flush();
+        return file.toByteArray();
+    }
+
+    private static void writeValue(DataOutputStream out, ResourceValue value, List<ResourceNamespace> namespaces) throws IOException {
+        if (value instanceof StyleResourceValue) {
+            StyleResourceValue style = (StyleResourceValue) value;
+            out.writeByte(KIND_STYLE);
+            writeString(out, style.getParentStyleName());
+            Collection<StyleItemResourceValue> items = style.getDefinedItems();
+            out.writeInt(items.size());
+            for (StyleItemResourceValue item : items) {
+                writeString(out, item.getAttrName());
+                writeString(out, item.getValue());
+            }
+        } else if (value instanceof DeclareStyleableResourceValue) {
+            List<AttrResourceValue> attrs = ((DeclareStyleableResourceValue) value).getAllAttributes();
+            out.writeByte(KIND_STYLEABLE);
+            out.writeInt(attrs.size());
+            for (AttrResourceValue attr : attrs) {
+                out.writeShort(namespaces.indexOf(attr.getNamespace()));
+                writeString(out, attr.getName());
+                writeAttrValues(out, attr);
+            }
+        } else if (value instanceof AttrResourceValue) {
+            out.writeByte(KIND_ATTR);
+            writeAttrValues(out, (AttrResourceValue) value);
+        } else if (value instanceof ArrayResourceValue) {
+            ArrayResourceValue array = (ArrayResourceValue) value;
+            out.writeByte(KIND_ARRAY);
+            out.writeInt(array.getElementCount());
+            for (int i = 0; i < array.getElementCount(); i++) {
+                writeString(out, array.getElement(i));
+            }
+        } else if (value instanceof DensityBasedResourceValue) {
+            Density density = ((DensityBasedResourceValue) value).getResourceDensity();
+            out.writeByte(KIND_DENSITY);
+            writeString(out, value.getValue());
+            writeString(out, density != null ? density.name() : null);
+        } else {
+            out.writeByte(KIND_PLAIN);
+            writeString(out, value.getValue());
+        }
+    }
+
+    private static void writeAttrValues(DataOutputStream out, AttrResourceValue attr) throws IOException {
+        Map<String, Integer> attrValues = attr.getAttributeValues();
+        if (attrValues == null) {
+            out.writeInt(0);
+            return;
+        }
+        out.writeInt(attrValues.size());
+        for (Map.Entry<String, Integer> entry : attrValues.entrySet()) {
+            writeString(out, entry.getKey());
+            out.writeInt(entry.getValue());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static File getFile(File platformResFolder) {
+        String name = Hashing.sha1().hashString(platformResFolder.getAbsolutePath(), StandardCharsets.UTF_8).toString();
+        return Places.getCacheSubfile(CACHE_FOLDER + "/" + name + ".res");
+    }
+
+    /**
+     * The snapshot is valid for the platform folder and revision, the
+     * revision is taken from source.properties of the platform.
+     */
+    private static String computeKey(File platformResFolder) {
+        StringBuilder key = new StringBuilder(platformResFolder.getAbsolutePath());
+        File platformFolder = platformResFolder.getParentFile() != null ? platformResFolder.getParentFile().getParentFile() : null;
+        File properties = new File(platformFolder, "source.properties");
+        if (properties.isFile()) {
+            try {
+                key.append('|').append(Files.asByteSource(properties).hash(Hashing.sha1()));
+            } catch (IOException ex) {
+                key.append('|').append(properties.lastModified());
+            }
+        }
+        key.append('|').append(platformResFolder.lastModified());
+        return key.toString();
+    }
+
+    private static final class Candidate implements Configurable {
+
+        private final FolderConfiguration configuration;
+        private final int offset;
+
+        Candidate(FolderConfiguration configuration, int offset) {
+            this.configuration = configuration;
+            this.offset = offset;
+        }
+
+        @Override
+        public FolderConfiguration getConfiguration() {
+            return configuration;
+        }
+    }
+}
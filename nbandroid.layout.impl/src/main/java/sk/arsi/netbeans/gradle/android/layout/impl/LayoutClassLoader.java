@@ -21,7 +21,6 @@ package sk.arsi.netbeans.gradle.android.layout.impl;
 import android.os._Original_Build;
 import com.android.ide.common.rendering.api.ResourceNamespace;
 import com.android.ide.common.xml.ManifestData;
-import com.android.resources.ResourceType;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -80,7 +79,7 @@ public class LayoutClassLoader extends URLClassLoader {
                                 tmp = new ArrayList<>();
                                 packages.put(fqcn, tmp);
                             }
-                            tmp.add(aar);
+                            tmp.add(rTxt);
                         }
                     } catch (FileNotFoundException ex) {
                         Exceptions.printStackTrace(ex);
@@ -91,9 +90,8 @@ public class LayoutClassLoader extends URLClassLoader {
 //        //geterate R.class
         for (Map.Entry<String, List<File>> entry : packages.entrySet()) {
             String fqcn = entry.getKey();
-            List<File> aarList = entry.getValue();
-            Map<ResourceType, Map<String, Object>> resourceMap = ResourceClassGenerator.buildFullResourceMap(ResourceNamespace.RES_AUTO, fqcn, aarList, classGeneratorConfig);
-            ResourceClassGenerator.generate(fqcn, resourceMap, (className, classBytes) -> defineClass(className, classBytes, 0, classBytes.length));
+            List<File> rTxtList = entry.getValue();
+            RClassCache.defineClasses(ResourceNamespace.RES_AUTO, fqcn, rTxtList, classGeneratorConfig, (className, classBytes) -> defineClass(className, classBytes, 0, classBytes.length));
         }
     }
 
@@ -44,20 +44,16 @@ import com.android.tools.layoutlib.annotations.NotNull;
 import com.android.util.Pair;
 import com.android.utils.ILogger;
 import com.google.android.collect.Maps;
-import com.google.common.io.ByteStreams;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.IOError;
 import java.io.IOException;
-import java.lang.reflect.Constructor;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.kxml2.io.KXmlParser;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
-import sk.arsi.netbeans.gradle.android.layout.impl.v2.AndroidXRemmaper;
 
 @SuppressWarnings("deprecation") // For Pair
 public class LayoutLibCallback extends LayoutlibCallback {
@@ -72,8 +68,6 @@ public class LayoutLibCallback extends LayoutlibCallback {
     private final LayoutClassLoader classLoader;
     private final ResourceNamespace appNamespace;
     private final ProjectLayoutClassLoader projectLayoutClassLoader;
-    private boolean hasLegacyAppCompat = false;
-    private boolean hasAndroidXAppCompat = false;
 
     public LayoutLibCallback(ILogger logger, List<File> aars, LayoutClassLoader classLoader, ResourceNamespace appNamespace, ProjectLayoutClassLoader projectLayoutClassLoader) {
         mLog = logger;
@@ -81,55 +75,20 @@ public class LayoutLibCallback extends LayoutlibCallback {
         this.classLoader = classLoader;
         this.appNamespace = appNamespace;
         this.projectLayoutClassLoader = projectLayoutClassLoader;
-        try {
-            projectLayoutClassLoader.loadClass("androidx.appcompat.app.WindowDecorActionBar");
-            hasAndroidXAppCompat = true;
-            hasLegacyAppCompat = false;
-        } catch (ClassNotFoundException ex) {
-            hasAndroidXAppCompat = false;
-            hasLegacyAppCompat = false;
-        }
-        if (!hasAndroidXAppCompat) {
-            try {
-                projectLayoutClassLoader.loadClass("android.support.v7.app.WindowDecorActionBar");
-                hasAndroidXAppCompat = false;
-                hasLegacyAppCompat = true;
-            } catch (ClassNotFoundException ex) {
-                hasAndroidXAppCompat = false;
-                hasLegacyAppCompat = false;
-            }
-
-        }
     }
 
     @Override
     public Object loadView(String name, Class[] constructorSignature, Object[] constructorArgs)
             throws Exception {
-        if (hasAndroidXAppCompat) {
-            name = AndroidXRemmaper.toAndroidX(name);
-        } else if (hasLegacyAppCompat) {
-            name = AndroidXRemmaper.fromAndroidX(name);
-        }
-        Class<?> viewClass = projectLayoutClassLoader.loadClass(name);
-            Constructor<?> viewConstructor = viewClass.getConstructor(constructorSignature);
-            viewConstructor.setAccessible(true);
-            return viewConstructor.newInstance(constructorArgs);
+        return projectLayoutClassLoader.getViewConstructor(name, constructorSignature).newInstance(constructorArgs);
     }
 
     @Override
     public Object loadClass(String name, Class[] constructorSignature, Object[] constructorArgs) throws ClassNotFoundException {
         try {
-            if (hasAndroidXAppCompat) {
-                name = AndroidXRemmaper.toAndroidX(name);
-            } else if (hasLegacyAppCompat) {
-                name = AndroidXRemmaper.fromAndroidX(name);
-            }
-            Class<?> viewClass = projectLayoutClassLoader.loadClass(name);
-            Constructor<?> viewConstructor = viewClass.getConstructor(constructorSignature);
-            viewConstructor.setAccessible(true);
-            return viewConstructor.newInstance(constructorArgs);
+            return projectLayoutClassLoader.getViewConstructor(name, constructorSignature).newInstance(constructorArgs);
         } catch (Exception e) {
-            LayoutIO.logError("unable to load class " + name, e);
+            LayoutIO.logError("unable to load class " + projectLayoutClassLoader.remap(name), e);
 
         }
         throw new ClassNotFoundException(name);
@@ -137,12 +96,7 @@ public class LayoutLibCallback extends LayoutlibCallback {
 
     @Override
     public Class<?> findClass(String name) throws ClassNotFoundException {
-        if (hasAndroidXAppCompat) {
-                name = AndroidXRemmaper.toAndroidX(name);
-            } else if (hasLegacyAppCompat) {
-                name = AndroidXRemmaper.fromAndroidX(name);
-            }
-            return projectLayoutClassLoader.loadClass(name);
+        return projectLayoutClassLoader.loadClass(projectLayoutClassLoader.remap(name));
     }
 
     @Override
@@ -170,18 +124,22 @@ public class LayoutLibCallback extends LayoutlibCallback {
 
     @Override
     public boolean hasLegacyAppCompat() {
-        return hasLegacyAppCompat;
+        return projectLayoutClassLoader.hasLegacyAppCompat();
     }
 
     @Override
     public boolean hasAndroidXAppCompat() {
-        return hasAndroidXAppCompat;
+        return projectLayoutClassLoader.hasAndroidXAppCompat();
     }
 
     @Override
     public ILayoutPullParser getParser(ResourceValue layoutResource) {
         if (layoutResource.getValue() != null) {
-            return new LayoutPullParser(new File(layoutResource.getValue()), ResourceNamespace.RES_AUTO);
+            try {
+                return new LayoutPullParser(XmlFileCache.open(new File(layoutResource.getValue())), ResourceNamespace.RES_AUTO);
+            } catch (IOException ex) {
+                throw new IOError(ex);
+            }
         }
         return null;
     }
@@ -241,7 +199,7 @@ public class LayoutLibCallback extends LayoutlibCallback {
     @Override
     public XmlPullParser createXmlParserForFile(String fileName) {
         try {
-            ByteArrayInputStream stream = openFile(fileName);
+            InputStream stream = XmlFileCache.open(new File(fileName));
             // Instantiate an XML pull parser based on the contents of the stream.
             XmlPullParser parser;
             int c = stream.read();
@@ -258,15 +216,6 @@ public class LayoutLibCallback extends LayoutlibCallback {
         }
     }
 
-    private static ByteArrayInputStream openFile(String filePath) throws IOException {
-        try (FileInputStream fileStream = new FileInputStream(filePath)) {
-            // Read data fully to memory to be able to close the file stream.
-            ByteArrayOutputStream byteOutputStream = new ByteArrayOutputStream();
-            ByteStreams.copy(fileStream, byteOutputStream);
-            return new ByteArrayInputStream(byteOutputStream.toByteArray());
-        }
-    }
-
     @Override
     public XmlPullParser createXmlParser() {
         return new NamedXmlParser(null);
@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package sk.arsi.netbeans.gradle.android.layout.impl;
+
+import com.android.ide.common.rendering.api.ResourceNamespace;
+import com.android.tools.nbandroid.layoutlib.LayoutLibrary;
+import com.android.tools.nbandroid.layoutlib.LayoutLibraryLoader;
+import com.android.tools.nbandroid.layoutlib.RenderingException;
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Pool of initialized layoutlib bridges. Initializing the Bridge takes seconds
+ * and tens of MB, so all preview panels of the same platform and the same aar
+ * and jar dependencies share one {@link LayoutLibrary} and its
+ * {@link LayoutClassLoader}. Entries are reference counted and evicted, when
+ * they were not used for {@link #IDLE_TIMEOUT} ms.
+ *
+ * @author arsi
+ */
+public class LayoutLibraryPool {
+
+    private static final Logger LOG = Logger.getLogger(LayoutLibraryPool.class.getName());
+    private static final RequestProcessor RP = new RequestProcessor(LayoutLibraryPool.class);
+    public static final int IDLE_TIMEOUT = 5 * 60 * 1000;
+
+    private static final Map<Key, Entry> entries = new HashMap<>();
+
+    private LayoutLibraryPool() {
+    }
+
+    /**
+     * Get a shared library for the platform and dependencies, loading it if
+     * needed. Every call has to be paired with {@link #release(Entry)}.
+     *
+     * @return the entry or {@code null}, if the library can't be loaded
+     */
+    public static Entry acquire(File platformFolder, List<File> aars, List<File> jars, ResourceNamespace appNamespace) {
+        Key key = new Key(platformFolder, aars, jars);
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry(key);
+                entries.put(key, entry);
+            }
+            entry.references++;
+            if (entry.evictTask != null) {
+                entry.evictTask.cancel();
+                entry.evictTask = null;
+            }
+        }
+        // load outside of the pool lock, other platforms must not wait
+        synchronized (entry) {
+            if (!entry.loaded) {
+                entry.load(appNamespace);
+            }
+        }
+        if (entry.layoutLibrary == null) {
+            release(entry);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Release an entry acquired before. The last release schedules its
+     * eviction.
+     */
+    public static void release(final Entry entry) {
+        synchronized (entries) {
+            if (--entry.references > 0) {
+                return;
+            }
+            if (entry.layoutLibrary == null) {
+                entries.remove(entry.key);
+                return;
+            }
+            entry.evictTask = RP.post(new Runnable() {
+                @Override
+                public void run() {
+                    evict(entry);
+                }
+            }, IDLE_TIMEOUT);
+        }
+    }
+
+    private static void evict(Entry entry) {
+        boolean last;
+        synchronized (entries) {
+            if (entry.references > 0 || entries.get(entry.key) != entry) {
+                return;
+            }
+            entries.remove(entry.key);
+            last = entries.isEmpty();
+        }
+        // the Bridge keeps its caches in static fields shared by all
+        // instances, so it can be disposed only with the last one
+        if (last) {
+            entry.layoutLibrary.dispose();
+        }
+        try {
+            entry.classLoader.close();
+        } catch (IOException ex) {
+            LOG.log(Level.FINE, null, ex);
+        }
+    }
+
+    public static final class Entry {
+
+        private final Key key;
+        private int references = 0;
+        private RequestProcessor.Task evictTask;
+        private boolean loaded = false;
+        private volatile LayoutClassLoader classLoader;
+        private volatile LayoutLibrary layoutLibrary;
+
+        private Entry(Key key) {
+            this.key = key;
+        }
+
+        private void load(ResourceNamespace appNamespace) {
+            loaded = true;
+            List<URL> urls = new ArrayList<>();
+            for (File aar : key.aars) {
+                File classes = new File(aar.getPath() + File.separator + "jars" + File.separator + "classes.jar");
+                if (classes.exists() && classes.isFile()) {
+                    try {
+                        urls.add(classes.toURI().toURL());
+                    } catch (MalformedURLException ex) {
+                    }
+                }
+            }
+            for (File jar : key.jars) {
+                if (jar.exists() && jar.isFile()) {
+                    try {
+                        urls.add(jar.toURI().toURL());
+                    } catch (MalformedURLException ex) {
+                    }
+                }
+            }
+            try {
+                ClassLoader moduleClassLoader = LayoutLibrary.class.getClassLoader();
+                classLoader = new LayoutClassLoader(urls.toArray(new URL[urls.size()]), key.aars, moduleClassLoader, appNamespace);
+                //load Bridge with arr classpath
+                layoutLibrary = LayoutLibraryLoader.load(key.platformFolder, classLoader);
+            } catch (RenderingException | IOException ex) {
+                LOG.log(Level.SEVERE, null, ex);
+            }
+        }
+
+        public LayoutClassLoader getClassLoader() {
+            return classLoader;
+        }
+
+        public LayoutLibrary getLayoutLibrary() {
+            return layoutLibrary;
+        }
+    }
+
+    private static final class Key {
+
+        private final File platformFolder;
+        private final List<File> aars;
+        private final List<File> jars;
+
+        Key(File platformFolder, List<File> aars, List<File> jars) {
+            this.platformFolder = platformFolder;
+            this.aars = new ArrayList<>(aars);
+            this.jars = new ArrayList<>(jars);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = platformFolder.hashCode();
+            hash = 31 * hash + aars.hashCode();
+            hash = 31 * hash + jars.hashCode();
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return platformFolder.equals(other.platformFolder) && aars.equals(other.aars) && jars.equals(other.jars);
+        }
+    }
+}
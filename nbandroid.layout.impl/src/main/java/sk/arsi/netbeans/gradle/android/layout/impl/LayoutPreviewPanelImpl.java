@@ -19,40 +19,26 @@
 package sk.arsi.netbeans.gradle.android.layout.impl;
 
 import com.android.ide.common.rendering.api.ILayoutPullParser;
-import com.android.ide.common.rendering.api.LayoutLog;
 import com.android.ide.common.rendering.api.RenderSession;
 import com.android.ide.common.rendering.api.ResourceNamespace;
-import com.android.ide.common.rendering.api.ResourceReference;
 import com.android.ide.common.rendering.api.ResourceValue;
 import com.android.ide.common.rendering.api.Result;
 import com.android.ide.common.rendering.api.SessionParams;
 import com.android.ide.common.rendering.api.StyleResourceValue;
-import com.android.ide.common.resources.FileStatus;
-import com.android.ide.common.resources.MergerResourceRepository;
-import com.android.ide.common.resources.MergingException;
-import com.android.ide.common.resources.ResourceMerger;
-import com.android.ide.common.resources.ResourceSet;
 import com.android.ide.common.resources.ResourceValueMap;
-import com.android.ide.common.resources.configuration.FolderConfiguration;
-import com.android.ide.common.resources.configuration.VersionQualifier;
-import com.android.ide.common.util.DisjointUnionMap;
-import com.android.layoutlib.bridge.android.RenderParamsFlags;
-import com.android.resources.Keyboard;
-import com.android.resources.KeyboardState;
-import com.android.resources.Navigation;
 import com.android.resources.ResourceType;
 import com.android.resources.ResourceUrl;
-import com.android.resources.ScreenOrientation;
-import com.android.resources.ScreenRatio;
-import com.android.resources.ScreenSize;
-import com.android.resources.TouchScreen;
 import com.android.tools.nbandroid.layoutlib.ConfigGenerator;
 import com.android.tools.nbandroid.layoutlib.LayoutLibrary;
-import com.android.tools.nbandroid.layoutlib.LayoutLibraryLoader;
 import com.android.tools.nbandroid.layoutlib.RenderingException;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
@@ -67,37 +53,38 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.StringTokenizer;
 import java.util.Vector;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import javax.swing.BoxLayout;
 import javax.swing.DefaultComboBoxModel;
+import javax.swing.JButton;
 import javax.swing.JPanel;
+import javax.swing.JToggleButton;
 import javax.swing.Scrollable;
 import javax.swing.SwingUtilities;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import org.netbeans.api.io.ShowOperation;
+import org.openide.DialogDescriptor;
+import org.openide.DialogDisplayer;
 import org.openide.filesystems.FileAttributeEvent;
 import org.openide.filesystems.FileChangeListener;
+import org.openide.filesystems.FileChooserBuilder;
 import org.openide.filesystems.FileEvent;
 import org.openide.filesystems.FileObject;
 import org.openide.filesystems.FileRenameEvent;
 import org.openide.filesystems.FileUtil;
-import org.openide.util.Exceptions;
+import org.openide.util.NbBundle;
 import org.openide.util.RequestProcessor;
 import org.openide.util.WeakListeners;
 import sk.arsi.netbeans.gradle.android.layout.impl.android.ResourceResolver;
-import sk.arsi.netbeans.gradle.android.layout.impl.v2.AarResourceSet;
 import sk.arsi.netbeans.gradle.android.layout.spi.LayoutPreviewPanel;
 
 /**
@@ -109,8 +96,8 @@ public class LayoutPreviewPanelImpl extends LayoutPreviewPanel implements Runnab
     private BufferedImage image = null;
     private int dpi;
     private LayoutLibrary layoutLibrary;
-    private final AtomicBoolean refreshLock = new AtomicBoolean(false);
     private static final RequestProcessor RP = new RequestProcessor(LayoutPreviewPanel.class);
+    private final RenderScheduler scheduler = new RenderScheduler(RP, this);
     private final ImagePanel imagePanel = new ImagePanel();
     private static final String WINDOW_SIZE = "Window size";
     private int imageWidth = 100;
@@ -122,13 +109,31 @@ public class LayoutPreviewPanelImpl extends LayoutPreviewPanel implements Runnab
     private final DefaultComboBoxModel model = new DefaultComboBoxModel(new String[]{WINDOW_SIZE, "1920x1080", "1920x1200", "1600x2560", "1080x1920", "1280x800", "1280x768"});
     private LayoutClassLoader uRLClassLoader;
     private ArrayList<ResourceValue> resourceLookupChain;
-    private ResourceMerger projectResourceMerger;
-    private ResourceSet projectResourceSet;
-    private MergerResourceRepository projectResourceRepository;
+    private LayoutRenderEngine engine;
+    private FileChangeListener resourcesListener;
     private FileObject layoutFileObject;
     private final File appResFolder;
     private final List<String> themes = new ArrayList<>();
     private DelayedFileChangeListener delayedFileChangeListener;
+    private boolean disposed = false;
+    //live rendering state, used only from RP
+    private RenderSession session;
+    private RenderInputs sessionInputs;
+    private ResourceResolver sessionResolver;
+    private RenderInputs resolverInputs;
+    private LayoutLibCallback layoutLibCallback;
+    private int callbackClassesVersion = -1;
+    private final AtomicInteger layoutVersion = new AtomicInteger(0);
+    private final AtomicInteger classesVersion = new AtomicInteger(0);
+    private final AtomicInteger resourcesVersion = new AtomicInteger(0);
+    //matrix mode
+    private final RenderMatrix renderMatrix = new RenderMatrix();
+    private final RenderMatrixPanel matrixPanel = new RenderMatrixPanel();
+    private final JToggleButton matrixMode = new JToggleButton(NbBundle.getMessage(LayoutPreviewPanelImpl.class, "LayoutPreviewPanelImpl.matrixMode.text"));
+    private final JButton matrixExport = new JButton(NbBundle.getMessage(LayoutPreviewPanelImpl.class, "LayoutPreviewPanelImpl.matrixExport.text"));
+    //profiling overlay
+    private final JToggleButton profileOverlay = new JToggleButton(NbBundle.getMessage(LayoutPreviewPanelImpl.class, "LayoutPreviewPanelImpl.profileOverlay.text"));
+    private volatile RenderProfile profile;
 
     /**
      * Creates new form LayoutPreviewPanelImpl1
@@ -150,6 +155,34 @@ public class LayoutPreviewPanelImpl extends LayoutPreviewPanel implements Runnab
         previewSize.addActionListener(LayoutPreviewPanelImpl.this);
         previewSize.setEditable(true);
         scrollPane.setViewportView(imagePanel);
+        matrixMode.setToolTipText(NbBundle.getMessage(LayoutPreviewPanelImpl.class, "LayoutPreviewPanelImpl.matrixMode.toolTipText"));
+        matrixMode.setFocusable(false);
+        matrixMode.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                matrixModeChanged();
+            }
+        });
+        matrixExport.setToolTipText(NbBundle.getMessage(LayoutPreviewPanelImpl.class, "LayoutPreviewPanelImpl.matrixExport.toolTipText"));
+        matrixExport.setFocusable(false);
+        matrixExport.setEnabled(false);
+        matrixExport.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                exportMatrix();
+            }
+        });
+        toolbar.add(matrixMode);
+        toolbar.add(matrixExport);
+        profileOverlay.setToolTipText(NbBundle.getMessage(LayoutPreviewPanelImpl.class, "LayoutPreviewPanelImpl.profileOverlay.toolTipText"));
+        profileOverlay.setFocusable(false);
+        profileOverlay.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                imagePanel.repaint();
+            }
+        });
+        toolbar.add(profileOverlay);
         themeMode.addChangeListener(new ChangeListener() {
             @Override
             public void stateChanged(ChangeEvent event) {
@@ -172,37 +205,29 @@ public class LayoutPreviewPanelImpl extends LayoutPreviewPanel implements Runnab
                     layoutStream = new FileInputStream(layoutFile);
                 } catch (FileNotFoundException ex) {
                 }
-                List<URL> urls = new ArrayList<>();
-                for (File aar : aars) {
-                    File classes = new File(aar.getPath() + File.separator + "jars" + File.separator + "classes.jar");
-                    if (classes.exists() && classes.isFile()) {
-                        try {
-                            urls.add(classes.toURI().toURL());
-                        } catch (MalformedURLException ex) {
-                        }
-                    }
+                //shared Bridge with arr classpath and resources shared by all panels of the module
+                LayoutRenderEngine newEngine;
+                try {
+                    newEngine = LayoutRenderEngine.open(platformFolder, appResFolder, aars, jars, projectClassesFolder, projectR, appPackage);
+                } catch (RenderingException ex) {
+                    LayoutIO.logError(ex.getMessage(), null);
+                    return;
                 }
-                for (File jar : jars) {
-                    if (jar.exists() && jar.isFile()) {
-                        try {
-                            urls.add(jar.toURI().toURL());
-                        } catch (MalformedURLException ex) {
-                        }
+                synchronized (LayoutPreviewPanelImpl.this) {
+                    if (disposed) {
+                        newEngine.close();
+                        return;
                     }
+                    engine = newEngine;
+                    ProjectResourceRepository repository = newEngine.getResourceRepository();
+                    resourcesListener = WeakListeners.create(FileChangeListener.class, LayoutPreviewPanelImpl.this, repository);
+                    repository.addFileChangeListener(resourcesListener);
                 }
-                try {
-                    ClassLoader moduleClassLoader = LayoutLibrary.class.getClassLoader();
-                    uRLClassLoader = new LayoutClassLoader(urls.toArray(new URL[urls.size()]), aars, moduleClassLoader, appNamespace);
-                    //load Bridge with arr classpath
-                    layoutLibrary = LayoutLibraryLoader.load(platformFolder, uRLClassLoader);
-                } catch (RenderingException | IOException ex) {
-                    Logger.getLogger(LayoutPreviewPanelImpl.class.getName()).log(Level.SEVERE, null, ex);
-                }
+                uRLClassLoader = newEngine.getClassLoader();
+                layoutLibrary = newEngine.getLayoutLibrary();
                 addComponentListener(LayoutPreviewPanelImpl.this);
                 scale.addItemListener(LayoutPreviewPanelImpl.this);
                 density.addItemListener(LayoutPreviewPanelImpl.this);
-                FileObject resFo = FileUtil.toFileObject(appResFolder);
-                resFo.addRecursiveListener(WeakListeners.create(FileChangeListener.class, LayoutPreviewPanelImpl.this, resFo));
                 layoutFileObject = FileUtil.toFileObject(layoutFile);
                 refreshPreview();
                 //When compiling project classes, a lot of events will occur, but the last one is enough
@@ -374,31 +399,66 @@ public class LayoutPreviewPanelImpl extends LayoutPreviewPanel implements Runnab
 
     }
 
-    private ConfigGenerator getCurrentConfig() {
+    /**
+     * Return the shared layout library and resources.
+     */
+    @Override
+    public void dispose() {
+        LayoutRenderEngine current;
+        synchronized (this) {
+            disposed = true;
+            current = engine;
+        }
+        scheduler.cancel();
+        renderMatrix.cancel();
+        if (current != null) {
+            current.getResourceRepository().removeFileChangeListener(resourcesListener);
+            current.close();
+        }
+        RP.post(new Runnable() {
+            @Override
+            public void run() {
+                disposeSession();
+            }
+        });
+    }
 
-        ConfigGenerator current = new ConfigGenerator()
-                .setScreenHeight(imageHeight)
-                .setScreenWidth(imageWidth)
-                .setXdpi(dpi)
-                .setYdpi(dpi)
-                .setOrientation(ScreenOrientation.PORTRAIT)
-                .setDensity(((Density) density.getSelectedItem()).getDensity())
-                .setRatio(ScreenRatio.NOTLONG)
-                .setSize(ScreenSize.NORMAL)
-                .setKeyboard(Keyboard.NOKEY)
-                .setTouchScreen(TouchScreen.FINGER)
-                .setKeyboardState(KeyboardState.SOFT)
-                .setSoftButtons(true)
-                .setNavigation(Navigation.NONAV);
-        return current;
+    private void disposeSession() {
+        if (session != null) {
+            session.dispose();
+            session = null;
+        }
+        sessionInputs = null;
+        sessionResolver = null;
+        resolverInputs = null;
+        layoutLibCallback = null;
+        callbackClassesVersion = -1;
+    }
+
+    private ConfigGenerator getCurrentConfig() {
+        return LayoutRenderEngine.createConfig(imageWidth, imageHeight, ((Density) density.getSelectedItem()).getDensity(), dpi);
     }
 
     @Override
     public void run() {
-        refreshLock.set(false);
+        if (layoutLibrary == null) {
+            return;
+        }
+        RenderProfile renderProfile = RenderProfile.begin(layoutFile.getName());
+        try {
+            render();
+        } finally {
+            renderProfile.end();
+            profile = renderProfile;
+            if (profileOverlay.isSelected()) {
+                imagePanel.repaint();
+            }
+        }
+    }
+
+    private void render() {
         LayoutIO.getDefaultIO().reset();
         LayoutIO.logInfo("I'm starting to generate a preview of " + layoutFile.getName());
-        ProjectLayoutClassLoader projectLayoutClassLoader = ProjectLayoutClassLoader.getClassloader(projectClassesFolder, projectR, appPackage, uRLClassLoader);
         if (WINDOW_SIZE.equals(model.getSelectedItem())) {
             imageWidth = imagePanel.getWidth();
             if (imageWidth < 1) {
@@ -409,10 +469,18 @@ public class LayoutPreviewPanelImpl extends LayoutPreviewPanel implements Runnab
                 imageHeight = 100;
             }
         }
-        if (projectResourceMerger == null) {
-            initProjectRepository();
-        } else {
-            projectResourceRepository.update(projectResourceMerger);
+        RenderInputs inputs = new RenderInputs(layoutVersion.get(), classesVersion.get(), resourcesVersion.get(),
+                imageWidth, imageHeight, (Density) density.getSelectedItem(), (String) themeCombo.getSelectedItem(), themeMode.isSelected());
+        if (session != null && inputs.equals(sessionInputs)) {
+            //nothing what the session depends on has changed, only measure and draw again
+            renderSession(true);
+            LayoutIO.logInfo("Preview of " + layoutFile.getName() + " is done.");
+            return;
+        }
+        if (layoutLibCallback == null || callbackClassesVersion != inputs.classesVersion) {
+            //project classes were recompiled, they need a new classloader
+            layoutLibCallback = engine.createCallback(engine.createProjectClassLoader());
+            callbackClassesVersion = inputs.classesVersion;
         }
         imagePanel.label.setText("Loading...");
         imagePanel.label.setVisible(true);
@@ -435,35 +503,41 @@ public class LayoutPreviewPanelImpl extends LayoutPreviewPanel implements Runnab
 
         }
 
+        if (session != null) {
+            session.dispose();
+            session = null;
+        }
+        sessionInputs = null;
         try {
-            RenderSession session = layoutLibrary.createSession(getSessionParams(platformFolder, LayoutFilePullParser.create(layoutStream, appNamespace), getCurrentConfig(), new LayoutLibCallback(new LayoutIO(), aars, uRLClassLoader, appNamespace, projectLayoutClassLoader), themeName, true, SessionParams.RenderingMode.NORMAL, 27));
-            if (session.getResult() != null && session.getResult().getException() != null) {
-                String tmp = session.getResult().getErrorMessage();
+            ConfigGenerator config = getCurrentConfig();
+            //when only the layout changed, the resolved resources stay valid and are reused
+            if (sessionResolver == null || !inputs.sameResources(resolverInputs)) {
+                //resources, theme or configuration changed, resolve them again
+                sessionResolver = createResourceResolver(platformFolder, config);
+                resolverInputs = inputs;
+            }
+            if (scheduler.isObsolete()) {
+                //a newer render is already scheduled, don't inflate a stale state
+                return;
+            }
+            RenderProfile.Mark mark = RenderProfile.mark();
+            RenderSession newSession = layoutLibrary.createSession(getSessionParams(LayoutFilePullParser.create(layoutStream, appNamespace), config, layoutLibCallback, sessionResolver, SessionParams.RenderingMode.NORMAL, 27));
+            RenderProfile.record(RenderProfile.Phase.INFLATE, mark);
+            if (newSession.getResult() != null && newSession.getResult().getException() != null) {
+                String tmp = newSession.getResult().getErrorMessage();
                 if (tmp == null) {
                     tmp = "unable to create rendering sesion";
                 }
                 LayoutIO.getDefaultIO().show(ImmutableSet.of(ShowOperation.OPEN, ShowOperation.MAKE_VISIBLE));
-                LayoutIO.logError(tmp, session.getResult().getException());
+                LayoutIO.logError(tmp, newSession.getResult().getException());
+                newSession.dispose();
                 imagePanel.label.setText("Error rendering layout");
                 imagePanel.label.setVisible(true);
             } else {
-                Result renderResult = session.render();
-                if (renderResult.getException() != null) {
-                    LayoutIO.getDefaultIO().show(ImmutableSet.of(ShowOperation.OPEN, ShowOperation.MAKE_VISIBLE));
-                    String tmp = renderResult.getErrorMessage();
-                    if (tmp == null) {
-                        tmp = "unable to create rendering sesion";
-                    }
-                    LayoutIO.logError(tmp, renderResult.getException());
-                    imagePanel.label.setText("Error rendering layout");
-                    imagePanel.label.setVisible(true);
-                } else if (renderResult.getStatus() == Result.Status.SUCCESS) {
-                    setImage(session.getImage());
-                    imagePanel.label.setVisible(false);
-                    imagePanel.progress.setVisible(false);
-                } else {
-                    LayoutIO.getDefaultIO().show();
-                    LayoutIO.logError("unable to generate layout preview: " + renderResult.getStatus(), null);
+                session = newSession;
+                sessionInputs = inputs;
+                if (!scheduler.isObsolete()) {
+                    renderSession(false);
                 }
             }
         } catch (Exception e) {
@@ -475,20 +549,39 @@ public class LayoutPreviewPanelImpl extends LayoutPreviewPanel implements Runnab
         LayoutIO.logInfo("Preview of " + layoutFile.getName() + " is done.");
     }
 
-    protected SessionParams getSessionParams(File platformFolder, ILayoutPullParser layoutParser,
-            ConfigGenerator configGenerator, LayoutLibCallback layoutLibCallback,
-            String themeName, boolean isProjectTheme, SessionParams.RenderingMode renderingMode,
-            @SuppressWarnings("SameParameterValue") int targetSdk) {
-        //****************
-        FolderConfiguration config = configGenerator.getFolderConfig();
-        config.setVersionQualifier(VersionQualifier.getQualifier(VersionQualifier.getFolderSegment(28)));
+    private void renderSession(boolean forceMeasure) {
+        RenderProfile.Mark mark = RenderProfile.mark();
+        Result renderResult = session.render(LayoutRenderEngine.RENDER_TIMEOUT, forceMeasure);
+        RenderProfile.record(RenderProfile.Phase.RENDER, mark);
+        if (renderResult.getException() != null) {
+            LayoutIO.getDefaultIO().show(ImmutableSet.of(ShowOperation.OPEN, ShowOperation.MAKE_VISIBLE));
+            String tmp = renderResult.getErrorMessage();
+            if (tmp == null) {
+                tmp = "unable to create rendering sesion";
+            }
+            LayoutIO.logError(tmp, renderResult.getException());
+            imagePanel.label.setText("Error rendering layout");
+            imagePanel.label.setVisible(true);
+        } else if (renderResult.getStatus() == Result.Status.SUCCESS) {
+            mark = RenderProfile.mark();
+            BufferedImage rendered = session.getImage();
+            RenderProfile.record(RenderProfile.Phase.IMAGE_COPY, mark);
+            setImage(rendered);
+            imagePanel.label.setVisible(false);
+            imagePanel.progress.setVisible(false);
+        } else {
+            LayoutIO.getDefaultIO().show();
+            LayoutIO.logError("unable to generate layout preview: " + renderResult.getStatus(), null);
+        }
+    }
 
-        //****************
-        File platform_data_dir = new File(platformFolder, "data");
-        File platform_res_dir = new File(platform_data_dir, "res");
-        //****************
-        Map<ResourceNamespace, Map<ResourceType, ResourceValueMap>> allResources
-                = new DisjointUnionMap<>(FrameworkResourcesCache.getOrCreateFrameworkResources(platform_res_dir).getConfiguredResources(config).rowMap(), projectResourceRepository.getConfiguredResources(config).rowMap());
+    /**
+     * Resolve the framework and project resources for the configuration and
+     * the selected theme. The resolver is reused by the following sessions,
+     * until the configuration, theme or resources change.
+     */
+    protected ResourceResolver createResourceResolver(File platformFolder, ConfigGenerator configGenerator) {
+        Map<ResourceNamespace, Map<ResourceType, ResourceValueMap>> allResources = engine.getConfiguredResources(configGenerator.getFolderConfig());
 
         if (themes.isEmpty()) {
             for (Map.Entry<ResourceNamespace, Map<ResourceType, ResourceValueMap>> entry : allResources.entrySet()) {
@@ -519,74 +612,136 @@ public class LayoutPreviewPanelImpl extends LayoutPreviewPanel implements Runnab
             LayoutIO.logInfo("Theme patch, current theme changed to: " + ((String) themeCombo.getSelectedItem()));
             themeUrl = ResourceUrl.parse((String) themeCombo.getSelectedItem());
         }
-        ResourceReference theme = null;
-
-        if (themeUrl != null) {
-            theme = themeUrl.resolve(appNamespace, new ResourceNamespace.Resolver() {
-                @Override
-                public String prefixToUri(String namespacePrefix) {
-                    throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
-                }
-            });
-        }
-        ResourceResolver resourceResolver = ResourceResolver.create(allResources, theme);
+        RenderProfile.Mark mark = RenderProfile.mark();
+        ResourceResolver resourceResolver = ResourceResolver.create(allResources, engine.resolveTheme(themeUrl));
+        RenderProfile.record(RenderProfile.Phase.RESOLVER, mark);
         if (!((String) themeCombo.getSelectedItem()).equals(themeName) && themeMode.isSelected()) {
             //mode parent and another theme is selected
             resourceResolver.patchAutoStyleParent(themeName.replace("@style/", ""), ((String) themeCombo.getSelectedItem()).replace("@style/", ""));
             LayoutIO.logInfo("Theme patch, theme parent changed to: " + ((String) themeCombo.getSelectedItem()));
         }
         resourceResolver.setDeviceDefaults("Material");
+        return resourceResolver;
+    }
+
+    protected SessionParams getSessionParams(ILayoutPullParser layoutParser,
+            ConfigGenerator configGenerator, LayoutLibCallback layoutLibCallback,
+            ResourceResolver resourceResolver, SessionParams.RenderingMode renderingMode,
+            @SuppressWarnings("SameParameterValue") int targetSdk) {
         resourceLookupChain = new ArrayList<>();
-        SessionParams sessionParams
-                = new SessionParams(layoutParser, renderingMode, null /*used for caching*/,
-                        configGenerator.getHardwareConfig(), resourceResolver.createRecorder(resourceLookupChain), layoutLibCallback, 0,
-                        targetSdk, new LayoutLog());
-        sessionParams.setFlag(RenderParamsFlags.FLAG_DO_NOT_RENDER_ON_CREATE, true);
-        sessionParams.setAssetRepository(new LayoutAssetRepository());
-        return sessionParams;
-    }
-
-    private void initProjectRepository() {
-        //************
-        projectResourceMerger = new ResourceMerger(0);
-        for (File aar : aars) {
-            File resFolder = new File(aar.getPath() + File.separator + "res");
-            if (resFolder.exists() && resFolder.isDirectory()) {
-                AarResourceSet aarSet = new AarResourceSet(aar.getName(), ResourceNamespace.RES_AUTO, aar.getName(), false);
-                aarSet.addSource(resFolder);
-                aarSet.setShouldParseResourceIds(false);
-                aarSet.setTrackSourcePositions(true);
-                aarSet.setCheckDuplicates(true);
-                try {
-                    aarSet.loadFromFiles(new LayoutIO());
-                    projectResourceMerger.addDataSet(aarSet);
-                } catch (MergingException ex) {
-                    Exceptions.printStackTrace(ex);
-                }
+        return engine.createSessionParams(layoutParser, configGenerator, layoutLibCallback, resourceResolver, renderingMode, targetSdk, resourceLookupChain);
+    }
+
+    private void matrixModeChanged() {
+        if (!matrixMode.isSelected()) {
+            renderMatrix.cancel();
+            matrixExport.setEnabled(false);
+            scrollPane.setViewportView(imagePanel);
+            refreshPreview();
+            return;
+        }
+        List<String> sizes = new ArrayList<>();
+        for (int i = 0; i < model.getSize(); i++) {
+            if (!WINDOW_SIZE.equals(model.getElementAt(i))) {
+                sizes.add((String) model.getElementAt(i));
             }
         }
+        List<String> themeList = new ArrayList<>();
+        for (int i = 0; i < themeCombo.getItemCount(); i++) {
+            themeList.add(themeCombo.getItemAt(i));
+        }
+        RenderMatrixSetup setup = new RenderMatrixSetup(sizes, (Density) density.getSelectedItem(), themeList, (String) themeCombo.getSelectedItem());
+        DialogDescriptor descriptor = new DialogDescriptor(setup, NbBundle.getMessage(LayoutPreviewPanelImpl.class, "LayoutPreviewPanelImpl.matrixSetup.title", layoutFile.getName()));
+        final List<RenderMatrix.Cell> cells = DialogDisplayer.getDefault().notify(descriptor) == DialogDescriptor.OK_OPTION
+                ? setup.getCells() : Collections.<RenderMatrix.Cell>emptyList();
+        if (cells.isEmpty()) {
+            matrixMode.setSelected(false);
+            return;
+        }
+        matrixPanel.setCells(cells);
+        scrollPane.setViewportView(matrixPanel);
+        matrixExport.setEnabled(true);
+        RP.post(new Runnable() {
+            @Override
+            public void run() {
+                startMatrix(cells);
+            }
+        });
+    }
 
-        projectResourceSet = new ResourceSet("project", ResourceNamespace.RES_AUTO, "project", false);
-        projectResourceSet.addSource(appResFolder);
-        projectResourceSet.setShouldParseResourceIds(true);
-        projectResourceSet.setTrackSourcePositions(false);
-        projectResourceSet.setCheckDuplicates(false);
+    /**
+     * Start rendering of the matrix, called from RP, which owns the layout
+     * stream.
+     */
+    private void startMatrix(List<RenderMatrix.Cell> cells) {
+        if (layoutLibrary == null) {
+            return;
+        }
+        final byte[] layout = readLayout();
+        final ProjectLayoutClassLoader projectLayoutClassLoader = engine.createProjectClassLoader();
+        renderMatrix.render(cells, new RenderMatrix.Renderer() {
+            @Override
+            public BufferedImage render(RenderMatrix.Cell cell) throws Exception {
+                return engine.render(layout, cell, themeName, projectLayoutClassLoader).getImage();
+            }
+        }, new RenderMatrix.Listener() {
+            @Override
+            public void rendered(final RenderMatrix.Cell cell, final BufferedImage image, final String error) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (image != null) {
+                            matrixPanel.setImage(cell, image);
+                        } else {
+                            matrixPanel.setError(cell, error);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private byte[] readLayout() {
+        if (layoutStream != null && !(layoutStream instanceof FileInputStream)) {
+            try {
+                layoutStream.reset();
+                byte[] layout = ByteStreams.toByteArray(layoutStream);
+                layoutStream.reset();
+                return layout;
+            } catch (IOException ex) {
+            }
+        }
         try {
-            projectResourceSet.loadFromFiles(new LayoutIO());
-            projectResourceMerger.addDataSet(projectResourceSet);
-        } catch (MergingException ex) {
-            Exceptions.printStackTrace(ex);
+            return Files.readAllBytes(layoutFile.toPath());
+        } catch (IOException ex) {
+            return new byte[0];
+        }
+    }
+
+    private void exportMatrix() {
+        if (!matrixPanel.hasImages()) {
+            return;
+        }
+        File folder = new FileChooserBuilder(LayoutPreviewPanelImpl.class)
+                .setDirectoriesOnly(true)
+                .setTitle(NbBundle.getMessage(LayoutPreviewPanelImpl.class, "LayoutPreviewPanelImpl.matrixExport.title"))
+                .setApproveText(NbBundle.getMessage(LayoutPreviewPanelImpl.class, "LayoutPreviewPanelImpl.matrixExport.approve"))
+                .showSaveDialog();
+        if (folder == null) {
+            return;
+        }
+        String prefix = layoutFile.getName().replaceFirst("\\.xml$", "");
+        try {
+            List<File> files = matrixPanel.exportPng(folder, prefix);
+            LayoutIO.logInfo("Exported " + files.size() + " PNG files to " + folder);
+        } catch (IOException ex) {
+            LayoutIO.logError("unable to export PNG files", ex);
         }
-        //**
-        projectResourceRepository = new MergerResourceRepository();
-        projectResourceRepository.update(projectResourceMerger);
     }
 
     @Override
     public void componentResized(ComponentEvent e) {
-        if (refreshLock.compareAndSet(false, true)) {
-            RP.execute(LayoutPreviewPanelImpl.this);
-        }
+        scheduler.schedule();
     }
 
     @Override
@@ -668,9 +823,15 @@ public class LayoutPreviewPanelImpl extends LayoutPreviewPanel implements Runnab
     }
 
     public void refreshPreview() {
-        if (refreshLock.compareAndSet(false, true)) {
-            RP.execute(LayoutPreviewPanelImpl.this);
-        }
+        scheduler.scheduleNow();
+    }
+
+    /**
+     * Project classes were compiled, custom views have to be loaded again.
+     */
+    public void classesChanged() {
+        classesVersion.incrementAndGet();
+        refreshPreview();
     }
 
     @Override
@@ -681,6 +842,7 @@ public class LayoutPreviewPanelImpl extends LayoutPreviewPanel implements Runnab
     @Override
     public void refreshPreview(InputStream stream) {
         layoutStream = stream;
+        layoutVersion.incrementAndGet();
         imagePanel.label.setVisible(false);
         typingProgress.set(0);
         refreshPreview();
@@ -710,22 +872,8 @@ public class LayoutPreviewPanelImpl extends LayoutPreviewPanel implements Runnab
         if (fe.getFile().equals(layoutFileObject)) {
             return;
         }
-        File createdFile = FileUtil.toFile(fe.getFile());
-        try {
-            projectResourceSet.updateWith(appResFolder, createdFile, FileStatus.NEW, new LayoutIO());
-        } catch (Exception ex) {
-        }
-        Runnable runnable = new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException ex) {
-                }
-                refreshPreview();
-            }
-        };
-        RP.execute(runnable);
+        resourcesVersion.incrementAndGet();
+        scheduler.schedule();
     }
 
     @Override
@@ -733,22 +881,8 @@ public class LayoutPreviewPanelImpl extends LayoutPreviewPanel implements Runnab
         if (fe.getFile().equals(layoutFileObject)) {
             return;
         }
-        File createdFile = FileUtil.toFile(fe.getFile());
-        try {
-            projectResourceSet.updateWith(appResFolder, createdFile, FileStatus.CHANGED, new LayoutIO());
-        } catch (Exception ex) {
-        }
-        Runnable runnable = new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException ex) {
-                }
-                refreshPreview();
-            }
-        };
-        RP.execute(runnable);
+        resourcesVersion.incrementAndGet();
+        scheduler.schedule();
     }
 
     @Override
@@ -756,22 +890,8 @@ public class LayoutPreviewPanelImpl extends LayoutPreviewPanel implements Runnab
         if (fe.getFile().equals(layoutFileObject)) {
             return;
         }
-        File createdFile = FileUtil.toFile(fe.getFile());
-        try {
-            projectResourceSet.updateWith(appResFolder, createdFile, FileStatus.REMOVED, new LayoutIO());
-        } catch (Exception ex) {
-        }
-        Runnable runnable = new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException ex) {
-                }
-                refreshPreview();
-            }
-        };
-        RP.execute(runnable);
+        resourcesVersion.incrementAndGet();
+        scheduler.schedule();
     }
 
     @Override
@@ -782,6 +902,62 @@ public class LayoutPreviewPanelImpl extends LayoutPreviewPanel implements Runnab
     public void fileAttributeChanged(FileAttributeEvent fe) {
     }
 
+    /**
+     * Everything a render session depends on. A session is reused, as long as
+     * its inputs are equal.
+     */
+    private static final class RenderInputs {
+
+        private final int layoutVersion;
+        private final int classesVersion;
+        private final int resourcesVersion;
+        private final int width;
+        private final int height;
+        private final Density density;
+        private final String theme;
+        private final boolean parentMode;
+
+        RenderInputs(int layoutVersion, int classesVersion, int resourcesVersion, int width, int height, Density density, String theme, boolean parentMode) {
+            this.layoutVersion = layoutVersion;
+            this.classesVersion = classesVersion;
+            this.resourcesVersion = resourcesVersion;
+            this.width = width;
+            this.height = height;
+            this.density = density;
+            this.theme = theme;
+            this.parentMode = parentMode;
+        }
+
+        /**
+         * Check, if the resolved resources of the other inputs can be used.
+         */
+        boolean sameResources(RenderInputs other) {
+            return other != null
+                    && resourcesVersion == other.resourcesVersion
+                    && width == other.width
+                    && height == other.height
+                    && density == other.density
+                    && Objects.equals(theme, other.theme)
+                    && parentMode == other.parentMode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof RenderInputs)) {
+                return false;
+            }
+            RenderInputs other = (RenderInputs) obj;
+            return layoutVersion == other.layoutVersion
+                    && classesVersion == other.classesVersion
+                    && sameResources(other);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(layoutVersion, classesVersion, resourcesVersion, width, height, density, theme, parentMode);
+        }
+    }
+
     private class ImagePanel extends JPanel implements Scrollable {
 
         private javax.swing.JPanel jPanel1;
@@ -875,7 +1051,51 @@ public class LayoutPreviewPanelImpl extends LayoutPreviewPanel implements Runnab
                     g.drawImage(image, 0, 0, this);
                 }
             }
+            if (profileOverlay.isSelected() && profile != null) {
+                paintProfile(g, profile);
+            }
+        }
 
+        /**
+         * Phases of the last render and the total times of the previous
+         * renders of this layout, newest on the right.
+         */
+        private void paintProfile(Graphics g, RenderProfile last) {
+            List<String> lines = last.toLines();
+            List<Long> totals = new ArrayList<>();
+            long max = 1;
+            for (RenderProfile previous : RenderProfile.getHistory()) {
+                if (previous.getName().equals(last.getName())) {
+                    totals.add(previous.getTotalNanos());
+                    max = Math.max(max, previous.getTotalNanos());
+                }
+            }
+            Graphics2D g2 = (Graphics2D) g.create();
+            g2.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+            FontMetrics metrics = g2.getFontMetrics();
+            int lineHeight = metrics.getHeight();
+            int chartHeight = 30;
+            int width = 0;
+            for (String line : lines) {
+                width = Math.max(width, metrics.stringWidth(line));
+            }
+            width = Math.max(width, totals.size() * 3) + 10;
+            int height = lines.size() * lineHeight + chartHeight + 15;
+            g2.setColor(new Color(0, 0, 0, 180));
+            g2.fillRect(5, 5, width, height);
+            g2.setColor(Color.WHITE);
+            int y = 10 + metrics.getAscent();
+            for (String line : lines) {
+                g2.drawString(line, 10, y);
+                y += lineHeight;
+            }
+            int bottom = 5 + height - 5;
+            g2.setColor(Color.ORANGE);
+            for (int i = 0; i < totals.size(); i++) {
+                int bar = (int) Math.max(1, totals.get(i) * chartHeight / max);
+                g2.fillRect(10 + i * 3, bottom - bar, 2, bar);
+            }
+            g2.dispose();
         }
 
         @Override
@@ -0,0 +1,400 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package sk.arsi.netbeans.gradle.android.layout.impl;
+
+import com.android.resources.ScreenOrientation;
+import com.android.tools.nbandroid.layoutlib.RenderingException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import javax.imageio.ImageIO;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Command line renderer of all layouts of a module, used to create screenshot
+ * baselines on a build server. It needs no IDE and no display, only the SDK
+ * platform folder and the module resources:
+ * <pre>
+ * java -cp &lt;module and dependency jars&gt; sk.arsi.netbeans.gradle.android.layout.impl.LayoutRenderCli \
+ *     --platform $ANDROID_HOME/platforms/android-28 --res app/src/main/res --out build/layouts \
+ *     --config 1080x1920:xxhdpi:port --config 1920x1080:xhdpi:land:de-rDE --threads 4
+ * </pre> Every layout is rendered in every configuration to
+ * {@code <out>/<layout folder>/<layout name>/<configuration>.png}, the time
+ * spent in each render and its {@link RenderProfile} are written to
+ * {@code <out>/timings.json}. The exit code is 0 when all renders succeeded,
+ * 1 when some of them failed and 2 on wrong arguments. {@code --repeat n}
+ * renders every layout n times with the same class loader, which benchmarks
+ * the warm view inflation of large layouts.
+ *
+ * @author arsi
+ */
+public final class LayoutRenderCli {
+
+    private static final String DEFAULT_CONFIG = "1080x1920:xxhdpi:port";
+    private static final String DEFAULT_THEME = "@android:style/Theme.Material.Light";
+
+    private File platformFolder;
+    private File resFolder;
+    private File outFolder;
+    private File classesFolder;
+    private File rFile;
+    private String appPackage = "";
+    private String theme = DEFAULT_THEME;
+    private int threads = RenderMatrix.THREADS;
+    private int repeat = 1;
+    private final List<File> aars = new ArrayList<>();
+    private final List<File> jars = new ArrayList<>();
+    private final List<String> configs = new ArrayList<>();
+
+    private LayoutRenderCli() {
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        LayoutRenderCli cli = new LayoutRenderCli();
+        try {
+            cli.parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            usage(System.err);
+            System.exit(2);
+        }
+        try {
+            System.exit(cli.run());
+        } catch (IOException | RenderingException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("--help".equals(arg)) {
+                usage(System.out);
+                System.exit(0);
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value of " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--platform":
+                    platformFolder = new File(value);
+                    break;
+                case "--res":
+                    resFolder = new File(value);
+                    break;
+                case "--out":
+                    outFolder = new File(value);
+                    break;
+                case "--aar":
+                    aars.add(new File(value));
+                    break;
+                case "--jar":
+                    jars.add(new File(value));
+                    break;
+                case "--classes":
+                    classesFolder = new File(value);
+                    break;
+                case "--r":
+                    rFile = new File(value);
+                    break;
+                case "--package":
+                    appPackage = value;
+                    break;
+                case "--theme":
+                    theme = value;
+                    break;
+                case "--config":
+                    configs.add(value);
+                    break;
+                case "--threads":
+                    try {
+                        threads = Math.max(1, Integer.parseInt(value));
+                    } catch (NumberFormatException ex) {
+                        throw new IllegalArgumentException("Invalid number of threads: " + value);
+                    }
+                    break;
+                case "--repeat":
+                    try {
+                        repeat = Math.max(1, Integer.parseInt(value));
+                    } catch (NumberFormatException ex) {
+                        throw new IllegalArgumentException("Invalid number of repeats: " + value);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+        if (platformFolder == null || resFolder == null || outFolder == null) {
+            throw new IllegalArgumentException("--platform, --res and --out are required");
+        }
+        if (!platformFolder.isDirectory()) {
+            throw new IllegalArgumentException("Platform folder not found: " + platformFolder);
+        }
+        if (!resFolder.isDirectory()) {
+            throw new IllegalArgumentException("Resource folder not found: " + resFolder);
+        }
+        if (configs.isEmpty()) {
+            configs.add(DEFAULT_CONFIG);
+        }
+    }
+
+    private static void usage(PrintStream out) {
+        out.println("Usage: LayoutRenderCli --platform <sdk platform folder> --res <res folder> --out <folder> [options]");
+        out.println("  --config <width>x<height>:<density>:<port|land>[:<locale>[:<theme>]]");
+        out.println("                      configuration to render, may be repeated, default " + DEFAULT_CONFIG);
+        out.println("  --theme <theme>     default theme, default " + DEFAULT_THEME);
+        out.println("  --threads <n>       number of worker threads, default " + RenderMatrix.THREADS);
+        out.println("  --repeat <n>        render every layout n times, to benchmark warm renders, default 1");
+        out.println("  --aar <folder>      exploded aar dependency, may be repeated");
+        out.println("  --jar <file>        jar dependency, may be repeated");
+        out.println("  --classes <folder>  compiled classes of the module");
+        out.println("  --r <file>          R.txt of the module");
+        out.println("  --package <name>    package of the module R class");
+    }
+
+    private int run() throws IOException, RenderingException {
+        List<RenderMatrix.Cell> cells = new ArrayList<>();
+        for (String config : configs) {
+            cells.add(parseConfig(config));
+        }
+        List<File> layouts = findLayouts(resFolder);
+        if (layouts.isEmpty()) {
+            System.err.println("No layouts found in " + resFolder);
+            return 0;
+        }
+        Files.createDirectories(outFolder.toPath());
+        long start = System.nanoTime();
+        final List<Job> jobs = new ArrayList<>();
+        try (LayoutRenderEngine engine = LayoutRenderEngine.open(platformFolder, resFolder, aars, jars, classesFolder, rFile, appPackage)) {
+            ProjectLayoutClassLoader projectClassLoader = engine.createProjectClassLoader();
+            RequestProcessor rp = new RequestProcessor(LayoutRenderCli.class.getName(), threads);
+            List<RequestProcessor.Task> tasks = new ArrayList<>();
+            for (File layout : layouts) {
+                byte[] bytes = Files.readAllBytes(layout.toPath());
+                for (RenderMatrix.Cell cell : cells) {
+                    Job job = new Job(engine, projectClassLoader, layout, bytes, cell);
+                    jobs.add(job);
+                    tasks.add(rp.post(job));
+                }
+            }
+            for (RequestProcessor.Task task : tasks) {
+                task.waitFinished();
+            }
+            rp.shutdown();
+        }
+        long total = System.nanoTime() - start;
+        writeTimings(new File(outFolder, "timings.json"), jobs, total);
+        int failed = 0;
+        for (Job job : jobs) {
+            if (job.error != null) {
+                failed++;
+                System.err.println(job.getName() + ": " + job.error);
+            }
+        }
+        System.out.println("Rendered " + (jobs.size() - failed) + " of " + jobs.size() + " images in " + millis(total) + " ms");
+        return failed == 0 ? 0 : 1;
+    }
+
+    private RenderMatrix.Cell parseConfig(String config) {
+        String[] parts = config.split(":", 5);
+        if (parts.length < 3) {
+            throw new IllegalArgumentException("Invalid configuration: " + config);
+        }
+        String[] size = parts[0].split("x");
+        int width;
+        int height;
+        try {
+            width = Integer.parseInt(size[0]);
+            height = Integer.parseInt(size[1]);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+            throw new IllegalArgumentException("Invalid size: " + parts[0]);
+        }
+        Density density = null;
+        for (Density value : Density.values()) {
+            if (value.getDensity().getResourceValue().equals(parts[1])) {
+                density = value;
+            }
+        }
+        if (density == null) {
+            throw new IllegalArgumentException("Invalid density: " + parts[1]);
+        }
+        ScreenOrientation orientation = ScreenOrientation.getEnum(parts[2]);
+        if (orientation == null) {
+            throw new IllegalArgumentException("Invalid orientation: " + parts[2]);
+        }
+        String locale = parts.length > 3 && !parts[3].isEmpty() ? parts[3] : null;
+        String cellTheme = parts.length > 4 && !parts[4].isEmpty() ? parts[4] : null;
+        return new RenderMatrix.Cell(width, height, density, orientation, locale, cellTheme);
+    }
+
+    /**
+     * All layout files of the layout folders, sorted by path.
+     */
+    private static List<File> findLayouts(File resFolder) {
+        List<File> layouts = new ArrayList<>();
+        File[] folders = resFolder.listFiles();
+        if (folders == null) {
+            return layouts;
+        }
+        Arrays.sort(folders);
+        for (File folder : folders) {
+            if (!folder.isDirectory() || !(folder.getName().equals("layout") || folder.getName().startsWith("layout-"))) {
+                continue;
+            }
+            File[] files = folder.listFiles();
+            if (files == null) {
+                continue;
+            }
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.isFile() && file.getName().endsWith(".xml")) {
+                    layouts.add(file);
+                }
+            }
+        }
+        return layouts;
+    }
+
+    private void writeTimings(File file, List<Job> jobs, long total) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            out.write("{\n");
+            out.write("  \"threads\": " + threads + ",\n");
+            out.write("  \"repeat\": " + repeat + ",\n");
+            out.write("  \"totalMillis\": " + millis(total) + ",\n");
+            out.write("  \"renders\": [");
+            for (int i = 0; i < jobs.size(); i++) {
+                Job job = jobs.get(i);
+                out.write(i == 0 ? "\n" : ",\n");
+                out.write("    {\"layout\": " + quote(job.getName())
+                        + ", \"config\": " + quote(job.cell.getLabel())
+                        + ", \"file\": " + quote(job.error == null ? outFolder.toPath().relativize(job.getOutput().toPath()).toString() : null)
+                        + ", \"resolveMillis\": " + millis(job.resolveNanos)
+                        + ", \"inflateMillis\": " + millis(job.inflateNanos)
+                        + ", \"renderMillis\": " + millis(job.renderNanos)
+                        + ", \"writeMillis\": " + millis(job.writeNanos)
+                        + ", \"firstMillis\": " + millis(job.firstNanos)
+                        + ", \"averageMillis\": " + millis(job.iterations > 0 ? job.sumNanos / job.iterations : 0)
+                        + ", \"error\": " + quote(job.error)
+                        + ", \"profile\": " + job.profile.toJson() + "}");
+            }
+            out.write("\n  ]\n}\n");
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1000000.0);
+    }
+
+    private static String quote(String s) {
+        if (s == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < ' ') {
+                sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Render of one layout in one configuration.
+     */
+    private final class Job implements Runnable {
+
+        private final LayoutRenderEngine engine;
+        private final ProjectLayoutClassLoader projectClassLoader;
+        private final File layout;
+        private final byte[] bytes;
+        private final RenderMatrix.Cell cell;
+        private long resolveNanos;
+        private long inflateNanos;
+        private long renderNanos;
+        private long writeNanos;
+        private long firstNanos;
+        private long sumNanos;
+        private int iterations;
+        private String error;
+        private RenderProfile profile;
+
+        Job(LayoutRenderEngine engine, ProjectLayoutClassLoader projectClassLoader, File layout, byte[] bytes, RenderMatrix.Cell cell) {
+            this.engine = engine;
+            this.projectClassLoader = projectClassLoader;
+            this.layout = layout;
+            this.bytes = bytes;
+            this.cell = cell;
+        }
+
+        String getName() {
+            return layout.getParentFile().getName() + "/" + layout.getName();
+        }
+
+        File getOutput() {
+            String name = layout.getName().substring(0, layout.getName().length() - ".xml".length());
+            return new File(new File(new File(outFolder, layout.getParentFile().getName()), name), cell.getFileName() + ".png");
+        }
+
+        @Override
+        public void run() {
+            try {
+                LayoutRenderEngine.Rendering rendering = null;
+                //the phases and the profile of the last, warmest iteration are reported
+                for (int i = 0; i < repeat; i++) {
+                    profile = RenderProfile.begin(getName());
+                    try {
+                        rendering = engine.render(bytes, cell, theme, projectClassLoader);
+                    } finally {
+                        profile.end();
+                    }
+                    if (i == 0) {
+                        firstNanos = profile.getTotalNanos();
+                    }
+                    sumNanos += profile.getTotalNanos();
+                    iterations++;
+                }
+                resolveNanos = rendering.getResolveNanos();
+                inflateNanos = rendering.getInflateNanos();
+                renderNanos = rendering.getRenderNanos();
+                long start = System.nanoTime();
+                File output = getOutput();
+                Files.createDirectories(output.getParentFile().toPath());
+                ImageIO.write(rendering.getImage(), "png", output);
+                writeNanos = System.nanoTime() - start;
+            } catch (Exception ex) {
+                error = ex.getMessage() != null ? ex.getMessage() : ex.toString();
+            }
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package sk.arsi.netbeans.gradle.android.layout.impl;
+
+import com.android.SdkConstants;
+import com.android.ide.common.rendering.api.ILayoutPullParser;
+import com.android.ide.common.rendering.api.LayoutLog;
+import com.android.ide.common.rendering.api.RenderSession;
+import com.android.ide.common.rendering.api.ResourceNamespace;
+import com.android.ide.common.rendering.api.ResourceReference;
+import com.android.ide.common.rendering.api.ResourceValue;
+import com.android.ide.common.rendering.api.Result;
+import com.android.ide.common.rendering.api.SessionParams;
+import com.android.ide.common.resources.ResourceValueMap;
+import com.android.ide.common.resources.configuration.FolderConfiguration;
+import com.android.ide.common.resources.configuration.LocaleQualifier;
+import com.android.ide.common.resources.configuration.VersionQualifier;
+import com.android.ide.common.util.DisjointUnionMap;
+import com.android.layoutlib.bridge.android.RenderParamsFlags;
+import com.android.resources.Keyboard;
+import com.android.resources.KeyboardState;
+import com.android.resources.Navigation;
+import com.android.resources.ResourceType;
+import com.android.resources.ResourceUrl;
+import com.android.resources.ScreenOrientation;
+import com.android.resources.ScreenRatio;
+import com.android.resources.ScreenSize;
+import com.android.resources.TouchScreen;
+import com.android.tools.nbandroid.layoutlib.ConfigGenerator;
+import com.android.tools.nbandroid.layoutlib.LayoutLibrary;
+import com.android.tools.nbandroid.layoutlib.RenderingException;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import sk.arsi.netbeans.gradle.android.layout.impl.android.ResourceResolver;
+
+/**
+ * Rendering core without any UI. It holds a pooled layout library and the
+ * shared resource repository of a module, and renders layouts in the
+ * configurations given by {@link RenderMatrix.Cell}. Used by the preview
+ * panel and by {@link LayoutRenderCli}; every {@link #render} call has its own
+ * session, resolver and callback, so it can be called from several threads.
+ *
+ * @author arsi
+ */
+public final class LayoutRenderEngine implements Closeable {
+
+    public static final long RENDER_TIMEOUT = 5000;
+    public static final int TARGET_SDK = 27;
+    private static final int RESOURCES_VERSION = 28;
+
+    private final File platformFolder;
+    private final List<File> aars;
+    private final File projectClassesFolder;
+    private final File projectR;
+    private final String appPackage;
+    private final ResourceNamespace appNamespace = ResourceNamespace.RES_AUTO;
+    private final LayoutLibraryPool.Entry libraryEntry;
+    private final ProjectResourceRepository resourceRepository;
+    private boolean closed = false;
+
+    private LayoutRenderEngine(File platformFolder, List<File> aars, File projectClassesFolder, File projectR, String appPackage,
+            LayoutLibraryPool.Entry libraryEntry, ProjectResourceRepository resourceRepository) {
+        this.platformFolder = platformFolder;
+        this.aars = aars;
+        this.projectClassesFolder = projectClassesFolder;
+        this.projectR = projectR;
+        this.appPackage = appPackage;
+        this.libraryEntry = libraryEntry;
+        this.resourceRepository = resourceRepository;
+    }
+
+    /**
+     * Acquire the layout library and resources of a module. The engine has to
+     * be closed to return them to the pools.
+     *
+     * @throws RenderingException if layoutlib of the platform can't be loaded
+     */
+    public static LayoutRenderEngine open(File platformFolder, File appResFolder, List<File> aars, List<File> jars,
+            File projectClassesFolder, File projectR, String appPackage) throws RenderingException {
+        LayoutLibraryPool.Entry entry = LayoutLibraryPool.acquire(platformFolder, aars, jars, ResourceNamespace.RES_AUTO);
+        if (entry == null) {
+            throw new RenderingException("unable to load layoutlib from " + platformFolder);
+        }
+        ProjectResourceRepository repository = ProjectResourceRepository.acquire(appResFolder, aars);
+        XmlFileCache.addImmutableRoot(platformFolder);
+        for (File aar : aars) {
+            XmlFileCache.addImmutableRoot(aar);
+        }
+        return new LayoutRenderEngine(platformFolder, aars, projectClassesFolder, projectR, appPackage, entry, repository);
+    }
+
+    public LayoutLibrary getLayoutLibrary() {
+        return libraryEntry.getLayoutLibrary();
+    }
+
+    public LayoutClassLoader getClassLoader() {
+        return libraryEntry.getClassLoader();
+    }
+
+    public ProjectResourceRepository getResourceRepository() {
+        return resourceRepository;
+    }
+
+    public ResourceNamespace getAppNamespace() {
+        return appNamespace;
+    }
+
+    /**
+     * Create a class loader of the current project classes and R.txt. Needs
+     * to be created again, when the project is recompiled.
+     */
+    public ProjectLayoutClassLoader createProjectClassLoader() {
+        RenderProfile.Mark mark = RenderProfile.mark();
+        ProjectLayoutClassLoader loader = ProjectLayoutClassLoader.getClassloader(projectClassesFolder, projectR, appPackage, getClassLoader());
+        RenderProfile.record(RenderProfile.Phase.CLASS_LOADER, mark);
+        return loader;
+    }
+
+    public LayoutLibCallback createCallback(ProjectLayoutClassLoader projectClassLoader) {
+        return new LayoutLibCallback(new LayoutIO(), aars, getClassLoader(), appNamespace, projectClassLoader);
+    }
+
+    public static ConfigGenerator createConfig(int width, int height, com.android.resources.Density density, int dpi) {
+        return new ConfigGenerator()
+                .setScreenHeight(height)
+                .setScreenWidth(width)
+                .setXdpi(dpi)
+                .setYdpi(dpi)
+                .setOrientation(ScreenOrientation.PORTRAIT)
+                .setDensity(density)
+                .setRatio(ScreenRatio.NOTLONG)
+                .setSize(ScreenSize.NORMAL)
+                .setKeyboard(Keyboard.NOKEY)
+                .setTouchScreen(TouchScreen.FINGER)
+                .setKeyboardState(KeyboardState.SOFT)
+                .setSoftButtons(true)
+                .setNavigation(Navigation.NONAV);
+    }
+
+    /**
+     * Framework and project resources resolved for the configuration.
+     */
+    public Map<ResourceNamespace, Map<ResourceType, ResourceValueMap>> getConfiguredResources(FolderConfiguration config) {
+        config.setVersionQualifier(VersionQualifier.getQualifier(VersionQualifier.getFolderSegment(RESOURCES_VERSION)));
+        File platformResFolder = new File(new File(platformFolder, "data"), "res");
+        RenderProfile.Mark mark = RenderProfile.mark();
+        Map<ResourceNamespace, Map<ResourceType, ResourceValueMap>> resources = new DisjointUnionMap<>(FrameworkResourcesCache.getOrCreateFrameworkResources(platformResFolder).getConfiguredResources(config).rowMap(),
+                resourceRepository.getConfiguredResources(config).rowMap());
+        RenderProfile.record(RenderProfile.Phase.CONFIGURED_RESOURCES, mark);
+        return resources;
+    }
+
+    public ResourceReference resolveTheme(ResourceUrl themeUrl) {
+        if (themeUrl == null) {
+            return null;
+        }
+        return themeUrl.resolve(appNamespace, new ResourceNamespace.Resolver() {
+            @Override
+            public String prefixToUri(String namespacePrefix) {
+                return SdkConstants.ANDROID_NS_NAME.equals(namespacePrefix) ? SdkConstants.ANDROID_URI : null;
+            }
+        });
+    }
+
+    public SessionParams createSessionParams(ILayoutPullParser layoutParser, ConfigGenerator configGenerator,
+            LayoutLibCallback layoutLibCallback, ResourceResolver resourceResolver, SessionParams.RenderingMode renderingMode,
+            int targetSdk, List<ResourceValue> resourceLookupChain) {
+        SessionParams sessionParams
+                = new SessionParams(layoutParser, renderingMode, null /*used for caching*/,
+                        configGenerator.getHardwareConfig(), resourceResolver.createRecorder(resourceLookupChain), layoutLibCallback, 0,
+                        targetSdk, new LayoutLog());
+        sessionParams.setFlag(RenderParamsFlags.FLAG_DO_NOT_RENDER_ON_CREATE, true);
+        sessionParams.setAssetRepository(new LayoutAssetRepository());
+        return sessionParams;
+    }
+
+    /**
+     * Render the layout in the configuration of the cell. The screen dpi is
+     * the dpi of the cell density, a theme of null means the default theme
+     * passed.
+     */
+    public Rendering render(byte[] layout, RenderMatrix.Cell cell, String defaultTheme, ProjectLayoutClassLoader projectClassLoader) throws RenderingException {
+        long start = System.nanoTime();
+        com.android.resources.Density density = cell.getDensity().getDensity();
+        ConfigGenerator config = createConfig(cell.getWidth(), cell.getHeight(), density, density.getDpiValue())
+                .setOrientation(cell.getOrientation());
+        FolderConfiguration folderConfig = config.getFolderConfig();
+        if (cell.getLocale() != null) {
+            LocaleQualifier locale = LocaleQualifier.getQualifier(cell.getLocale());
+            if (locale == null) {
+                throw new RenderingException("Invalid locale: " + cell.getLocale());
+            }
+            folderConfig.setLocaleQualifier(locale);
+        }
+        String theme = cell.getTheme() != null ? cell.getTheme() : defaultTheme;
+        Map<ResourceNamespace, Map<ResourceType, ResourceValueMap>> resources = getConfiguredResources(folderConfig);
+        RenderProfile.Mark mark = RenderProfile.mark();
+        ResourceResolver resolver = ResourceResolver.create(resources, resolveTheme(theme != null ? ResourceUrl.parse(theme) : null));
+        RenderProfile.record(RenderProfile.Phase.RESOLVER, mark);
+        resolver.setDeviceDefaults("Material");
+        SessionParams params = createSessionParams(LayoutFilePullParser.create(new ByteArrayInputStream(layout), appNamespace),
+                config, createCallback(projectClassLoader), resolver, SessionParams.RenderingMode.NORMAL, TARGET_SDK, new ArrayList<ResourceValue>());
+        if (cell.getLocale() != null) {
+            params.setLocale(cell.getLocale());
+        }
+        long resolved = System.nanoTime();
+        mark = RenderProfile.mark();
+        RenderSession session = getLayoutLibrary().createSession(params);
+        RenderProfile.record(RenderProfile.Phase.INFLATE, mark);
+        try {
+            Result result = session.getResult();
+            long inflated = System.nanoTime();
+            if (result == null || result.getException() == null) {
+                mark = RenderProfile.mark();
+                result = session.render(RENDER_TIMEOUT, false);
+                RenderProfile.record(RenderProfile.Phase.RENDER, mark);
+            }
+            long rendered = System.nanoTime();
+            if (result.getException() != null) {
+                throw new RenderingException(result.getErrorMessage() != null ? result.getErrorMessage() : "unable to create rendering sesion", result.getException());
+            }
+            if (result.getStatus() != Result.Status.SUCCESS) {
+                throw new RenderingException("unable to generate layout preview: " + result.getStatus());
+            }
+            mark = RenderProfile.mark();
+            BufferedImage image = session.getImage();
+            RenderProfile.record(RenderProfile.Phase.IMAGE_COPY, mark);
+            return new Rendering(image, resolved - start, inflated - resolved, rendered - inflated);
+        } finally {
+            session.dispose();
+        }
+    }
+
+    /**
+     * Return the layout library and resources to the pools.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LayoutLibraryPool.release(libraryEntry);
+        ProjectResourceRepository.release(resourceRepository);
+    }
+
+    /**
+     * Rendered image and the time spent in the rendering phases.
+     */
+    public static final class Rendering {
+
+        private final BufferedImage image;
+        private final long resolveNanos;
+        private final long inflateNanos;
+        private final long renderNanos;
+
+        Rendering(BufferedImage image, long resolveNanos, long inflateNanos, long renderNanos) {
+            this.image = image;
+            this.resolveNanos = resolveNanos;
+            this.inflateNanos = inflateNanos;
+            this.renderNanos = renderNanos;
+        }
+
+        public BufferedImage getImage() {
+            return image;
+        }
+
+        /**
+         * Resource resolution and session setup.
+         */
+        public long getResolveNanos() {
+            return resolveNanos;
+        }
+
+        /**
+         * Session creation, which inflates the layout.
+         */
+        public long getInflateNanos() {
+            return inflateNanos;
+        }
+
+        /**
+         * Measure, layout and draw.
+         */
+        public long getRenderNanos() {
+            return renderNanos;
+        }
+    }
+}
@@ -19,43 +19,54 @@
 package sk.arsi.netbeans.gradle.android.layout.impl;
 
 import com.android.ide.common.rendering.api.ResourceNamespace;
-import com.android.resources.ResourceType;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Constructor;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.BiConsumer;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.commons.ClassRemapper;
 import org.objectweb.asm.commons.Remapper;
+import sk.arsi.netbeans.gradle.android.layout.impl.v2.AndroidXRemmaper;
 
 /**
- * Classloader to load project classes and R.txt
+ * Classloader to load project classes and R.txt. It also caches the view
+ * constructors resolved by the layoutlib callbacks, so the views of all
+ * renders with this loader are created without reflection lookups.
  *
  * @author arsi
  */
 public class ProjectLayoutClassLoader extends URLClassLoader {
 
     private final ResourceClassGeneratorConfig classGeneratorConfig;
+    private final ConcurrentMap<ConstructorKey, Constructor<?>> constructors = new ConcurrentHashMap<>();
+    private volatile Boolean androidXAppCompat;
+    private volatile Boolean legacyAppCompat;
 
     public ResourceClassGeneratorConfig getClassGeneratorConfig() {
         return classGeneratorConfig;
     }
 
     public static ProjectLayoutClassLoader getClassloader(File projectClassesFolder, File projectR, String appPackage, LayoutClassLoader layoutClassLoader) {
-        URL urls[];
-        try {
-            urls = new URL[]{projectClassesFolder.toURI().toURL()};
-        } catch (MalformedURLException ex) {
-            urls = new URL[0];
+        URL urls[] = new URL[0];
+        if (projectClassesFolder != null) {
+            try {
+                urls = new URL[]{projectClassesFolder.toURI().toURL()};
+            } catch (MalformedURLException ex) {
+            }
         }
         return new ProjectLayoutClassLoader(urls, projectR, appPackage, layoutClassLoader);
     }
@@ -63,15 +74,67 @@ public class ProjectLayoutClassLoader extends URLClassLoader {
     private ProjectLayoutClassLoader(URL urls[], File projectR, String appPackage, LayoutClassLoader layoutClassLoader) {
         super(urls, layoutClassLoader);//pass empty URLs we need to exlude R.classes
         classGeneratorConfig = layoutClassLoader.getClassGeneratorConfig();
+        RenderProfile.Mark mark = RenderProfile.mark();
         generateRs(projectR, appPackage);
+        RenderProfile.record(RenderProfile.Phase.R_GENERATION, mark);
+    }
+
+
+    public boolean hasAndroidXAppCompat() {
+        if (androidXAppCompat == null) {
+            androidXAppCompat = isLoadable("androidx.appcompat.app.WindowDecorActionBar");
+        }
+        return androidXAppCompat;
     }
 
+    public boolean hasLegacyAppCompat() {
+        if (legacyAppCompat == null) {
+            legacyAppCompat = !hasAndroidXAppCompat() && isLoadable("android.support.v7.app.WindowDecorActionBar");
+        }
+        return legacyAppCompat;
+    }
+
+    private boolean isLoadable(String name) {
+        try {
+            loadClass(name);
+            return true;
+        } catch (ClassNotFoundException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Map the class name to the AndroidX or the support library, whichever
+     * the project uses.
+     */
+    public String remap(String name) {
+        if (hasAndroidXAppCompat()) {
+            return AndroidXRemmaper.toAndroidX(name);
+        } else if (hasLegacyAppCompat()) {
+            return AndroidXRemmaper.fromAndroidX(name);
+        }
+        return name;
+    }
+
+    /**
+     * Get the accessible constructor of the remapped class. Resolved
+     * constructors are cached by the original name and the signature.
+     */
+    public Constructor<?> getViewConstructor(String name, Class[] constructorSignature) throws ClassNotFoundException, NoSuchMethodException {
+        ConstructorKey key = new ConstructorKey(name, constructorSignature);
+        Constructor<?> constructor = constructors.get(key);
+        if (constructor == null) {
+            constructor = loadClass(remap(name)).getConstructor(constructorSignature);
+            constructor.setAccessible(true);
+            constructors.put(key, constructor);
+        }
+        return constructor;
+    }
 
     private void generateRs(File projectR, String appPackage) {
         Map<String, List<File>> packages = new HashMap<>();
-        if (projectR.exists() && projectR.isFile()) {
-            Map<ResourceType, Map<String, Object>> resourceMap = ResourceClassGenerator.buildFullResourceMap(ResourceNamespace.RES_AUTO, appPackage, projectR, classGeneratorConfig);
-            ResourceClassGenerator.generate(appPackage, resourceMap, (className, classBytes) -> defineClass(className, classBytes, 0, classBytes.length));
+        if (projectR != null && projectR.isFile()) {
+            RClassCache.defineClasses(ResourceNamespace.RES_AUTO, appPackage, Collections.singletonList(projectR), classGeneratorConfig, (className, classBytes) -> defineClass(className, classBytes, 0, classBytes.length));
 
         }
     }
@@ -136,4 +199,32 @@ public class ProjectLayoutClassLoader extends URLClassLoader {
         return s;
     }
 
+
+    private static final class ConstructorKey {
+
+        private final String name;
+        private final Class[] signature;
+
+        ConstructorKey(String name, Class[] signature) {
+            this.name = name;
+            this.signature = signature.clone();
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * name.hashCode() + Arrays.hashCode(signature);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ConstructorKey)) {
+                return false;
+            }
+            ConstructorKey other = (ConstructorKey) obj;
+            return name.equals(other.name) && Arrays.equals(signature, other.signature);
+        }
+    }
 }
@@ -0,0 +1,363 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package sk.arsi.netbeans.gradle.android.layout.impl;
+
+import com.android.ide.common.rendering.api.ResourceNamespace;
+import com.android.ide.common.resources.FileStatus;
+import com.android.ide.common.resources.MergingException;
+import com.android.ide.common.resources.ResourceFile;
+import com.android.ide.common.resources.ResourceMerger;
+import com.android.ide.common.resources.ResourceMergerItem;
+import com.android.ide.common.resources.ResourceSet;
+import com.android.ide.common.resources.ResourceValueMap;
+import com.android.ide.common.resources.configuration.FolderConfiguration;
+import com.android.resources.ResourceType;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Table;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.openide.filesystems.FileChangeAdapter;
+import org.openide.filesystems.FileChangeListener;
+import org.openide.filesystems.FileEvent;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+import org.openide.util.Exceptions;
+import org.openide.util.RequestProcessor;
+import sk.arsi.netbeans.gradle.android.layout.impl.v2.AarResourceSet;
+import sk.arsi.netbeans.gradle.android.layout.impl.v2.MergerResourceRepositoryV2;
+
+/**
+ * Resources of one project module, shared by all its preview panels. The
+ * merged repository of the app res folder and the aar res folders is loaded
+ * once and kept up to date by a single recursive listener on the res folder.
+ * Subscribed panels get the file events after the repository was updated.
+ * A changed file is applied as a delta: its old items are replaced by the
+ * new ones in the merged table, restoring or hiding the aar items with the
+ * same key, so the aar sets are never merged again.
+ * The aar resource sets come from {@link AarResourcesCache}, so modules using
+ * the same exploded aar share them. Repositories are reference counted and
+ * evicted after {@link LayoutLibraryPool#IDLE_TIMEOUT} ms without use.
+ *
+ * @author arsi
+ */
+public class ProjectResourceRepository {
+
+    private static final RequestProcessor RP = new RequestProcessor(ProjectResourceRepository.class);
+
+    private static final Map<Key, ProjectResourceRepository> repositories = new HashMap<>();
+    private static final int CONFIGURED_CACHE_SIZE = 16;
+
+    private final Key key;
+    private int references = 0;
+    private RequestProcessor.Task evictTask;
+    private FileObject resFolderObject;
+    private final List<FileChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final FileChangeListener resFolderListener = new FileChangeAdapter() {
+        @Override
+        public void fileDataCreated(FileEvent fe) {
+            update(fe, FileStatus.NEW);
+            for (FileChangeListener listener : listeners) {
+                listener.fileDataCreated(fe);
+            }
+        }
+
+        @Override
+        public void fileChanged(FileEvent fe) {
+            update(fe, FileStatus.CHANGED);
+            for (FileChangeListener listener : listeners) {
+                listener.fileChanged(fe);
+            }
+        }
+
+        @Override
+        public void fileDeleted(FileEvent fe) {
+            update(fe, FileStatus.REMOVED);
+            for (FileChangeListener listener : listeners) {
+                listener.fileDeleted(fe);
+            }
+        }
+    };
+    //guarded by this
+    private ResourceMerger resourceMerger;
+    private ResourceSet projectResourceSet;
+    private MergerResourceRepositoryV2 repository;
+    private final List<AarResourceSet> aarSets = new ArrayList<>();
+    //project items in the merged table by their source file
+    private final Map<File, List<ResourceMergerItem>> projectItems = new HashMap<>();
+    private boolean outOfDate = false;
+    //resolved tables per configuration qualifier, cleared by every update
+    private final Map<String, Table<ResourceNamespace, ResourceType, ResourceValueMap>> configured = new HashMap<>();
+
+    private ProjectResourceRepository(Key key) {
+        this.key = key;
+    }
+
+    /**
+     * Get the shared repository of the module. Every call has to be paired
+     * with {@link #release(ProjectResourceRepository)}. The resources are
+     * loaded on first use.
+     */
+    public static ProjectResourceRepository acquire(File appResFolder, List<File> aars) {
+        Key key = new Key(appResFolder, aars);
+        ProjectResourceRepository repository;
+        synchronized (repositories) {
+            repository = repositories.get(key);
+            if (repository == null) {
+                repository = new ProjectResourceRepository(key);
+                repositories.put(key, repository);
+                repository.resFolderObject = FileUtil.toFileObject(appResFolder);
+                if (repository.resFolderObject != null) {
+                    repository.resFolderObject.addRecursiveListener(repository.resFolderListener);
+                }
+            }
+            repository.references++;
+            if (repository.evictTask != null) {
+                repository.evictTask.cancel();
+                repository.evictTask = null;
+            }
+        }
+        return repository;
+    }
+
+    /**
+     * Release a repository acquired before. The last release schedules its
+     * eviction.
+     */
+    public static void release(final ProjectResourceRepository repository) {
+        synchronized (repositories) {
+            if (--repository.references > 0) {
+                return;
+            }
+            repository.evictTask = RP.post(new Runnable() {
+                @Override
+                public void run() {
+                    evict(repository);
+                }
+            }, LayoutLibraryPool.IDLE_TIMEOUT);
+        }
+    }
+
+    private static void evict(ProjectResourceRepository repository) {
+        synchronized (repositories) {
+            if (repository.references > 0 || repositories.get(repository.key) != repository) {
+                return;
+            }
+            repositories.remove(repository.key);
+        }
+        if (repository.resFolderObject != null) {
+            repository.resFolderObject.removeRecursiveListener(repository.resFolderListener);
+        }
+    }
+
+    /**
+     * Subscribe to changes of the res folder. The listener gets the events
+     * after the repository was updated.
+     */
+    public void addFileChangeListener(FileChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeFileChangeListener(FileChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Resolve the project and aar resources for the configuration. The result
+     * is memoized per configuration until the next change of the resources
+     * and must not be modified.
+     */
+    public synchronized Table<ResourceNamespace, ResourceType, ResourceValueMap> getConfiguredResources(FolderConfiguration config) {
+        RenderProfile.Mark mark = RenderProfile.mark();
+        if (repository == null || outOfDate) {
+            load();
+            configured.clear();
+        }
+        RenderProfile.record(RenderProfile.Phase.RESOURCE_UPDATE, mark);
+        outOfDate = false;
+        String key = config.getQualifierString();
+        Table<ResourceNamespace, ResourceType, ResourceValueMap> table = configured.get(key);
+        if (table == null) {
+            if (configured.size() >= CONFIGURED_CACHE_SIZE) {
+                configured.clear();
+            }
+            table = repository.getConfiguredResources(config);
+            configured.put(key, table);
+        }
+        return table;
+    }
+
+    private synchronized void update(FileEvent fe, FileStatus status) {
+        File file = FileUtil.toFile(fe.getFile());
+        if (projectResourceSet == null || file == null) {
+            return;
+        }
+        try {
+            //false for files, which are not resources of the set
+            if (!projectResourceSet.updateWith(key.appResFolder, file, status, new LayoutIO())) {
+                return;
+            }
+        } catch (Exception ex) {
+            //the set may be updated partially, load it again on next use
+            outOfDate = true;
+            return;
+        }
+        applyDelta(file);
+        configured.clear();
+    }
+
+    /**
+     * Replace the items of the file in the merged table by its current
+     * items. Only the items of the file are visited, the items removed from
+     * the file are dropped from the resource set too.
+     */
+    private void applyDelta(File file) {
+        List<ResourceMergerItem> oldItems = projectItems.remove(file);
+        List<ResourceMergerItem> newItems = new ArrayList<>();
+        List<ResourceMergerItem> removedItems = new ArrayList<>();
+        Set<String> newKeys = new HashSet<>();
+        ResourceFile dataFile = projectResourceSet.getDataFile(file);
+        if (dataFile != null) {
+            for (ResourceMergerItem item : dataFile.getItems()) {
+                if (item.isRemoved()) {
+                    removedItems.add(item);
+                } else {
+                    newItems.add(item);
+                    newKeys.add(item.getKey());
+                }
+            }
+        }
+        if (!removedItems.isEmpty()) {
+            //the set only flags them, they would pile up with every edit
+            dataFile.removeItems(removedItems);
+            ListMultimap<String, ResourceMergerItem> dataMap = projectResourceSet.getDataMap();
+            for (ResourceMergerItem item : removedItems) {
+                dataMap.remove(item.getKey(), item);
+            }
+        }
+        Set<ResourceMergerItem> staleItems = Collections.newSetFromMap(new IdentityHashMap<ResourceMergerItem, Boolean>());
+        if (oldItems != null) {
+            staleItems.addAll(oldItems);
+        }
+        staleItems.addAll(removedItems);
+        for (ResourceMergerItem item : staleItems) {
+            repository.removeItem(item);
+            if (!newKeys.contains(item.getKey())) {
+                //the project item doesn't hide the aar item any more
+                ResourceMergerItem hidden = findAarItem(item.getKey());
+                if (hidden != null) {
+                    repository.removeItem(hidden);
+                    repository.addItem(hidden);
+                }
+            }
+        }
+        for (ResourceMergerItem item : newItems) {
+            ResourceMergerItem hidden = findAarItem(item.getKey());
+            if (hidden != null) {
+                repository.removeItem(hidden);
+            }
+            repository.removeItem(item);
+            repository.addItem(item);
+        }
+        if (!newItems.isEmpty()) {
+            projectItems.put(file, newItems);
+        }
+    }
+
+    /**
+     * The aar item with the key, which wins the merge; later sets override
+     * the earlier ones.
+     */
+    private ResourceMergerItem findAarItem(String itemKey) {
+        for (int i = aarSets.size() - 1; i >= 0; i--) {
+            List<ResourceMergerItem> items = aarSets.get(i).getDataMap().get(itemKey);
+            for (int j = items.size() - 1; j >= 0; j--) {
+                if (!items.get(j).isRemoved()) {
+                    return items.get(j);
+                }
+            }
+        }
+        return null;
+    }
+
+    private void load() {
+        resourceMerger = new ResourceMerger(0);
+        aarSets.clear();
+        for (File aar : key.aars) {
+            AarResourceSet aarSet = AarResourcesCache.getOrCreateAarResources(aar);
+            if (aarSet != null) {
+                resourceMerger.addDataSet(aarSet);
+                aarSets.add(aarSet);
+            }
+        }
+
+        projectResourceSet = new ResourceSet("project", ResourceNamespace.RES_AUTO, "project", false);
+        projectResourceSet.addSource(key.appResFolder);
+        projectResourceSet.setShouldParseResourceIds(true);
+        projectResourceSet.setTrackSourcePositions(false);
+        projectResourceSet.setCheckDuplicates(false);
+        try {
+            projectResourceSet.loadFromFiles(new LayoutIO());
+            resourceMerger.addDataSet(projectResourceSet);
+        } catch (MergingException ex) {
+            Exceptions.printStackTrace(ex);
+        }
+        repository = new MergerResourceRepositoryV2();
+        repository.update(resourceMerger);
+        projectItems.clear();
+        for (ResourceMergerItem item : projectResourceSet.getDataMap().values()) {
+            ResourceFile source = item.getSourceFile();
+            if (!item.isRemoved() && source != null) {
+                projectItems.computeIfAbsent(source.getFile(), k -> new ArrayList<>()).add(item);
+            }
+        }
+    }
+
+    private static final class Key {
+
+        private final File appResFolder;
+        private final List<File> aars;
+
+        Key(File appResFolder, List<File> aars) {
+            this.appResFolder = appResFolder;
+            this.aars = new ArrayList<>(aars);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * appResFolder.hashCode() + aars.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return appResFolder.equals(other.appResFolder) && aars.equals(other.aars);
+        }
+    }
+}
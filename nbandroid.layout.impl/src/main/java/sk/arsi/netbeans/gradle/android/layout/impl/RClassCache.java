@@ -0,0 +1,273 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package sk.arsi.netbeans.gradle.android.layout.impl;
+
+import com.android.ide.common.rendering.api.ResourceNamespace;
+import com.android.resources.ResourceType;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.Files;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.openide.modules.Places;
+import org.openide.util.Exceptions;
+
+/**
+ * Cache of generated R classes keyed by the content hash of the R.txt files.
+ * Entries are kept in memory and in the NetBeans cache dir, so R.txt is only
+ * parsed and the classes regenerated with ASM when it really changed.
+ * <p>
+ * The generated IDs depend on the state of the
+ * {@link ResourceClassGeneratorConfig}, therefore every entry remembers the
+ * IDs requested during the generation. A hit requests the same IDs again, in
+ * the same order, and the cached classes are used only when the config
+ * returns the same values. Otherwise the config is in the state a full
+ * generation would leave it and the classes are generated again.
+ *
+ * @author arsi
+ */
+public class RClassCache {
+
+    private static final Logger LOG = Logger.getLogger(RClassCache.class.getName());
+    private static final String CACHE_FOLDER = "nbandroid/rclasses";
+    private static final int MAGIC = 0x52434c53;
+    private static final int VERSION = 1;
+    private static final int MAX_DISK_ENTRIES = 256;
+
+    private static final Cache<String, Entry> cache = CacheBuilder.newBuilder().softValues().build();
+
+    /**
+     * Define R classes of the package generated from the R.txt files.
+     *
+     * @param fqcn class name passed to
+     * {@link ResourceClassGenerator#generate}
+     * @param rTxtFiles R.txt files merged into one R class
+     */
+    public static void defineClasses(ResourceNamespace namespace, String fqcn, List<File> rTxtFiles, ResourceClassGeneratorConfig config, BiConsumer<String, byte[]> defineClass) {
+        List<byte[]> contents = new ArrayList<>(rTxtFiles.size());
+        for (File rTxt : rTxtFiles) {
+            try {
+                contents.add(Files.toByteArray(rTxt));
+            } catch (IOException ex) {
+                Exceptions.printStackTrace(ex);
+            }
+        }
+        String key = computeKey(namespace, fqcn, contents);
+        Entry entry = cache.getIfPresent(key);
+        if (entry == null) {
+            entry = readEntry(key);
+        }
+        if (entry != null && entry.replay(namespace, config)) {
+            cache.put(key, entry);
+            for (Map.Entry<String, byte[]> classEntry : entry.classes.entrySet()) {
+                defineClass.accept(classEntry.getKey(), classEntry.getValue());
+            }
+            return;
+        }
+        List<GeneratedId> generatedIds = new ArrayList<>();
+        Map<ResourceType, Map<String, Object>> resourceMap = ResourceClassGenerator.buildFullResourceMap(namespace, readLines(contents), config, generatedIds);
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        ResourceClassGenerator.generate(fqcn, resourceMap, (className, classBytes) -> {
+            classes.put(className, classBytes);
+            defineClass.accept(className, classBytes);
+        });
+        entry = new Entry(generatedIds, classes);
+        cache.put(key, entry);
+        writeEntry(key, entry);
+    }
+
+    private static List<String> readLines(List<byte[]> contents) {
+        List<String> lines = new ArrayList<>();
+        for (byte[] content : contents) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                }
+            } catch (IOException ex) {
+                Exceptions.printStackTrace(ex);
+            }
+        }
+        return lines;
+    }
+
+    private static String computeKey(ResourceNamespace namespace, String fqcn, List<byte[]> contents) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update((VERSION + ":" + namespace + ":" + fqcn).getBytes(StandardCharsets.UTF_8));
+            for (byte[] content : contents) {
+                digest.update(new byte[]{
+                    (byte) (content.length >>> 24), (byte) (content.length >>> 16),
+                    (byte) (content.length >>> 8), (byte) content.length});
+                digest.update(content);
+            }
+            StringBuilder sb = new StringBuilder(40);
+            for (byte b : digest.digest()) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static Entry readEntry(String key) {
+        File file = Places.getCacheSubfile(CACHE_FOLDER + "/" + key + ".bin");
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.toByteArray(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            int idCount = in.readInt();
+            List<GeneratedId> generatedIds = new ArrayList<>(idCount);
+            for (int i = 0; i < idCount; i++) {
+                ResourceType type = ResourceType.getEnum(in.readUTF());
+                if (type == null) {
+                    return null;
+                }
+                generatedIds.add(new GeneratedId(type, in.readUTF(), in.readInt()));
+            }
+            int classCount = in.readInt();
+            Map<String, byte[]> classes = new LinkedHashMap<>();
+            for (int i = 0; i < classCount; i++) {
+                String className = in.readUTF();
+                byte[] classBytes = new byte[in.readInt()];
+                in.readFully(classBytes);
+                classes.put(className, classBytes);
+            }
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(generatedIds, classes);
+        } catch (IOException ex) {
+            LOG.log(Level.INFO, "Dropping unreadable R class cache " + file, ex);
+            file.delete();
+            return null;
+        }
+    }
+
+    private static void writeEntry(String key, Entry entry) {
+        File folder = Places.getCacheSubdirectory(CACHE_FOLDER);
+        File file = new File(folder, key + ".bin");
+        File tmp = new File(folder, key + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entry.generatedIds.size());
+            for (GeneratedId generatedId : entry.generatedIds) {
+                out.writeUTF(generatedId.type.getName());
+                out.writeUTF(generatedId.name);
+                out.writeInt(generatedId.id);
+            }
+            out.writeInt(entry.classes.size());
+            for (Map.Entry<String, byte[]> classEntry : entry.classes.entrySet()) {
+                out.writeUTF(classEntry.getKey());
+                out.writeInt(classEntry.getValue().length);
+                out.write(classEntry.getValue());
+            }
+        } catch (IOException ex) {
+            LOG.log(Level.INFO, "Unable to write R class cache " + file, ex);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+            }
+        }
+        pruneFolder(folder);
+    }
+
+    /**
+     * Old entries are never hit again after R.txt changed, keep only the
+     * recently used ones.
+     */
+    private static void pruneFolder(File folder) {
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(".bin"));
+        if (files == null || files.length <= MAX_DISK_ENTRIES) {
+            return;
+        }
+        Arrays.sort(files, (f1, f2) -> Long.compare(f1.lastModified(), f2.lastModified()));
+        for (int i = 0; i < files.length - MAX_DISK_ENTRIES; i++) {
+            files[i].delete();
+        }
+    }
+
+    /**
+     * ID requested from the {@link ResourceClassGeneratorConfig} while
+     * building the resource map.
+     */
+    static final class GeneratedId {
+
+        private final ResourceType type;
+        private final String name;
+        private final int id;
+
+        GeneratedId(ResourceType type, String name, int id) {
+            this.type = type;
+            this.name = name;
+            this.id = id;
+        }
+    }
+
+    private static final class Entry {
+
+        private final List<GeneratedId> generatedIds;
+        private final Map<String, byte[]> classes;
+
+        Entry(List<GeneratedId> generatedIds, Map<String, byte[]> classes) {
+            this.generatedIds = Collections.unmodifiableList(generatedIds);
+            this.classes = Collections.unmodifiableMap(classes);
+        }
+
+        /**
+         * Request the IDs of the entry from the config.
+         *
+         * @return true, if the config returned the IDs the classes were
+         * generated with
+         */
+        boolean replay(ResourceNamespace namespace, ResourceClassGeneratorConfig config) {
+            for (GeneratedId generatedId : generatedIds) {
+                if (config.getOrCreateId(namespace, generatedId.type, generatedId.name) != generatedId.id) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
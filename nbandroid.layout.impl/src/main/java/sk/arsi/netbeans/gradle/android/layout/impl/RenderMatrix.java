@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package sk.arsi.netbeans.gradle.android.layout.impl;
+
+import com.android.resources.ScreenOrientation;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Renders one layout in a matrix of configurations. The cells are rendered
+ * in parallel on a bounded pool; all of them share the Bridge and the
+ * resource repositories of the preview panel. layoutlib serializes the
+ * inflate and draw phases internally, the pool mainly overlaps resource
+ * resolution, parsing and image handling.
+ *
+ * @author arsi
+ */
+public class RenderMatrix {
+
+    public static final int THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    private static final RequestProcessor RP = new RequestProcessor(RenderMatrix.class.getName(), THREADS);
+
+    private final AtomicInteger generation = new AtomicInteger(0);
+
+    /**
+     * Renders a single cell, called from the pool threads.
+     */
+    public interface Renderer {
+
+        BufferedImage render(Cell cell) throws Exception;
+    }
+
+    /**
+     * Gets the result of every cell, called from the pool threads.
+     */
+    public interface Listener {
+
+        /**
+         * @param image the rendered image or null
+         * @param error error message, if the image is null
+         */
+        void rendered(Cell cell, BufferedImage image, String error);
+    }
+
+    /**
+     * Create all combinations of the values, the locale and theme lists may
+     * contain null for the default.
+     */
+    public static List<Cell> combine(List<Dimension> sizes, List<Density> densities, List<ScreenOrientation> orientations, List<String> locales, List<String> themes) {
+        List<Cell> cells = new ArrayList<>();
+        for (String theme : themes) {
+            for (String locale : locales) {
+                for (Dimension size : sizes) {
+                    for (ScreenOrientation orientation : orientations) {
+                        for (Density density : densities) {
+                            cells.add(new Cell(size.width, size.height, density, orientation, locale, theme));
+                        }
+                    }
+                }
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Render the cells, cancelling the cells of a previous call not started
+     * yet.
+     */
+    public void render(List<Cell> cells, final Renderer renderer, final Listener listener) {
+        final int current = generation.incrementAndGet();
+        for (final Cell cell : cells) {
+            RP.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (generation.get() != current) {
+                        return;
+                    }
+                    try {
+                        listener.rendered(cell, renderer.render(cell), null);
+                    } catch (Exception ex) {
+                        String message = ex.getMessage();
+                        listener.rendered(cell, null, message != null ? message : ex.toString());
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Skip all cells not started yet.
+     */
+    public void cancel() {
+        generation.incrementAndGet();
+    }
+
+    public static final class Cell {
+
+        private final int width;
+        private final int height;
+        private final Density density;
+        private final ScreenOrientation orientation;
+        private final String locale;
+        private final String theme;
+
+        public Cell(int width, int height, Density density, ScreenOrientation orientation, String locale, String theme) {
+            this.width = width;
+            this.height = height;
+            this.density = density;
+            this.orientation = orientation;
+            this.locale = locale;
+            this.theme = theme;
+        }
+
+        /**
+         * Screen width in the orientation of the cell.
+         */
+        public int getWidth() {
+            return orientation == ScreenOrientation.LANDSCAPE ? Math.max(width, height) : Math.min(width, height);
+        }
+
+        /**
+         * Screen height in the orientation of the cell.
+         */
+        public int getHeight() {
+            return orientation == ScreenOrientation.LANDSCAPE ? Math.min(width, height) : Math.max(width, height);
+        }
+
+        public Density getDensity() {
+            return density;
+        }
+
+        public ScreenOrientation getOrientation() {
+            return orientation;
+        }
+
+        /**
+         * @return locale qualifier like {@code en-rUS} or null for the default
+         */
+        public String getLocale() {
+            return locale;
+        }
+
+        /**
+         * @return theme like {@code @style/AppTheme} or null for the default
+         */
+        public String getTheme() {
+            return theme;
+        }
+
+        public String getLabel() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(getWidth()).append('x').append(getHeight())
+                    .append(' ').append(density.getDensity().getResourceValue())
+                    .append(' ').append(orientation.getResourceValue());
+            if (locale != null) {
+                sb.append(' ').append(locale);
+            }
+            if (theme != null) {
+                sb.append(' ').append(theme.replace("@style/", ""));
+            }
+            return sb.toString();
+        }
+
+        /**
+         * Label usable as a part of a file name.
+         */
+        public String getFileName() {
+            return getLabel().replaceAll("[^A-Za-z0-9.+-]+", "_");
+        }
+    }
+}
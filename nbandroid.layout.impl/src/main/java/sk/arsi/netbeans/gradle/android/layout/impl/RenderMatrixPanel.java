@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package sk.arsi.netbeans.gradle.android.layout.impl;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.imageio.ImageIO;
+import javax.swing.BorderFactory;
+import javax.swing.ImageIcon;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.SwingConstants;
+import org.openide.util.NbBundle;
+
+/**
+ * Thumbnail grid of the cells of a {@link RenderMatrix}. All methods have to
+ * be called from the event dispatch thread.
+ *
+ * @author arsi
+ */
+public class RenderMatrixPanel extends JPanel {
+
+    public static final int THUMBNAIL_SIZE = 240;
+
+    private final Map<RenderMatrix.Cell, JLabel> thumbnails = new LinkedHashMap<>();
+    private final Map<RenderMatrix.Cell, BufferedImage> images = new LinkedHashMap<>();
+
+    public RenderMatrixPanel() {
+        super(new WrapLayout());
+    }
+
+    /**
+     * Show placeholders of the cells, removing the previous ones.
+     */
+    public void setCells(List<RenderMatrix.Cell> cells) {
+        removeAll();
+        thumbnails.clear();
+        images.clear();
+        for (RenderMatrix.Cell cell : cells) {
+            JLabel thumbnail = new JLabel(NbBundle.getMessage(RenderMatrixPanel.class, "RenderMatrixPanel.rendering"), SwingConstants.CENTER);
+            thumbnail.setPreferredSize(new Dimension(THUMBNAIL_SIZE, THUMBNAIL_SIZE));
+            JPanel item = new JPanel(new BorderLayout());
+            item.setBorder(BorderFactory.createEmptyBorder(4, 4, 4, 4));
+            item.add(thumbnail, BorderLayout.CENTER);
+            item.add(new JLabel(cell.getLabel(), SwingConstants.CENTER), BorderLayout.SOUTH);
+            add(item);
+            thumbnails.put(cell, thumbnail);
+        }
+        revalidate();
+        repaint();
+    }
+
+    public void setImage(RenderMatrix.Cell cell, BufferedImage image) {
+        JLabel thumbnail = thumbnails.get(cell);
+        if (thumbnail == null) {
+            return;
+        }
+        images.put(cell, image);
+        double scale = Math.min(1.0, (double) THUMBNAIL_SIZE / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) (image.getWidth() * scale));
+        int height = Math.max(1, (int) (image.getHeight() * scale));
+        thumbnail.setText(null);
+        thumbnail.setIcon(new ImageIcon(image.getScaledInstance(width, height, Image.SCALE_SMOOTH)));
+        thumbnail.setToolTipText(cell.getLabel());
+    }
+
+    public void setError(RenderMatrix.Cell cell, String error) {
+        JLabel thumbnail = thumbnails.get(cell);
+        if (thumbnail != null) {
+            thumbnail.setText(NbBundle.getMessage(RenderMatrixPanel.class, "RenderMatrixPanel.error"));
+            thumbnail.setToolTipText(error);
+        }
+    }
+
+    public boolean hasImages() {
+        return !images.isEmpty();
+    }
+
+    /**
+     * Write the rendered images as PNG files named by the prefix and the
+     * cell.
+     *
+     * @return the files written
+     */
+    public List<File> exportPng(File folder, String prefix) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (Map.Entry<RenderMatrix.Cell, BufferedImage> entry : images.entrySet()) {
+            File file = new File(folder, prefix + "-" + entry.getKey().getFileName() + ".png");
+            ImageIO.write(entry.getValue(), "png", file);
+            files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * FlowLayout, which wraps the components into rows in a scroll pane.
+     */
+    private static final class WrapLayout extends FlowLayout {
+
+        WrapLayout() {
+            super(FlowLayout.LEFT);
+        }
+
+        @Override
+        public Dimension preferredLayoutSize(java.awt.Container target) {
+            synchronized (target.getTreeLock()) {
+                int maxWidth = target.getParent() != null ? target.getParent().getWidth() : 0;
+                if (maxWidth <= 0) {
+                    return super.preferredLayoutSize(target);
+                }
+                int x = 0;
+                int rowHeight = 0;
+                int height = getVgap();
+                for (int i = 0; i < target.getComponentCount(); i++) {
+                    Dimension size = target.getComponent(i).getPreferredSize();
+                    if (x > 0 && x + getHgap() + size.width > maxWidth) {
+                        height += rowHeight + getVgap();
+                        x = 0;
+                        rowHeight = 0;
+                    }
+                    x += getHgap() + size.width;
+                    rowHeight = Math.max(rowHeight, size.height);
+                }
+                return new Dimension(maxWidth, height + rowHeight + getVgap());
+            }
+        }
+    }
+}
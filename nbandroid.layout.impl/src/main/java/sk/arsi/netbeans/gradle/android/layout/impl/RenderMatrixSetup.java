@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package sk.arsi.netbeans.gradle.android.layout.impl;
+
+import com.android.resources.ScreenOrientation;
+import java.awt.Dimension;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.Insets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.StringTokenizer;
+import javax.swing.JCheckBox;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import org.openide.util.NbBundle;
+
+/**
+ * Selection of the configurations rendered by a {@link RenderMatrix}.
+ *
+ * @author arsi
+ */
+public class RenderMatrixSetup extends JPanel {
+
+    private final JList<String> sizes;
+    private final JList<Density> densities;
+    private final JCheckBox portrait = new JCheckBox(NbBundle.getMessage(RenderMatrixSetup.class, "RenderMatrixSetup.portrait"), true);
+    private final JCheckBox landscape = new JCheckBox(NbBundle.getMessage(RenderMatrixSetup.class, "RenderMatrixSetup.landscape"));
+    private final JTextField locales = new JTextField();
+    private final JList<String> themes;
+
+    /**
+     * @param sizes screen sizes like {@code 1080x1920}
+     * @param themes themes like {@code @style/AppTheme}
+     */
+    public RenderMatrixSetup(List<String> sizes, Density density, List<String> themes, String theme) {
+        super(new GridBagLayout());
+        this.sizes = createList(sizes.toArray(new String[sizes.size()]));
+        this.densities = createList(Density.values());
+        this.themes = createList(themes.toArray(new String[themes.size()]));
+        this.sizes.setSelectedIndex(0);
+        this.densities.setSelectedValue(density, true);
+        int themeIndex = themes.indexOf(theme);
+        if (themeIndex >= 0) {
+            this.themes.setSelectedIndex(themeIndex);
+        }
+        locales.setToolTipText(NbBundle.getMessage(RenderMatrixSetup.class, "RenderMatrixSetup.locales.toolTipText"));
+        JPanel orientations = new JPanel();
+        orientations.add(portrait);
+        orientations.add(landscape);
+        addRow(0, NbBundle.getMessage(RenderMatrixSetup.class, "RenderMatrixSetup.sizes"), new JScrollPane(this.sizes));
+        addRow(1, NbBundle.getMessage(RenderMatrixSetup.class, "RenderMatrixSetup.densities"), new JScrollPane(this.densities));
+        addRow(2, NbBundle.getMessage(RenderMatrixSetup.class, "RenderMatrixSetup.orientations"), orientations);
+        addRow(3, NbBundle.getMessage(RenderMatrixSetup.class, "RenderMatrixSetup.locales"), locales);
+        addRow(4, NbBundle.getMessage(RenderMatrixSetup.class, "RenderMatrixSetup.themes"), new JScrollPane(this.themes));
+        setPreferredSize(new Dimension(480, 520));
+    }
+
+    private static <T> JList<T> createList(T[] values) {
+        JList<T> list = new JList<>(values);
+        list.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+        list.setVisibleRowCount(6);
+        return list;
+    }
+
+    private void addRow(int row, String label, JComponent component) {
+        GridBagConstraints constraints = new GridBagConstraints();
+        constraints.gridy = row;
+        constraints.anchor = GridBagConstraints.NORTHWEST;
+        constraints.insets = new Insets(4, 4, 4, 4);
+        add(new JLabel(label), constraints);
+        constraints.gridx = 1;
+        constraints.fill = GridBagConstraints.BOTH;
+        constraints.weightx = 1;
+        constraints.weighty = component instanceof JScrollPane ? 1 : 0;
+        add(component, constraints);
+    }
+
+    /**
+     * Create the cells of all selected combinations.
+     */
+    public List<RenderMatrix.Cell> getCells() {
+        List<Dimension> selectedSizes = new ArrayList<>();
+        for (String size : sizes.getSelectedValuesList()) {
+            StringTokenizer tok = new StringTokenizer(size, "x", false);
+            if (tok.countTokens() == 2) {
+                try {
+                    selectedSizes.add(new Dimension(Integer.parseInt(tok.nextToken().trim()), Integer.parseInt(tok.nextToken().trim())));
+                } catch (NumberFormatException ex) {
+                }
+            }
+        }
+        List<ScreenOrientation> orientations = new ArrayList<>();
+        if (portrait.isSelected()) {
+            orientations.add(ScreenOrientation.PORTRAIT);
+        }
+        if (landscape.isSelected()) {
+            orientations.add(ScreenOrientation.LANDSCAPE);
+        }
+        List<String> selectedLocales = new ArrayList<>();
+        StringTokenizer tok = new StringTokenizer(locales.getText(), ", ", false);
+        while (tok.hasMoreTokens()) {
+            selectedLocales.add(tok.nextToken());
+        }
+        if (selectedLocales.isEmpty()) {
+            selectedLocales.add(null);
+        }
+        List<String> selectedThemes = new ArrayList<>(themes.getSelectedValuesList());
+        if (selectedThemes.isEmpty()) {
+            selectedThemes.add(null);
+        }
+        if (selectedSizes.isEmpty() || orientations.isEmpty() || densities.isSelectionEmpty()) {
+            return Collections.emptyList();
+        }
+        return RenderMatrix.combine(selectedSizes, densities.getSelectedValuesList(), orientations, selectedLocales, selectedThemes);
+    }
+}
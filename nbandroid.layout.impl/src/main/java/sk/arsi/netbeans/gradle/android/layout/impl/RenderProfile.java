@@ -0,0 +1,245 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package sk.arsi.netbeans.gradle.android.layout.impl;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Time and allocations of the phases of one render. A profile is bound to the
+ * rendering thread between {@link #begin(String)} and {@link #end()}; the
+ * code of the phases calls {@link #mark()} and {@link #record(Phase, Mark)},
+ * which do nothing when no profile is active. Phases may nest, the class
+ * loader phase contains the R generation and the configured resources phase
+ * contains the resource repository update. Finished profiles are kept in a
+ * rolling history.
+ *
+ * @author arsi
+ */
+public final class RenderProfile {
+
+    public static final int HISTORY_SIZE = 50;
+
+    public enum Phase {
+        CLASS_LOADER("class loader"),
+        R_GENERATION("R generation"),
+        RESOURCE_UPDATE("resource update"),
+        CONFIGURED_RESOURCES("configured resources"),
+        RESOLVER("resolver"),
+        INFLATE("inflate"),
+        RENDER("render"),
+        IMAGE_COPY("image copy");
+
+        private final String displayName;
+
+        private Phase(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    private static final ThreadLocal<RenderProfile> CURRENT = new ThreadLocal<>();
+    private static final Deque<RenderProfile> HISTORY = new ArrayDeque<>();
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final String name;
+    private final long timestamp = System.currentTimeMillis();
+    private final Map<Phase, Long> nanos = new EnumMap<>(Phase.class);
+    private final Map<Phase, Long> allocated = new EnumMap<>(Phase.class);
+    private Mark start;
+    private long totalNanos;
+    private long totalAllocated;
+
+    private RenderProfile(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Start profiling the render on the current thread.
+     */
+    public static RenderProfile begin(String name) {
+        RenderProfile profile = new RenderProfile(name);
+        profile.start = new Mark();
+        CURRENT.set(profile);
+        return profile;
+    }
+
+    /**
+     * Finish the profile of the current thread and add it to the history.
+     */
+    public void end() {
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+        totalNanos = System.nanoTime() - start.nanos;
+        totalAllocated = Mark.allocated() - start.allocated;
+        synchronized (HISTORY) {
+            HISTORY.addLast(this);
+            if (HISTORY.size() > HISTORY_SIZE) {
+                HISTORY.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * Mark the start of a phase.
+     *
+     * @return the mark or null, if the thread isn't profiled
+     */
+    public static Mark mark() {
+        return CURRENT.get() != null ? new Mark() : null;
+    }
+
+    /**
+     * Add the time and allocations since the mark to the phase of the
+     * current profile.
+     */
+    public static void record(Phase phase, Mark mark) {
+        RenderProfile profile = CURRENT.get();
+        if (profile == null || mark == null) {
+            return;
+        }
+        profile.add(phase, System.nanoTime() - mark.nanos, Math.max(0, Mark.allocated() - mark.allocated));
+    }
+
+    private void add(Phase phase, long time, long bytes) {
+        Long old = nanos.get(phase);
+        nanos.put(phase, old != null ? old + time : time);
+        old = allocated.get(phase);
+        allocated.put(phase, old != null ? old + bytes : bytes);
+    }
+
+    /**
+     * Finished profiles, oldest first.
+     */
+    public static List<RenderProfile> getHistory() {
+        synchronized (HISTORY) {
+            return Collections.unmodifiableList(new ArrayList<>(HISTORY));
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return time spent in the phase or -1, if the phase didn't run
+     */
+    public long getNanos(Phase phase) {
+        Long value = nanos.get(phase);
+        return value != null ? value : -1;
+    }
+
+    /**
+     * @return bytes allocated in the phase, -1 if the phase didn't run or
+     * the JVM doesn't count allocations
+     */
+    public long getAllocatedBytes(Phase phase) {
+        Long value = allocated.get(phase);
+        return value != null && Mark.ALLOCATIONS ? value : -1;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getTotalAllocatedBytes() {
+        return Mark.ALLOCATIONS ? totalAllocated : -1;
+    }
+
+    /**
+     * One line per phase, for the preview overlay.
+     */
+    public List<String> toLines() {
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format(Locale.ROOT, "%-20s %9.1f ms %9s", "total", totalNanos / 1e6, kilobytes(getTotalAllocatedBytes())));
+        for (Phase phase : nanos.keySet()) {
+            lines.add(String.format(Locale.ROOT, "%-20s %9.1f ms %9s", phase.getDisplayName(), nanos.get(phase) / 1e6, kilobytes(getAllocatedBytes(phase))));
+        }
+        return lines;
+    }
+
+    /**
+     * Profile as a JSON object, phase names are the enum constant names.
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"totalNanos\": ").append(totalNanos)
+                .append(", \"totalAllocatedBytes\": ").append(getTotalAllocatedBytes())
+                .append(", \"phases\": {");
+        boolean first = true;
+        for (Phase phase : nanos.keySet()) {
+            if (!first) {
+                sb.append(", ");
+            }
+            first = false;
+            sb.append('"').append(phase.name()).append("\": {\"nanos\": ").append(nanos.get(phase))
+                    .append(", \"allocatedBytes\": ").append(getAllocatedBytes(phase)).append('}');
+        }
+        return sb.append("}}").toString();
+    }
+
+    private static String kilobytes(long bytes) {
+        return bytes < 0 ? "" : (bytes / 1024) + " KB";
+    }
+
+    /**
+     * Start of a measured phase.
+     */
+    public static final class Mark {
+
+        private static final boolean ALLOCATIONS = allocationsSupported();
+
+        private final long nanos = System.nanoTime();
+        private final long allocated = allocated();
+
+        private Mark() {
+        }
+
+        private static boolean allocationsSupported() {
+            if (!(THREADS instanceof com.sun.management.ThreadMXBean)) {
+                return false;
+            }
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) THREADS;
+            return bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled();
+        }
+
+        private static long allocated() {
+            if (!ALLOCATIONS) {
+                return 0;
+            }
+            return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+    }
+}
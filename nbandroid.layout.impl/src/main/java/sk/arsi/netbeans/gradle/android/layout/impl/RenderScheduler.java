@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package sk.arsi.netbeans.gradle.android.layout.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openide.util.NbPreferences;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Latest wins scheduler of the renders of one preview panel. Every request
+ * postpones the pending render, so a burst of requests ends in a single
+ * render of the final state. A request arriving while a render runs makes
+ * the running render obsolete and schedules one more render after it; the
+ * render checks {@link #isObsolete()} between its phases and stops early.
+ *
+ * @author arsi
+ */
+public class RenderScheduler {
+
+    public static final String PREF_DEBOUNCE = "layout.preview.debounce";
+    public static final int DEFAULT_DEBOUNCE = 300;
+
+    private final RequestProcessor.Task task;
+    private final int debounce;
+    private final AtomicInteger requested = new AtomicInteger(0);
+    private volatile int started = 0;
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param rp processor of the renders, should have throughput 1
+     * @param render the render, must not run concurrently with itself
+     */
+    public RenderScheduler(RequestProcessor rp, final Runnable render) {
+        this.debounce = Math.max(0, NbPreferences.forModule(RenderScheduler.class).getInt(PREF_DEBOUNCE, DEFAULT_DEBOUNCE));
+        this.task = rp.create(new Runnable() {
+            @Override
+            public void run() {
+                if (cancelled) {
+                    return;
+                }
+                started = requested.get();
+                render.run();
+            }
+        });
+    }
+
+    /**
+     * Request a render after the configured debounce delay.
+     */
+    public void schedule() {
+        schedule(debounce);
+    }
+
+    /**
+     * Request a render without waiting, for explicit user actions.
+     */
+    public void scheduleNow() {
+        schedule(0);
+    }
+
+    private void schedule(int delay) {
+        if (cancelled) {
+            return;
+        }
+        requested.incrementAndGet();
+        task.schedule(delay);
+    }
+
+    /**
+     * Check, if a newer render was requested after the current one started.
+     */
+    public boolean isObsolete() {
+        return cancelled || requested.get() != started;
+    }
+
+    /**
+     * Drop the pending render and all future requests.
+     */
+    public void cancel() {
+        cancelled = true;
+        task.cancel();
+    }
+}
@@ -66,74 +66,49 @@ import org.xml.sax.SAXException;
 public class ResourceClassGenerator {
 
     public static Map<ResourceType, Map<String, Object>> buildFullResourceMap(ResourceNamespace namespace, String fqcn, List<File> aarList, ResourceClassGeneratorConfig config) {
-        final Map<Integer, Integer> originalToGenerated = new HashMap<>();
-        final Map<ResourceType, Map<String, Object>> resources = Maps.newHashMap();
+        List<String> lines = new ArrayList<>();
         for (File aar : aarList) {
             File rTxt = new File(aar.getPath() + File.separator + "R.txt");
             try {
-                List<String> readLines = Files.readLines(rTxt, StandardCharsets.UTF_8);
-                for (String line : readLines) {
-                    StringTokenizer tok = new StringTokenizer(line, " ", false);
-                    if (tok.countTokens() > 3) {
-                        switch (tok.nextToken()) {
-                            case "int":
-                                handleFullLine(namespace, tok, resources, originalToGenerated, config);
-                                break;
-                            case "int[]":
-                                handleFullLineArray(tok, line, resources);
-                                break;
-                        }
-                    }
-                }
+                lines.addAll(Files.readLines(rTxt, StandardCharsets.UTF_8));
             } catch (IOException ex) {
                 Exceptions.printStackTrace(ex);
             }
         }
-        //refresh array ids to new IDs
-        for (Map.Entry<ResourceType, Map<String, Object>> entry : resources.entrySet()) {
-            ResourceType type = entry.getKey();
-            Map<String, Object> values = entry.getValue();
-            for (Map.Entry<String, Object> entry1 : values.entrySet()) {
-                String name = entry1.getKey();
-                Object value = entry1.getValue();
-                if (value instanceof List) {
-                    List<Integer> in = (List<Integer>) value;
-                    List<Integer> out = new ArrayList<>();
-                    for (Integer val : in) {
-                        Integer newVal = originalToGenerated.get(val);
-                        if (newVal == null) {
-                            out.add(val);
-                        } else {
-                            out.add(newVal);
-                        }
-                    }
-                    values.replace(name, out);
-                }
-            }
-        }
-        return resources;
+        return buildFullResourceMap(namespace, lines, config, null);
     }
 
     public static Map<ResourceType, Map<String, Object>> buildFullResourceMap(ResourceNamespace namespace, String fqcn, File projectR, ResourceClassGeneratorConfig config) {
+        List<String> lines = new ArrayList<>();
+        try {
+            lines = Files.readLines(projectR, StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            Exceptions.printStackTrace(ex);
+        }
+        return buildFullResourceMap(namespace, lines, config, null);
+    }
+
+    /**
+     * Build the resource map from the lines of one or more R.txt files.
+     *
+     * @param generatedIds if not null, receives every ID requested from the
+     * config, in the order of the requests
+     */
+    static Map<ResourceType, Map<String, Object>> buildFullResourceMap(ResourceNamespace namespace, List<String> lines, ResourceClassGeneratorConfig config, List<RClassCache.GeneratedId> generatedIds) {
         final Map<Integer, Integer> originalToGenerated = new HashMap<>();
         final Map<ResourceType, Map<String, Object>> resources = Maps.newHashMap();
-        try {
-            List<String> readLines = Files.readLines(projectR, StandardCharsets.UTF_8);
-            for (String line : readLines) {
-                StringTokenizer tok = new StringTokenizer(line, " ", false);
-                if (tok.countTokens() > 3) {
-                    switch (tok.nextToken()) {
-                        case "int":
-                            handleFullLine(namespace, tok, resources, originalToGenerated, config);
-                            break;
-                        case "int[]":
-                            handleFullLineArray(tok, line, resources);
-                            break;
-                    }
+        for (String line : lines) {
+            StringTokenizer tok = new StringTokenizer(line, " ", false);
+            if (tok.countTokens() > 3) {
+                switch (tok.nextToken()) {
+                    case "int":
+                        handleFullLine(namespace, tok, resources, originalToGenerated, config, generatedIds);
+                        break;
+                    case "int[]":
+                        handleFullLineArray(tok, line, resources);
+                        break;
                 }
             }
-        } catch (IOException ex) {
-            Exceptions.printStackTrace(ex);
         }
         //refresh array ids to new IDs
         for (Map.Entry<ResourceType, Map<String, Object>> entry : resources.entrySet()) {
@@ -160,7 +135,7 @@ public class ResourceClassGenerator {
         return resources;
     }
 
-    private static void handleFullLine(ResourceNamespace namespace, StringTokenizer tok, final Map<ResourceType, Map<String, Object>> resources, Map<Integer, Integer> originalToGenerated, ResourceClassGeneratorConfig config) {
+    private static void handleFullLine(ResourceNamespace namespace, StringTokenizer tok, final Map<ResourceType, Map<String, Object>> resources, Map<Integer, Integer> originalToGenerated, ResourceClassGeneratorConfig config, List<RClassCache.GeneratedId> generatedIds) {
 
         ResourceType resourceType = ResourceType.getEnum(tok.nextToken());
         String name = tok.nextToken();
@@ -175,6 +150,9 @@ public class ResourceClassGenerator {
         int packageId = (id & ResourceClassGeneratorConfig.NAMESPACE_MASK);
         if (packageId > ResourceClassGeneratorConfig.ANDROID_NAMESPACE) {
             newId = config.getOrCreateId(namespace, resourceType, name);
+            if (generatedIds != null) {
+                generatedIds.add(new RClassCache.GeneratedId(resourceType, name, newId));
+            }
         }
         originalToGenerated.put(id, newId);
         map.put(name, newId);
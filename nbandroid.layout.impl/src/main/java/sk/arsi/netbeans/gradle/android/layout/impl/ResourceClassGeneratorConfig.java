@@ -47,7 +47,7 @@ public class ResourceClassGeneratorConfig {
         this.appNamespace = appNamespace;
     }
 
-    public int getOrCreateId(ResourceNamespace namespace, ResourceType resourceType, String name) {
+    public synchronized int getOrCreateId(ResourceNamespace namespace, ResourceType resourceType, String name) {
         SingleNamespaceGenerator generator = namespaceToGerator.get(namespace);
         if (generator == null) {
             if (appNamespace.equals(namespace)) {
@@ -71,7 +71,7 @@ public class ResourceClassGeneratorConfig {
         return generator.getOrCreateId(namespace, resourceType, name);
     }
 
-    public ResourceReference findReference(int id) {
+    public synchronized ResourceReference findReference(int id) {
         int namepacePackageId = id & NAMESPACE_MASK;
         SingleNamespaceGenerator generator = namespaceStartToGerator.get(namepacePackageId);
         if (generator != null) {
@@ -132,7 +132,7 @@ public class ResourceClassGeneratorConfig {
         private final Map<ResourceType, Map<String, Integer>> resourceNamesToId = new HashMap<>();
         private final Map<Integer, ResourceReference> resourcesReverse = new HashMap<>();
 
-        public int getOrCreateId(ResourceNamespace namespace, ResourceType resourceType, String name) {
+        public synchronized int getOrCreateId(ResourceNamespace namespace, ResourceType resourceType, String name) {
             Map<ResourceReference, Integer> references = resources.get(resourceType);
             Map<String, Integer> names = resourceNamesToId.get(resourceType);
             if (references == null) {
@@ -154,7 +154,7 @@ public class ResourceClassGeneratorConfig {
             return value;
         }
 
-        public void updateReference(ResourceNamespace namespace, ResourceType resourceType, String name, int value) {
+        public synchronized void updateReference(ResourceNamespace namespace, ResourceType resourceType, String name, int value) {
             Map<ResourceReference, Integer> references = resources.get(resourceType);
             if (references != null) {
                 ResourceReference reference = new ResourceReference(namespace, resourceType, name);
@@ -163,7 +163,7 @@ public class ResourceClassGeneratorConfig {
             }
         }
 
-        public Integer getIdByName(ResourceType resourceType, String name) {
+        public synchronized Integer getIdByName(ResourceType resourceType, String name) {
             Map<String, Integer> names = resourceNamesToId.get(resourceType);
             if (names == null) {
                 names = new HashMap<>();
@@ -172,7 +172,7 @@ public class ResourceClassGeneratorConfig {
             return names.get(name);
         }
 
-        public ResourceReference findReference(int id) {
+        public synchronized ResourceReference findReference(int id) {
             return resourcesReverse.get(id);
         }
     }
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package sk.arsi.netbeans.gradle.android.layout.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Contents of the XML files opened by layoutlib: included layouts,
+ * drawables, color state lists. Entries are keyed by the path and checked
+ * against the last modification time and length of the file, files below a
+ * registered immutable root (platform resources, exploded aars) are served
+ * without touching the file system again. Large files below an immutable
+ * root are memory mapped instead of copied to the heap. Project files are
+ * always read with plain IO, a mapping would keep them locked on Windows
+ * until it is garbage collected, so they could not be saved or renamed.
+ *
+ * @author arsi
+ */
+public final class XmlFileCache {
+
+    private static final int MAP_THRESHOLD = 64 * 1024;
+    private static final long MAX_WEIGHT = 32L * 1024 * 1024;
+
+    private static final Cache<String, Entry> cache = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_WEIGHT)
+            .weigher((String path, Entry entry) -> entry.content.capacity())
+            .build();
+    private static final List<String> immutableRoots = new CopyOnWriteArrayList<>();
+
+    private XmlFileCache() {
+    }
+
+    /**
+     * Register a folder, whose files never change while the IDE runs.
+     */
+    public static void addImmutableRoot(File folder) {
+        String root = folder.getAbsolutePath() + File.separator;
+        if (!immutableRoots.contains(root)) {
+            immutableRoots.add(root);
+        }
+    }
+
+    /**
+     * Open the file content, the returned stream supports mark and reset.
+     */
+    public static InputStream open(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        Entry entry = cache.getIfPresent(path);
+        if (entry != null && (entry.immutable || entry.isUpToDate(file))) {
+            return new ByteBufferInputStream(entry.content.duplicate());
+        }
+        entry = read(file, path);
+        cache.put(path, entry);
+        return new ByteBufferInputStream(entry.content.duplicate());
+    }
+
+    private static Entry read(File file, String path) throws IOException {
+        long lastModified = file.lastModified();
+        boolean immutable = isImmutable(path);
+        ByteBuffer content;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (immutable && size >= MAP_THRESHOLD) {
+                content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                content = ByteBuffer.allocate((int) size);
+                while (content.hasRemaining() && channel.read(content) >= 0) {
+                }
+                content.flip();
+            }
+        }
+        return new Entry(content, lastModified, content.limit(), immutable);
+    }
+
+    private static boolean isImmutable(String path) {
+        for (String root : immutableRoots) {
+            if (path.startsWith(root)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Entry {
+
+        private final ByteBuffer content;
+        private final long lastModified;
+        private final long length;
+        private final boolean immutable;
+
+        Entry(ByteBuffer content, long lastModified, long length, boolean immutable) {
+            this.content = content;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.immutable = immutable;
+        }
+
+        boolean isUpToDate(File file) {
+            return file.lastModified() == lastModified && file.length() == length;
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+            buffer.mark();
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            buffer.mark();
+        }
+
+        @Override
+        public synchronized void reset() {
+            buffer.reset();
+        }
+    }
+}
@@ -38,6 +38,7 @@ import com.google.common.collect.Table;
 import com.google.common.collect.Tables;
 import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 
@@ -73,10 +74,48 @@ public class MergerResourceRepositoryV2 extends AbstractResourceRepository {
         return resourceTable.rowKeySet();
     }
 
+    /**
+     * Get all items of the type, in all configurations.
+     *
+     * @return the items by resource name or null
+     */
+    @Nullable
+    public ListMultimap<String, ResourceItem> getItems(@NonNull ResourceNamespace namespace, @NonNull ResourceType type) {
+        synchronized (ITEM_MAP_LOCK) {
+            return getMap(namespace, type, false);
+        }
+    }
+
     public void update(@NonNull ResourceMerger merger) {
         ResourceRepositories.updateTableFromMerger(merger, resourceTable);
     }
 
+    /**
+     * Add a single item, without merging.
+     */
+    public void addItem(@NonNull ResourceItem item) {
+        synchronized (ITEM_MAP_LOCK) {
+            getMap(item.getNamespace(), item.getType(), true).put(item.getName(), item);
+        }
+    }
+
+    /**
+     * Remove the item instance, equal items of other files stay.
+     */
+    public void removeItem(@NonNull ResourceItem item) {
+        synchronized (ITEM_MAP_LOCK) {
+            ListMultimap<String, ResourceItem> map = getMap(item.getNamespace(), item.getType(), false);
+            if (map == null) {
+                return;
+            }
+            for (Iterator<ResourceItem> it = map.get(item.getName()).iterator(); it.hasNext();) {
+                if (it.next() == item) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
     @Override
     public Table<ResourceNamespace, ResourceType, ResourceValueMap> getConfiguredResources(
             @NonNull FolderConfiguration referenceConfig) {
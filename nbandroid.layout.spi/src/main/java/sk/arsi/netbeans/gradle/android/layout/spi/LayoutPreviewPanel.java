@@ -68,4 +68,11 @@ public abstract class LayoutPreviewPanel extends JPanel {
 
     public abstract void showTypingIndicator();
 
+    /**
+     * Release the resources held by the preview, called when its editor is
+     * closed.
+     */
+    public void dispose() {
+    }
+
 }